@@ -0,0 +1,118 @@
+package com.caij.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Responsibility: shares identical, immutable parts of parsed scripts between them (hash-consing), so keeping many
+ * scripts parsed at once costs far less memory.
+ *
+ * Tokens with the same type, lexeme, literal and line become one token, and their lexemes one string. Literals with
+ * the same value become one node, as do variable references and pure expressions (those that do not assign) made of
+ * the same tokens and the same children. Statements and assignments are never shared.
+ *
+ * One interner is meant to be shared by every parser whose output should share nodes, from any thread.
+ */
+public final class AstInterner {
+
+    private static final class Key {
+        private final Object kind;
+        private final Object first;
+        private final Object second;
+        private final Object third;
+        private final int hash;
+
+        Key(Object kind, Object first, Object second, Object third) {
+            this.kind = kind;
+            this.first = first;
+            this.second = second;
+            this.third = third;
+            this.hash = Objects.hash(kind, first, second, third);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+
+            // tokens and children are already interned, and have no equals of their own, so are compared by identity
+            final Key key = (Key) o;
+            return hash == key.hash &&
+                    kind == key.kind &&
+                    Objects.equals(first, key.first) &&
+                    Objects.equals(second, key.second) &&
+                    Objects.equals(third, key.third);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private final ConcurrentHashMap<String, String> symbols = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Key, Object> nodes = new ConcurrentHashMap<>();
+
+    /**
+     * @param tokens tokens of a script
+     * @return the same tokens, each replaced by its shared copy
+     */
+    List<Token> intern(List<Token> tokens) {
+        final List<Token> interned = new ArrayList<>(tokens.size());
+        for (Token token : tokens) {
+            interned.add(intern(token));
+        }
+
+        return interned;
+    }
+
+    private Token intern(Token token) {
+        final String lexeme = symbols.computeIfAbsent(token.lexeme, symbol -> symbol);
+        final Key key = new Key(token.type, lexeme, token.literal, token.line);
+
+        return (Token) nodes.computeIfAbsent(key, k -> new Token(token.type, lexeme, token.literal, token.line));
+    }
+
+    /**
+     * @param expr expression just parsed, whose children have already been interned
+     * @return shared copy of expression, or expression itself if it cannot be shared
+     */
+    Expr intern(Expr expr) {
+        final Key key;
+        if (expr instanceof Expr.NumberLiteral) {
+            key = new Key(Expr.NumberLiteral.class, ((Expr.NumberLiteral) expr).value, null, null);
+        } else if (expr instanceof Expr.StringLiteral) {
+            key = new Key(Expr.StringLiteral.class, ((Expr.StringLiteral) expr).value, null, null);
+        } else if (expr instanceof Expr.BooleanLiteral) {
+            key = new Key(Expr.BooleanLiteral.class, ((Expr.BooleanLiteral) expr).value, null, null);
+        } else if (expr instanceof Expr.NilLiteral) {
+            key = new Key(Expr.NilLiteral.class, null, null, null);
+        } else if (expr instanceof Expr.Variable) {
+            key = new Key(Expr.Variable.class, ((Expr.Variable) expr).name, null, null);
+        } else if (expr instanceof Expr.Grouping) {
+            key = new Key(Expr.Grouping.class, ((Expr.Grouping) expr).expression, null, null);
+        } else if (expr instanceof Expr.Unary) {
+            key = new Key(Expr.Unary.class, ((Expr.Unary) expr).operator, ((Expr.Unary) expr).right, null);
+        } else if (expr instanceof Expr.Binary) {
+            final Expr.Binary binary = (Expr.Binary) expr;
+            key = new Key(Expr.Binary.class, binary.left, binary.operator, binary.right);
+        } else if (expr instanceof Expr.Logical) {
+            final Expr.Logical logical = (Expr.Logical) expr;
+            key = new Key(Expr.Logical.class, logical.left, logical.operator, logical.right);
+        } else {
+            return expr;
+        }
+
+        final Object shared = nodes.putIfAbsent(key, expr);
+        return shared == null ? expr : (Expr) shared;
+    }
+
+    /**
+     * @return number of distinct tokens and expressions held
+     */
+    int size() {
+        return nodes.size();
+    }
+}
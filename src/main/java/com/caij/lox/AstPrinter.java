@@ -8,7 +8,7 @@ public class AstPrinter implements Expr.Visitor<String> {
 
     @Override
     public String visitAssignExpr(Expr.Assign expr) {
-        return null;
+        return parenthesize("= " + expr.name.lexeme, expr.value);
     }
 
     @Override
@@ -16,6 +16,31 @@ public class AstPrinter implements Expr.Visitor<String> {
         return parenthesize(expr.operator.lexeme, expr.left, expr.right);
     }
 
+    @Override
+    public String visitCallExpr(Expr.Call expr) {
+        final Expr[] expressions = new Expr[expr.arguments.size() + 1];
+        expressions[0] = expr.callee;
+        for (int i = 0; i < expr.arguments.size(); i++) {
+            expressions[i + 1] = expr.arguments.get(i);
+        }
+        return parenthesize("call", expressions);
+    }
+
+    @Override
+    public String visitIndexExpr(Expr.Index expr) {
+        return parenthesize("[]", expr.object, expr.index);
+    }
+
+    @Override
+    public String visitListLiteralExpr(Expr.ListLiteral expr) {
+        return parenthesize("list", expr.elements.toArray(new Expr[0]));
+    }
+
+    @Override
+    public String visitSetIndexExpr(Expr.SetIndex expr) {
+        return parenthesize("[]=", expr.object, expr.index, expr.value);
+    }
+
     private String parenthesize(String name, Expr... expressions) {
         StringBuilder builder = new StringBuilder();
 
@@ -35,14 +60,38 @@ public class AstPrinter implements Expr.Visitor<String> {
     }
 
     @Override
-    public String visitLiteralExpr(Expr.Literal expr) {
-        if (expr.value == null) return "nil";
-        return expr.value.toString();
+    public String visitBooleanLiteralExpr(Expr.BooleanLiteral expr) {
+        return String.valueOf(expr.value);
     }
 
     @Override
     public String visitLogicalExpr(Expr.Logical expr) {
-        return null;
+        return parenthesize(expr.operator.lexeme, expr.left, expr.right);
+    }
+
+    @Override
+    public String visitMapLiteralExpr(Expr.MapLiteral expr) {
+        final Expr[] expressions = new Expr[expr.keys.size() * 2];
+        for (int i = 0; i < expr.keys.size(); i++) {
+            expressions[i * 2] = expr.keys.get(i);
+            expressions[i * 2 + 1] = expr.values.get(i);
+        }
+        return parenthesize("map", expressions);
+    }
+
+    @Override
+    public String visitNilLiteralExpr(Expr.NilLiteral expr) {
+        return "nil";
+    }
+
+    @Override
+    public String visitNumberLiteralExpr(Expr.NumberLiteral expr) {
+        return String.valueOf(expr.value);
+    }
+
+    @Override
+    public String visitStringLiteralExpr(Expr.StringLiteral expr) {
+        return expr.value;
     }
 
     @Override
@@ -52,6 +101,6 @@ public class AstPrinter implements Expr.Visitor<String> {
 
     @Override
     public String visitVariableExpr(Expr.Variable expr) {
-        return null;
+        return expr.name.lexeme;
     }
 }
@@ -0,0 +1,392 @@
+package com.caij.lox;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+/**
+ * Responsibility: runs one script over every record of a large file (CSV with a header line, or JSON Lines),
+ * scanning, parsing and resolving it only once.
+ *
+ * Variables the script uses without declaring are the fields of the record, resolved to slots when the script is
+ * compiled (see {@link FreeVariables}), so binding a record is filling in an array and reading a field is indexing it.
+ * A field missing from a record is nil. Each record runs the whole script afresh, on the same warm interpreter.
+ *
+ * Records are streamed through a buffer of fixed size, and what the script prints goes to a writer the caller should
+ * buffer. A record that cannot be read, or whose run fails, is reported and skipped. Records can be run on many
+ * threads at once, each with an interpreter of its own sharing the compiled script, which nothing changes once
+ * compiled.
+ */
+public final class Batch {
+
+    /**
+     * Format of the records a batch reads
+     */
+    public enum Format {
+        CSV, JSON_LINES;
+
+        /**
+         * @return format of a file, by its extension: .csv, else JSON Lines
+         */
+        public static Format of(Path path) {
+            return path.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".csv") ? CSV : JSON_LINES;
+        }
+    }
+
+    /**
+     * What a run got through, and how fast
+     */
+    public static final class Summary {
+        private final long records;
+        private final long failures;
+        private final long nanos;
+
+        Summary(long records, long failures, long nanos) {
+            this.records = records;
+            this.failures = failures;
+            this.nanos = nanos;
+        }
+
+        public long getRecords() {
+            return records;
+        }
+
+        public long getFailures() {
+            return failures;
+        }
+
+        public double getRecordsPerSecond() {
+            return nanos == 0 ? 0 : records * 1e9 / nanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "[%d records (%d failed) in %.3f ms, %.0f records/s]",
+                    records, failures, nanos / 1e6, getRecordsPerSecond());
+        }
+    }
+
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Records handed to a worker at a time, enough to make handing them over cheap next to running them
+     */
+    private static final int CHUNK_SIZE = 256;
+
+    /**
+     * Chunks, per worker, read ahead of the oldest not yet written
+     */
+    private static final int CHUNKS_AHEAD = 4;
+
+    private final List<Stmt> statements;
+    private final Map<String, Integer> slots;
+    private final Limits limits;
+
+    private Batch(List<Stmt> statements, Map<String, Integer> slots, Limits limits) {
+        this.statements = statements;
+        this.slots = slots;
+        this.limits = limits;
+    }
+
+    /**
+     * Compiles a script to run over records
+     * @param source raw source code of script
+     * @param limits limits applied to the run of each record
+     * @return compiled script
+     * @throws IllegalArgumentException if source has errors, all of which are described in its message
+     */
+    public static Batch compile(String source, Limits limits) {
+        final Diagnostics diagnostics = new Diagnostics();
+        final Scanner scanner = new Scanner(source, diagnostics);
+        final List<Stmt> statements = new Parser(scanner.scanTokens(), scanner.columns(), diagnostics).parse();
+        if (diagnostics.hasErrors()) {
+            throw new IllegalArgumentException(diagnostics.all().stream()
+                    .map(Diagnostic::toString)
+                    .collect(Collectors.joining("\n")));
+        }
+
+        LocalVariables.resolve(statements);
+        Types.infer(statements);
+        return new Batch(statements, FreeVariables.resolve(statements, globals()), limits);
+    }
+
+    private static Environment globals() {
+        return Natives.standardLibrary().defineIn(new Environment());
+    }
+
+    /**
+     * @return names of the fields the script uses, in the order it first uses them
+     */
+    public List<String> fields() {
+        return List.copyOf(slots.keySet());
+    }
+
+    /**
+     * Runs the script over every record of a file, as {@link #run(ReadableByteChannel, Format, Writer, PrintStream)}
+     * does, reading in the format its extension gives
+     */
+    public Summary run(Path records, Writer out, PrintStream err) throws IOException {
+        return run(records, out, err, 1);
+    }
+
+    /**
+     * Runs the script over every record of a file, as {@link #run(ReadableByteChannel, Format, Writer, PrintStream,
+     * int)} does, reading in the format its extension gives
+     */
+    public Summary run(Path records, Writer out, PrintStream err, int workers) throws IOException {
+        try (FileChannel channel = FileChannel.open(records, StandardOpenOption.READ)) {
+            return run(channel, Format.of(records), out, err, workers);
+        }
+    }
+
+    /**
+     * Runs the script over every record read, one after another
+     * @param in where records are read from, one per line (left open)
+     * @param format format of the records
+     * @param out where the script prints to (left open, but flushed)
+     * @param err where records that could not be read or run are reported
+     * @return summary of the run
+     * @throws IOException if records could not be read, or output written
+     */
+    public Summary run(ReadableByteChannel in, Format format, Writer out, PrintStream err) throws IOException {
+        return run(in, format, out, err, 1);
+    }
+
+    /**
+     * Runs the script over every record read, as {@link #run(ReadableByteChannel, Format, Writer, PrintStream)} does,
+     * but spread over
+     * @param workers threads, each running its own interpreter over chunks of records in turn. What each chunk
+     *                prints, and any errors in it, are written out in the order the records were read, as if they had
+     *                been run one after another; only a bounded window of chunks is read ahead of what is written.
+     */
+    public Summary run(ReadableByteChannel in, Format format, Writer out, PrintStream err, int workers)
+            throws IOException {
+        final long start = System.nanoTime();
+        final Records records = new Records(in, BUFFER_SIZE);
+
+        int[] columns = null;
+        if (format == Format.CSV) {
+            final String header = records.nextLine();
+            if (header == null) return new Summary(0, 0, System.nanoTime() - start);
+            if (header == Records.TOO_LONG) {
+                throw new IOException("Header line is longer than " + BUFFER_SIZE + " bytes.");
+            }
+            columns = columnSlots(Records.splitCsv(header));
+        }
+
+        return workers <= 1
+                ? runSequentially(records, columns, out, err, start)
+                : runInParallel(records, columns, out, err, workers, start);
+    }
+
+    private Summary runSequentially(Records records, int[] columns, Writer out, PrintStream err, long start)
+            throws IOException {
+        final Worker worker = new Worker(columns, out);
+        final StringBuilder errors = new StringBuilder();
+
+        for (String line = records.nextLine(); line != null; line = records.nextLine()) {
+            if (line.isEmpty()) continue;
+
+            worker.process(line, records.line(), errors);
+            if (errors.length() > 0) {
+                err.print(errors);
+                errors.setLength(0);
+            }
+        }
+
+        out.flush();
+        return new Summary(worker.records, worker.failures, System.nanoTime() - start);
+    }
+
+    private Summary runInParallel(Records records, int[] columns, Writer out, PrintStream err, int workers,
+                                  long start) throws IOException {
+        final ExecutorService pool = Executors.newFixedThreadPool(workers);
+        final ThreadLocal<Worker> worker = ThreadLocal.withInitial(() -> new Worker(columns, new StringBuilder()));
+        // chunks still being run or waiting to be written, oldest first, so they are written out in order
+        final Deque<Future<Chunk>> pending = new ArrayDeque<>();
+        long count = 0;
+        long failures = 0;
+
+        try {
+            Chunk chunk = new Chunk();
+            for (String line = records.nextLine(); ; line = records.nextLine()) {
+                if (line != null && !line.isEmpty()) chunk.add(line, records.line());
+                if (chunk.size < CHUNK_SIZE && line != null) continue;
+
+                if (chunk.size > 0) {
+                    final Chunk submitted = chunk;
+                    pending.add(pool.submit(() -> submitted.run(worker.get())));
+                    chunk = new Chunk();
+                }
+
+                while (pending.size() >= workers * CHUNKS_AHEAD || line == null && !pending.isEmpty()) {
+                    final Chunk done = await(pending.remove());
+                    out.append(done.output);
+                    err.print(done.errors);
+                    count += done.size;
+                    failures += done.failures;
+                }
+                if (line == null) break;
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        out.flush();
+        return new Summary(count, failures, System.nanoTime() - start);
+    }
+
+    private static Chunk await(Future<Chunk> chunk) {
+        try {
+            return chunk.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for records to be run.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            if (e.getCause() instanceof Error) throw (Error) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * @return slot of the field each column of the header holds, or -1 if the script does not use it
+     */
+    private int[] columnSlots(List<String> header) {
+        final int[] columns = new int[header.size()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = slots.getOrDefault(header.get(i), -1);
+        }
+        return columns;
+    }
+
+    /**
+     * Records read, in order, to be run together by one worker
+     */
+    private static final class Chunk {
+        final String[] lines = new String[CHUNK_SIZE];
+        final int[] lineNumbers = new int[CHUNK_SIZE];
+        int size;
+        String output;
+        String errors;
+        long failures;
+
+        void add(String line, int lineNumber) {
+            lines[size] = line;
+            lineNumbers[size++] = lineNumber;
+        }
+
+        Chunk run(Worker worker) {
+            final StringBuilder errors = new StringBuilder();
+            final long failuresBefore = worker.failures;
+            for (int i = 0; i < size; i++) {
+                worker.process(lines[i], lineNumbers[i], errors);
+            }
+
+            this.output = worker.takeOutput();
+            this.errors = errors.toString();
+            this.failures = worker.failures - failuresBefore;
+            return this;
+        }
+    }
+
+    /**
+     * An interpreter of its own, with the slots its records are bound to; only ever used by one thread
+     */
+    private final class Worker implements Records.Fields {
+        private final int[] columns;
+        private final Appendable out;
+        private final Interpreter interpreter;
+        private final Object[] values = new Object[slots.size()];
+        long records;
+        long failures;
+
+        /**
+         * Construct a Worker using
+         * @param columns slot of each CSV column (see {@link #columnSlots(List)}), or null if records are JSON
+         * @param out where the script prints to
+         */
+        Worker(int[] columns, Appendable out) {
+            this.columns = columns;
+            this.out = out;
+            this.interpreter = new Interpreter(limits, out, globals());
+            interpreter.bindSlots(values);
+        }
+
+        /**
+         * Binds and runs a record, describing any error in it to
+         * @param errors errors, one after another
+         */
+        void process(String line, int lineNumber, StringBuilder errors) {
+            records++;
+            if (line == Records.TOO_LONG) {
+                failures++;
+                errors.append("[line ").append(lineNumber).append("] Malformed record: Longer than ")
+                        .append(BUFFER_SIZE).append(" bytes.\n");
+                return;
+            }
+
+            Arrays.fill(values, null);
+            try {
+                if (columns == null) {
+                    Records.readJson(line, this);
+                } else {
+                    bindCsv(Records.splitCsv(line));
+                }
+            } catch (IllegalArgumentException error) {
+                failures++;
+                errors.append("[line ").append(lineNumber).append("] Malformed record: ").append(error.getMessage())
+                        .append('\n');
+                return;
+            }
+
+            try {
+                interpreter.run(statements);
+            } catch (RuntimeError error) {
+                failures++;
+                errors.append("[record on line ").append(lineNumber).append("] ").append(Lox.describe(error));
+            }
+        }
+
+        private void bindCsv(List<String> row) {
+            for (int i = 0; i < Math.min(row.size(), columns.length); i++) {
+                if (columns[i] >= 0) values[columns[i]] = Records.csvValue(row.get(i));
+            }
+        }
+
+        @Override
+        public boolean wants(String name) {
+            return slots.containsKey(name);
+        }
+
+        @Override
+        public void field(String name, Object value) {
+            values[slots.get(name)] = value;
+        }
+
+        /**
+         * @return what has been printed since last taken, when printing to a StringBuilder
+         */
+        String takeOutput() {
+            final StringBuilder printed = (StringBuilder) out;
+            final String output = printed.toString();
+            printed.setLength(0);
+            return output;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.caij.lox;
+
+/**
+ * Lets another thread ask an execution to stop. The interpreter only looks at it at safepoints (entering a block and
+ * going round a loop), so cancelling takes effect shortly after, not immediately.
+ */
+public final class CancellationToken {
+
+    /**
+     * Token for executions that are never cancelled
+     */
+    static final CancellationToken NONE = new CancellationToken();
+
+    private volatile boolean cancelled = false;
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+}
@@ -0,0 +1,161 @@
+package com.caij.lox;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Responsibility: moves loops that have gone round often (hot loops) from the tree walker to a compiled form, and back
+ * again when what they were compiled for no longer holds.
+ *
+ * Most of a script runs once, so is walked as it was parsed, without compiling anything up front. Each interpreter
+ * counts how often each loop goes round in it (see {@link Interpreter#iterationsOf(Stmt.While)}); once a loop passes
+ * the interpreter's threshold, it is compiled (see {@link LoopCompiler}) on a background thread, the tree walker carrying on with it
+ * meanwhile. When it next reaches the top of the loop with the compiled form ready, it switches to it: on entering the
+ * loop again, or between two of its iterations (replacing the loop as it runs, which moves nothing, as the locals are
+ * in the frame both share).
+ *
+ * The compiled form assumes its globals are defined, and that the variables it keeps as numbers hold numbers, which is
+ * checked on each entry. Where that no longer holds the compiled form is deoptimized: thrown away, the tree walker
+ * carrying on with the loop, to compile it again once hot again, making no assumption about that variable.
+ *
+ * The compiled form is only ever run, never changed, and each interpreter counts iterations of its own, so one
+ * compiled for a tree shared by many interpreters (as the workers of a batch share it) serves them all.
+ */
+final class CompiledLoop {
+
+    /**
+     * Iterations a loop goes round, by default, before it is compiled: enough that compiling it pays back
+     */
+    static final long HOT_ITERATIONS = 2000;
+
+    private static final ExecutorService COMPILER = Executors.newSingleThreadExecutor(task -> {
+        final Thread thread = new Thread(task, "lox-loop-compiler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final int COMPILING = 0;
+    private static final int READY = 1;
+    private static final int UNSUPPORTED = 2;
+    private static final int DEOPTIMIZED = 3;
+
+    private final Stmt.While loop;
+
+    /**
+     * Variables no assumption is made about, as they broke one before (published, once deoptimized, by
+     * {@link #state})
+     */
+    private Set<Object> excluded;
+    private final CountDownLatch compiled = new CountDownLatch(1);
+    private volatile int state = COMPILING;
+
+    /**
+     * The compiled form, published by {@link #state} becoming ready
+     */
+    private LoopCompiler code;
+
+    private CompiledLoop(Stmt.While loop, Set<Object> excluded) {
+        this.loop = loop;
+        this.excluded = excluded;
+    }
+
+    /**
+     * Carries on running a hot loop compiled, from the top of the loop, compiling it first if it has not been
+     * @param loop loop that has gone round often enough to be compiled
+     * @param interpreter interpreter running the loop
+     * @param iterations iterations the loop has gone round in interpreter, which is reset if it is not to be
+     *                   compiled (again) until hot (again)
+     * @return true if the loop ran until it ended, false if it cannot run compiled (yet), and is left to the caller
+     */
+    static boolean enter(Stmt.While loop, Interpreter interpreter, long[] iterations) {
+        final CompiledLoop compiled = loop.compiled;
+        if (compiled == null) {
+            compile(loop, Collections.emptySet());
+            return false;
+        }
+
+        switch (compiled.state) {
+            case READY:
+                return compiled.run(interpreter, iterations);
+            case DEOPTIMIZED:
+                compile(loop, compiled.excluded);
+                return false;
+            case UNSUPPORTED:
+                // counts up from here for good, so is never hot again
+                iterations[0] = Long.MIN_VALUE;
+                return false;
+            default:
+                return false;
+        }
+    }
+
+    private static void compile(Stmt.While loop, Set<Object> excluded) {
+        final CompiledLoop compiled = new CompiledLoop(loop, excluded);
+        loop.compiled = compiled;
+        COMPILER.execute(compiled::compile);
+    }
+
+    private void compile() {
+        try {
+            code = new LoopCompiler(loop, excluded);
+            state = READY;
+        } catch (LoopCompiler.Unsupported e) {
+            state = UNSUPPORTED;
+        } finally {
+            compiled.countDown();
+        }
+    }
+
+    /**
+     * Waits for the loop to have been compiled, or found not to compile
+     * @return true if it was compiled, false if not, or not in time
+     */
+    boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        return compiled.await(timeout, unit) && state != UNSUPPORTED;
+    }
+
+    /**
+     * @return true if the loop was thrown away, having found something it was compiled for no longer held
+     */
+    boolean isDeoptimized() {
+        return state == DEOPTIMIZED;
+    }
+
+    private boolean run(Interpreter interpreter, long[] iterations) {
+        final LoopCompiler code = this.code;
+        final LoopCompiler.Registers registers = new LoopCompiler.Registers(interpreter, interpreter.environment(),
+                code.numberRegisters, code.valueRegisters);
+        for (LoopCompiler.Hoisted variable : code.hoisted) {
+            if (!variable.load(registers)) {
+                deoptimize(variable.key);
+                // starts counting again, so is only compiled again if it stays hot
+                iterations[0] = 0;
+                return false;
+            }
+        }
+
+        try {
+            while (code.condition.test(registers)) {
+                if (code.body.run(registers)) break;
+                interpreter.safepoint();
+            }
+        } finally {
+            for (LoopCompiler.Hoisted variable : code.hoisted) {
+                variable.store(registers);
+            }
+        }
+        return true;
+    }
+
+    private void deoptimize(Object variable) {
+        final Set<Object> excluded = new HashSet<>(this.excluded);
+        excluded.add(variable);
+        this.excluded = excluded;
+        state = DEOPTIMIZED;
+    }
+}
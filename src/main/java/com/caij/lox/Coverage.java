@@ -0,0 +1,111 @@
+package com.caij.lox;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Responsibility: counts how many times each statement of a script runs, and reports it per line in LCOV format, so
+ * the parts of a script that never run can be found (and pruned).
+ *
+ * Each statement is given a counter, an index into one array of counts, by {@link #instrument(List)}; the interpreter
+ * {@link #interpreter(Limits, Appendable)} makes then adds one to it, a plain array store, whenever the statement is
+ * executed. Nothing else ever executes a counted statement differently, so scripts not being covered run on the
+ * interpreter as it always was. Expressions run exactly when their statement does (but for the right-hand side of
+ * and/or), so are not counted themselves.
+ */
+final class Coverage {
+
+    private long[] counts = new long[64];
+    private int[] lines = new int[64];
+    private int size = 0;
+
+    /**
+     * Gives every statement (and statement inside one) that has none yet a counter of its own
+     * @param statements statements to count the runs of
+     */
+    void instrument(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            instrument(statement);
+        }
+    }
+
+    private void instrument(Stmt statement) {
+        if (statement == null) return;
+
+        if (statement.counter < 0) {
+            if (size == counts.length) {
+                counts = Arrays.copyOf(counts, size * 2);
+                lines = Arrays.copyOf(lines, size * 2);
+            }
+            lines[size] = statement.line;
+            statement.counter = size++;
+        }
+
+        switch (statement.kind) {
+            case Stmt.BLOCK:
+                instrument(((Stmt.Block) statement).statements);
+                break;
+            case Stmt.IF:
+                instrument(((Stmt.If) statement).thenBranch);
+                instrument(((Stmt.If) statement).elseBranch);
+                break;
+            case Stmt.WHILE:
+                instrument(((Stmt.While) statement).body);
+                break;
+        }
+    }
+
+    /**
+     * Construct an interpreter counting the statements it executes (those instrumented)
+     * @param limits limits applied to each execution
+     * @param out where to print to, or null for standard output
+     * @return new interpreter
+     */
+    Interpreter interpreter(Limits limits, Appendable out) {
+        final Interpreter interpreter = new Interpreter(limits, out) {
+            @Override
+            void execute(Stmt statement) {
+                if (statement.counter >= 0) counts[statement.counter]++;
+                super.execute(statement);
+            }
+        };
+        // compiled loops would run their statements without them being counted
+        interpreter.tierUpAfter(0);
+        return interpreter;
+    }
+
+    /**
+     * @return times each line with a statement on it has run, by line: as often as the statement on it run most
+     */
+    Map<Integer, Long> lines() {
+        final Map<Integer, Long> runs = new TreeMap<>();
+        for (int counter = 0; counter < size; counter++) {
+            runs.merge(lines[counter], counts[counter], Math::max);
+        }
+        return runs;
+    }
+
+    /**
+     * Writes the counts out as an LCOV tracefile, as genhtml and most coverage tools read
+     * @param sourceFile path of the script, as the report should name it
+     * @param out where to write to (left open)
+     */
+    void writeLcov(String sourceFile, Appendable out) throws IOException {
+        final Map<Integer, Long> runs = lines();
+        out.append("TN:\n").append("SF:").append(sourceFile).append('\n');
+
+        int hit = 0;
+        for (Map.Entry<Integer, Long> line : runs.entrySet()) {
+            out.append("DA:").append(String.valueOf(line.getKey())).append(',')
+                    .append(String.valueOf(line.getValue())).append('\n');
+            if (line.getValue() > 0) hit++;
+        }
+
+        out.append("LF:").append(String.valueOf(runs.size())).append('\n')
+                .append("LH:").append(String.valueOf(hit)).append('\n')
+                .append("end_of_record\n");
+    }
+}
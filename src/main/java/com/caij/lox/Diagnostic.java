@@ -0,0 +1,56 @@
+package com.caij.lox;
+
+/**
+ * Represents an error found in source while scanning or parsing it
+ */
+public final class Diagnostic {
+
+    private final int line;
+    private final int column;
+    private final String lexeme;
+    private final String message;
+
+    /**
+     * Construct a diagnostic, given:
+     * @param line line number error was found on
+     * @param column column (starting at 1) error was found at
+     * @param lexeme lexeme of the token error was found at, empty at end of input, or null if found while scanning
+     * @param message description of error
+     */
+    Diagnostic(int line, int column, String lexeme, String message) {
+        this.line = line;
+        this.column = column;
+        this.lexeme = lexeme;
+        this.message = message;
+    }
+
+    public int getLine() {
+        return line;
+    }
+
+    public int getColumn() {
+        return column;
+    }
+
+    public String getLexeme() {
+        return lexeme;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    @Override
+    public String toString() {
+        final String where;
+        if (lexeme == null) {
+            where = "";
+        } else if (lexeme.isEmpty()) {
+            where = " at end";
+        } else {
+            where = " at '" + lexeme + "'";
+        }
+
+        return "[line " + line + "] Error" + where + ": " + message;
+    }
+}
@@ -0,0 +1,51 @@
+package com.caij.lox;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Collects every error found in source, in the order they were found, instead of printing them
+ */
+public final class Diagnostics implements ErrorReporter {
+
+    /**
+     * Order errors appear in source: by line, then column
+     */
+    static final Comparator<Diagnostic> BY_POSITION =
+            Comparator.comparingInt(Diagnostic::getLine).thenComparingInt(Diagnostic::getColumn);
+
+    private final List<Diagnostic> diagnostics = new ArrayList<>();
+
+    /**
+     * Scans and parses source, recovering after each error so all of them are found in one pass
+     * @param source raw source code
+     * @return errors found in source, in the order they appear
+     */
+    public static Diagnostics check(String source) {
+        final Diagnostics diagnostics = new Diagnostics();
+        final Scanner scanner = new Scanner(source, diagnostics);
+        final List<Token> tokens = scanner.scanTokens();
+        new Parser(tokens, scanner.columns(), diagnostics).parse();
+        // the scanner finds its errors before the parser finds any, wherever they are
+        diagnostics.diagnostics.sort(BY_POSITION);
+        return diagnostics;
+    }
+
+    @Override
+    public void report(Diagnostic diagnostic) {
+        diagnostics.add(diagnostic);
+    }
+
+    /**
+     * @return errors collected so far
+     */
+    public List<Diagnostic> all() {
+        return Collections.unmodifiableList(diagnostics);
+    }
+
+    public boolean hasErrors() {
+        return !diagnostics.isEmpty();
+    }
+}
@@ -8,13 +8,19 @@ import java.util.Map;
  */
 public class Environment {
     final Environment enclosing;
-    private final Map<String, Object> values = new HashMap<>();
+    private final Map<String, Object> values;
+
+    /**
+     * Frozen environment this one was forked from, whose variables it shares until it assigns to them
+     */
+    private final Environment base;
+    private final boolean frozen;
 
     /**
      * Construct an environment
      */
     Environment() {
-        enclosing = null;
+        this(null);
     }
 
     /**
@@ -22,7 +28,47 @@ public class Environment {
      * @param enclosing the enclosing environment
      */
     Environment(Environment enclosing) {
+        this(enclosing, null, new HashMap<>(), false);
+    }
+
+    private Environment(Environment enclosing, Environment base, Map<String, Object> values, boolean frozen) {
         this.enclosing = enclosing;
+        this.base = base;
+        this.values = values;
+        this.frozen = frozen;
+    }
+
+    /**
+     * Creates a global environment that can be used by many interpreters on many threads at once, see
+     * {@link SharedEnvironment} for what they will see of each other's writes
+     * @return new shared global environment
+     */
+    public static Environment shared() {
+        return new SharedEnvironment();
+    }
+
+    /**
+     * Takes a snapshot of this environment that can no longer change, so it can be shared between threads without
+     * locking (it is published through final fields only). Typically taken of globals after running a prelude.
+     * @return frozen copy of this environment
+     */
+    public Environment freeze() {
+        if (enclosing != null) throw new IllegalStateException("Only global environments can be frozen.");
+
+        final Map<String, Object> snapshot = base == null ? new HashMap<>() : new HashMap<>(base.values);
+        snapshot.putAll(values);
+        return new Environment(null, null, snapshot, true);
+    }
+
+    /**
+     * Creates a cheap, writable environment on top of this frozen one. Reads see the frozen variables without them
+     * being copied; writes (defining or assigning) only ever go to the fork, so forks are isolated from each other.
+     * @return new environment forked from this one
+     */
+    public Environment fork() {
+        if (!frozen) throw new IllegalStateException("Only frozen environments can be forked.");
+
+        return new Environment(null, this, new HashMap<>(), false);
     }
 
     /**
@@ -36,18 +82,34 @@ public class Environment {
             return values.get(name.lexeme);
         }
 
+        if (base != null && base.values.containsKey(name.lexeme)) {
+            return base.values.get(name.lexeme);
+        }
+
         // if variable is not found in this environment, try the enclosing one instead
         if (enclosing != null) return enclosing.get(name);
 
         throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
     }
 
+    /**
+     * @param name name of variable
+     * @return true if the variable is defined in this environment, or an enclosing one
+     */
+    boolean isDefined(String name) {
+        if (values.containsKey(name)) return true;
+        if (base != null && base.values.containsKey(name)) return true;
+
+        return enclosing != null && enclosing.isDefined(name);
+    }
+
     /**
      * Defines a new variable in this environment
      * @param name name of variable
      * @param value value to initialise (can be null)
      */
     void define(String name, Object value) {
+        checkNotFrozen();
         values.put(name, value);
     }
 
@@ -58,11 +120,18 @@ public class Environment {
      * @throws RuntimeError if variable cannot be located
      */
     void assign(Token name, Object value) {
+        checkNotFrozen();
         if (values.containsKey(name.lexeme)) {
             values.put(name.lexeme, value);
             return;
         }
 
+        // copy on write: the forked variable now shadows the frozen one
+        if (base != null && base.values.containsKey(name.lexeme)) {
+            values.put(name.lexeme, value);
+            return;
+        }
+
         // if we can't find variable in this environment, try and assign to the enclosing one instead
         if (enclosing != null) {
             enclosing.assign(name, value);
@@ -71,4 +140,8 @@ public class Environment {
 
         throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
     }
+
+    private void checkNotFrozen() {
+        if (frozen) throw new IllegalStateException("Frozen environments cannot be changed, fork them instead.");
+    }
 }
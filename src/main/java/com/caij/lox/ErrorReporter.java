@@ -0,0 +1,12 @@
+package com.caij.lox;
+
+/**
+ * Receives errors found in source by the Scanner and Parser
+ */
+interface ErrorReporter {
+
+    /**
+     * @param diagnostic error found in source
+     */
+    void report(Diagnostic diagnostic);
+}
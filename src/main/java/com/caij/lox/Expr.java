@@ -1,24 +1,59 @@
 package com.caij.lox;
 
+import java.util.List;
+
 abstract class Expr {
+    static final int ASSIGN = 0;
+    static final int BINARY = 1;
+    static final int CALL = 2;
+    static final int GROUPING = 3;
+    static final int BOOLEAN_LITERAL = 4;
+    static final int INDEX = 5;
+    static final int LIST_LITERAL = 6;
+    static final int LOGICAL = 7;
+    static final int MAP_LITERAL = 8;
+    static final int NIL_LITERAL = 9;
+    static final int NUMBER_LITERAL = 10;
+    static final int SET_INDEX = 11;
+    static final int STRING_LITERAL = 12;
+    static final int UNARY = 13;
+    static final int VARIABLE = 14;
+
     interface Visitor<R> {
         R visitAssignExpr(Assign expr);
 
         R visitBinaryExpr(Binary expr);
 
+        R visitCallExpr(Call expr);
+
         R visitGroupingExpr(Grouping expr);
 
-        R visitLiteralExpr(Literal expr);
+        R visitBooleanLiteralExpr(BooleanLiteral expr);
+
+        R visitIndexExpr(Index expr);
+
+        R visitListLiteralExpr(ListLiteral expr);
 
         R visitLogicalExpr(Logical expr);
 
+        R visitMapLiteralExpr(MapLiteral expr);
+
+        R visitNilLiteralExpr(NilLiteral expr);
+
+        R visitNumberLiteralExpr(NumberLiteral expr);
+
+        R visitSetIndexExpr(SetIndex expr);
+
+        R visitStringLiteralExpr(StringLiteral expr);
+
         R visitUnaryExpr(Unary expr);
 
         R visitVariableExpr(Variable expr);
     }
 
-    static class Assign extends Expr {
+    static final class Assign extends Expr {
         Assign(Token name, Expr value) {
+            super(ASSIGN);
             this.name = name;
             this.value = value;
         }
@@ -30,10 +65,13 @@ abstract class Expr {
 
         final Token name;
         final Expr value;
+        int depth = -1;
+        int slot = -1;
     }
 
-    static class Binary extends Expr {
+    static final class Binary extends Expr {
         Binary(Expr left, Token operator, Expr right) {
+            super(BINARY);
             this.left = left;
             this.operator = operator;
             this.right = right;
@@ -47,10 +85,30 @@ abstract class Expr {
         final Expr left;
         final Token operator;
         final Expr right;
+        Object cache;
     }
 
-    static class Grouping extends Expr {
+    static final class Call extends Expr {
+        Call(Expr callee, Token paren, List<Expr> arguments) {
+            super(CALL);
+            this.callee = callee;
+            this.paren = paren;
+            this.arguments = arguments;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitCallExpr(this);
+        }
+
+        final Expr callee;
+        final Token paren;
+        final List<Expr> arguments;
+    }
+
+    static final class Grouping extends Expr {
         Grouping(Expr expression) {
+            super(GROUPING);
             this.expression = expression;
         }
 
@@ -62,21 +120,57 @@ abstract class Expr {
         final Expr expression;
     }
 
-    static class Literal extends Expr {
-        Literal(Object value) {
+    static final class BooleanLiteral extends Expr {
+        BooleanLiteral(boolean value) {
+            super(BOOLEAN_LITERAL);
             this.value = value;
         }
 
         @Override
         <R> R accept(Visitor<R> visitor) {
-            return visitor.visitLiteralExpr(this);
+            return visitor.visitBooleanLiteralExpr(this);
+        }
+
+        final boolean value;
+    }
+
+    static final class Index extends Expr {
+        Index(Expr object, Token bracket, Expr index) {
+            super(INDEX);
+            this.object = object;
+            this.bracket = bracket;
+            this.index = index;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitIndexExpr(this);
         }
 
-        final Object value;
+        final Expr object;
+        final Token bracket;
+        final Expr index;
     }
 
-    static class Logical extends Expr {
+    static final class ListLiteral extends Expr {
+        ListLiteral(Token bracket, List<Expr> elements) {
+            super(LIST_LITERAL);
+            this.bracket = bracket;
+            this.elements = elements;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitListLiteralExpr(this);
+        }
+
+        final Token bracket;
+        final List<Expr> elements;
+    }
+
+    static final class Logical extends Expr {
         Logical(Expr left, Token operator, Expr right) {
+            super(LOGICAL);
             this.left = left;
             this.operator = operator;
             this.right = right;
@@ -92,8 +186,86 @@ abstract class Expr {
         final Expr right;
     }
 
-    static class Unary extends Expr {
+    static final class MapLiteral extends Expr {
+        MapLiteral(Token brace, List<Expr> keys, List<Expr> values) {
+            super(MAP_LITERAL);
+            this.brace = brace;
+            this.keys = keys;
+            this.values = values;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitMapLiteralExpr(this);
+        }
+
+        final Token brace;
+        final List<Expr> keys;
+        final List<Expr> values;
+    }
+
+    static final class NilLiteral extends Expr {
+        NilLiteral() {
+            super(NIL_LITERAL);
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitNilLiteralExpr(this);
+        }
+    }
+
+    static final class NumberLiteral extends Expr {
+        NumberLiteral(double value) {
+            super(NUMBER_LITERAL);
+            this.value = value;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitNumberLiteralExpr(this);
+        }
+
+        final double value;
+    }
+
+    static final class SetIndex extends Expr {
+        SetIndex(Expr object, Token bracket, Expr index, Expr value) {
+            super(SET_INDEX);
+            this.object = object;
+            this.bracket = bracket;
+            this.index = index;
+            this.value = value;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitSetIndexExpr(this);
+        }
+
+        final Expr object;
+        final Token bracket;
+        final Expr index;
+        final Expr value;
+    }
+
+    static final class StringLiteral extends Expr {
+        StringLiteral(String value) {
+            super(STRING_LITERAL);
+            this.value = value;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitStringLiteralExpr(this);
+        }
+
+        final String value;
+    }
+
+    static final class Unary extends Expr {
         Unary(Token operator, Expr right) {
+            super(UNARY);
             this.operator = operator;
             this.right = right;
         }
@@ -105,10 +277,12 @@ abstract class Expr {
 
         final Token operator;
         final Expr right;
+        Object cache;
     }
 
-    static class Variable extends Expr {
+    static final class Variable extends Expr {
         Variable(Token name) {
+            super(VARIABLE);
             this.name = name;
         }
 
@@ -118,7 +292,41 @@ abstract class Expr {
         }
 
         final Token name;
+        int depth = -1;
+        int slot = -1;
+    }
+
+    final int kind;
+    int type;
+
+    Expr(int kind) {
+        this.kind = kind;
     }
 
     abstract <R> R accept(Visitor<R> visitor);
+
+    /**
+     * Does what expr.accept(visitor) does, but by switching on kind, so that once inlined into a caller
+     * whose visitor is known the visit is a direct call
+     */
+    static <R> R dispatch(Expr expr, Visitor<R> visitor) {
+        switch (expr.kind) {
+            case ASSIGN: return visitor.visitAssignExpr((Assign) expr);
+            case BINARY: return visitor.visitBinaryExpr((Binary) expr);
+            case CALL: return visitor.visitCallExpr((Call) expr);
+            case GROUPING: return visitor.visitGroupingExpr((Grouping) expr);
+            case BOOLEAN_LITERAL: return visitor.visitBooleanLiteralExpr((BooleanLiteral) expr);
+            case INDEX: return visitor.visitIndexExpr((Index) expr);
+            case LIST_LITERAL: return visitor.visitListLiteralExpr((ListLiteral) expr);
+            case LOGICAL: return visitor.visitLogicalExpr((Logical) expr);
+            case MAP_LITERAL: return visitor.visitMapLiteralExpr((MapLiteral) expr);
+            case NIL_LITERAL: return visitor.visitNilLiteralExpr((NilLiteral) expr);
+            case NUMBER_LITERAL: return visitor.visitNumberLiteralExpr((NumberLiteral) expr);
+            case SET_INDEX: return visitor.visitSetIndexExpr((SetIndex) expr);
+            case STRING_LITERAL: return visitor.visitStringLiteralExpr((StringLiteral) expr);
+            case UNARY: return visitor.visitUnaryExpr((Unary) expr);
+            case VARIABLE: return visitor.visitVariableExpr((Variable) expr);
+            default: throw new IllegalStateException("Unknown kind: " + expr.kind);
+        }
+    }
 }
@@ -0,0 +1,499 @@
+package com.caij.lox;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Responsibility: holds a parsed program flattened into arrays, for {@link Interpreter#run(FlatProgram)} to walk by
+ * index instead of chasing pointers between {@link Expr} and {@link Stmt} objects.
+ *
+ * Every node takes {@link #NODE_SIZE} consecutive ints of {@link #nodes}: a header holding its kind, whether it can
+ * only produce a number (computing it, or holding one as inferred by {@link Types}), and its line, then up to three
+ * operands. Operands are indices of child nodes (-1 if absent),
+ * of constants (strings, and the tokens of variables and operators, kept so errors point at them exactly as before),
+ * or of runs of node indices in {@link #lists}. Numbers are stored in the operands themselves, as the two halves
+ * of their bits. Nodes are laid out parent first, so walking a program mostly moves forward through memory.
+ */
+public final class FlatProgram {
+
+    static final int NODE_SIZE = 4;
+
+    // expressions
+    static final int NIL = 0;
+    static final int TRUE = 1;
+    static final int FALSE = 2;
+    static final int NUMBER = 3;        // high bits, low bits
+    static final int STRING = 4;        // constant
+    static final int VARIABLE = 5;      // token constant, frame slot (or -1 if not a local)
+    static final int ASSIGN = 6;        // token constant, value, frame slot (or -1)
+    static final int GROUPING = 7;      // expression
+    static final int NEGATE = 8;        // operand, operator constant
+    static final int NOT = 9;           // operand
+    static final int ADD = 10;          // left, right, operator constant (and so on, up to OR)
+    static final int SUBTRACT = 11;
+    static final int MULTIPLY = 12;
+    static final int DIVIDE = 13;
+    static final int GREATER = 14;
+    static final int GREATER_EQUAL = 15;
+    static final int LESS = 16;
+    static final int LESS_EQUAL = 17;
+    static final int EQUAL = 18;
+    static final int NOT_EQUAL = 19;
+    static final int AND = 20;
+    static final int OR = 21;
+    static final int CALL = 29;         // offset into lists (of callee, then arguments), count, paren constant
+    static final int LIST = 30;         // offset into lists (of elements), count
+    static final int INDEX = 31;        // object, index, bracket constant
+    static final int SET_INDEX = 32;    // offset into lists (of object, index, value), bracket constant
+    static final int MAP = 33;          // offset into lists (of keys then values, alternately), count, brace constant
+
+    // statements
+    static final int EXPRESSION = 22;   // expression
+    static final int PRINT = 23;        // expression
+    static final int VAR = 24;          // name constant, initialiser, frame slot (or -1 if a global)
+    static final int BLOCK = 25;        // offset into lists, count, 1 if its locals are in the frame (else 0)
+    static final int IF = 26;           // condition, then, else
+    static final int WHILE = 27;        // condition, body
+    static final int BREAK = 28;
+
+    private static final int KIND = 0x3F;
+    private static final int NUMERIC = 0x40;
+    private static final int KNOWN_NUMBER = 0x80;
+    private static final int LINE_SHIFT = 8;
+
+    private static final int MAGIC = 0x4C4F5846; // LOXF
+    /**
+     * Format written by {@link #writeTo(OutputStream)}: 2 once maps, known numbers and strings over 64 KiB came in
+     */
+    private static final int VERSION = 2;
+
+    final int[] nodes;
+    final int[] lists;
+    final Object[] constants;
+    final int root;
+    final int rootCount;
+
+    private FlatProgram(int[] nodes, int[] lists, Object[] constants, int root, int rootCount) {
+        this.nodes = nodes;
+        this.lists = lists;
+        this.constants = constants;
+        this.root = root;
+        this.rootCount = rootCount;
+    }
+
+    /**
+     * Flattens statements into a program
+     * @param statements statements to flatten, free of parse errors
+     * @return flattened program, running exactly as statements would
+     */
+    static FlatProgram of(List<Stmt> statements) {
+        return new Encoder().encode(statements);
+    }
+
+    /**
+     * @return number of nodes in the program
+     */
+    public int size() {
+        return nodes.length / NODE_SIZE;
+    }
+
+    static int kind(int header) {
+        return header & KIND;
+    }
+
+    /**
+     * @return true if the node whose header this is can only produce a number (or raise its own error)
+     */
+    static boolean isNumeric(int header) {
+        return (header & NUMERIC) != 0;
+    }
+
+    /**
+     * @return true if the node whose header this is was inferred to produce a number (or raise its own error), though
+     * it does not compute it (a variable, say), so it is evaluated as usual and its value never needs checking
+     */
+    static boolean isKnownNumber(int header) {
+        return (header & KNOWN_NUMBER) != 0;
+    }
+
+    static int line(int header) {
+        return header >>> LINE_SHIFT;
+    }
+
+    static double number(int high, int low) {
+        return Double.longBitsToDouble(((long) high << 32) | (low & 0xFFFFFFFFL));
+    }
+
+    /**
+     * Writes the program out, so it can be run again later without scanning or parsing it
+     * @param output where to write to (left open)
+     */
+    public void writeTo(OutputStream output) throws IOException {
+        final DataOutputStream data = new DataOutputStream(output);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeInt(root);
+        data.writeInt(rootCount);
+
+        writeInts(data, nodes);
+        writeInts(data, lists);
+
+        data.writeInt(constants.length);
+        for (Object constant : constants) {
+            if (constant instanceof Token) {
+                final Token token = (Token) constant;
+                data.writeBoolean(true);
+                writeString(data, token.type.name());
+                writeString(data, token.lexeme);
+                data.writeInt(token.line);
+            } else {
+                data.writeBoolean(false);
+                writeString(data, (String) constant);
+            }
+        }
+        data.flush();
+    }
+
+    /**
+     * Reads a program written by {@link #writeTo(OutputStream)}
+     * @param input where to read from (left open)
+     * @return program read
+     * @throws IOException if input could not be read, or does not hold a program
+     */
+    public static FlatProgram readFrom(InputStream input) throws IOException {
+        final DataInputStream data = new DataInputStream(input);
+        if (data.readInt() != MAGIC || data.readInt() != VERSION) throw new IOException("Not a flat Lox program.");
+        final int root = data.readInt();
+        final int rootCount = data.readInt();
+
+        final int[] nodes = readInts(data);
+        final int[] lists = readInts(data);
+
+        final Object[] constants = new Object[data.readInt()];
+        for (int i = 0; i < constants.length; i++) {
+            if (data.readBoolean()) {
+                final TokenType type = TokenType.valueOf(readString(data));
+                final String lexeme = readString(data);
+                constants[i] = new Token(type, lexeme, null, data.readInt());
+            } else {
+                constants[i] = readString(data);
+            }
+        }
+
+        return new FlatProgram(nodes, lists, constants, root, rootCount);
+    }
+
+    /**
+     * Writes a string as its length in bytes and its UTF-8 bytes, as writeUTF() only takes strings up to 64 KiB
+     */
+    private static void writeString(DataOutputStream data, String string) throws IOException {
+        final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        data.writeInt(bytes.length);
+        data.write(bytes);
+    }
+
+    private static String readString(DataInputStream data) throws IOException {
+        final int length = data.readInt();
+        if (length < 0) throw new IOException("Not a flat Lox program.");
+        final byte[] bytes = new byte[length];
+        data.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeInts(DataOutputStream data, int[] ints) throws IOException {
+        data.writeInt(ints.length);
+        for (int i : ints) data.writeInt(i);
+    }
+
+    private static int[] readInts(DataInputStream data) throws IOException {
+        final int[] ints = new int[data.readInt()];
+        for (int i = 0; i < ints.length; i++) ints[i] = data.readInt();
+        return ints;
+    }
+
+    /**
+     * Lays out nodes parent first: a node's slot is taken before its children are encoded, then filled in after
+     */
+    private static final class Encoder implements Expr.Visitor<Integer>, Stmt.Visitor<Integer> {
+        private int[] nodes = new int[64 * NODE_SIZE];
+        private int size = 0;
+        private int[] lists = new int[16];
+        private int listsSize = 0;
+        private final List<Object> constants = new ArrayList<>();
+        private final Map<String, Integer> strings = new HashMap<>();
+        private final Map<String, Integer> tokens = new HashMap<>();
+
+        FlatProgram encode(List<Stmt> statements) {
+            final int root = list(statements);
+            return new FlatProgram(Arrays.copyOf(nodes, size), Arrays.copyOf(lists, listsSize),
+                    constants.toArray(), root, statements.size());
+        }
+
+        private int list(List<Stmt> statements) {
+            final int[] indices = new int[statements.size()];
+            for (int i = 0; i < indices.length; i++) {
+                indices[i] = statements.get(i).accept(this);
+            }
+
+            return list(indices);
+        }
+
+        private int list(int[] indices) {
+            if (listsSize + indices.length > lists.length) {
+                lists = Arrays.copyOf(lists, Math.max(lists.length * 2, listsSize + indices.length));
+            }
+            System.arraycopy(indices, 0, lists, listsSize, indices.length);
+            listsSize += indices.length;
+            return listsSize - indices.length;
+        }
+
+        private int reserve() {
+            if (size + NODE_SIZE > nodes.length) nodes = Arrays.copyOf(nodes, nodes.length * 2);
+            size += NODE_SIZE;
+            return size - NODE_SIZE;
+        }
+
+        private int node(int kind, int line, int a, int b, int c) {
+            return fill(reserve(), kind, line, a, b, c);
+        }
+
+        private int fill(int node, int kind, int line, int a, int b, int c) {
+            nodes[node] = kind | line << LINE_SHIFT;
+            nodes[node + 1] = a;
+            nodes[node + 2] = b;
+            nodes[node + 3] = c;
+            return node;
+        }
+
+        private int child(Expr expr) {
+            if (expr == null) return -1;
+
+            final int node = expr.accept(this);
+            if (expr.type == Types.NUMBER && !isNumeric(node)) nodes[node] |= KNOWN_NUMBER;
+            return node;
+        }
+
+        private int child(Stmt stmt) {
+            return stmt == null ? -1 : stmt.accept(this);
+        }
+
+        private int numeric(int node) {
+            nodes[node] |= NUMERIC;
+            return node;
+        }
+
+        private boolean isNumeric(int node) {
+            return FlatProgram.isNumeric(nodes[node]);
+        }
+
+        private boolean isNumber(int node) {
+            return isNumeric(node) || isKnownNumber(nodes[node]);
+        }
+
+        /**
+         * @return frame slot of a variable resolved to one (see {@link LocalVariables}), otherwise -1
+         */
+        private static int local(int depth, int slot) {
+            return depth == 0 ? slot : -1;
+        }
+
+        private int string(String value) {
+            return strings.computeIfAbsent(value, key -> {
+                constants.add(key);
+                return constants.size() - 1;
+            });
+        }
+
+        private int token(Token token) {
+            return tokens.computeIfAbsent(token.type + " " + token.lexeme + " " + token.line, key -> {
+                constants.add(token);
+                return constants.size() - 1;
+            });
+        }
+
+        @Override
+        public Integer visitAssignExpr(Expr.Assign expr) {
+            final int node = reserve();
+            final int name = token(expr.name);
+            return fill(node, ASSIGN, expr.name.line, name, child(expr.value), local(expr.depth, expr.slot));
+        }
+
+        @Override
+        public Integer visitBinaryExpr(Expr.Binary expr) {
+            final int node = reserve();
+            final int left = child(expr.left);
+            final int right = child(expr.right);
+            final int line = expr.operator.line;
+            final int operator = token(expr.operator);
+
+            switch (expr.operator.type) {
+                case PLUS:
+                    fill(node, ADD, line, left, right, operator);
+                    return isNumber(left) && isNumber(right) ? numeric(node) : node;
+                case MINUS: return numeric(fill(node, SUBTRACT, line, left, right, operator));
+                case STAR: return numeric(fill(node, MULTIPLY, line, left, right, operator));
+                case SLASH: return numeric(fill(node, DIVIDE, line, left, right, operator));
+                case GREATER: return fill(node, GREATER, line, left, right, operator);
+                case GREATER_EQUAL: return fill(node, GREATER_EQUAL, line, left, right, operator);
+                case LESS: return fill(node, LESS, line, left, right, operator);
+                case LESS_EQUAL: return fill(node, LESS_EQUAL, line, left, right, operator);
+                case EQUAL_EQUAL: return fill(node, EQUAL, line, left, right, operator);
+                case BANG_EQUAL: return fill(node, NOT_EQUAL, line, left, right, operator);
+                default: throw new IllegalArgumentException("Not a binary operator: " + expr.operator.type);
+            }
+        }
+
+        @Override
+        public Integer visitCallExpr(Expr.Call expr) {
+            final int node = reserve();
+            final int[] indices = new int[expr.arguments.size() + 1];
+            indices[0] = child(expr.callee);
+            for (int i = 0; i < expr.arguments.size(); i++) {
+                indices[i + 1] = child(expr.arguments.get(i));
+            }
+
+            return fill(node, CALL, expr.paren.line, list(indices), expr.arguments.size(), token(expr.paren));
+        }
+
+        @Override
+        public Integer visitGroupingExpr(Expr.Grouping expr) {
+            final int node = reserve();
+            final int expression = child(expr.expression);
+            fill(node, GROUPING, 0, expression, -1, -1);
+            return isNumeric(expression) ? numeric(node) : node;
+        }
+
+        @Override
+        public Integer visitBooleanLiteralExpr(Expr.BooleanLiteral expr) {
+            return node(expr.value ? TRUE : FALSE, 0, -1, -1, -1);
+        }
+
+        @Override
+        public Integer visitIndexExpr(Expr.Index expr) {
+            final int node = reserve();
+            final int object = child(expr.object);
+            return fill(node, INDEX, expr.bracket.line, object, child(expr.index), token(expr.bracket));
+        }
+
+        @Override
+        public Integer visitListLiteralExpr(Expr.ListLiteral expr) {
+            final int node = reserve();
+            final int[] indices = new int[expr.elements.size()];
+            for (int i = 0; i < indices.length; i++) {
+                indices[i] = child(expr.elements.get(i));
+            }
+
+            return fill(node, LIST, expr.bracket.line, list(indices), indices.length, -1);
+        }
+
+        @Override
+        public Integer visitLogicalExpr(Expr.Logical expr) {
+            final int node = reserve();
+            final int kind = expr.operator.type == TokenType.OR ? OR : AND;
+            return fill(node, kind, expr.operator.line, child(expr.left), child(expr.right), -1);
+        }
+
+        @Override
+        public Integer visitMapLiteralExpr(Expr.MapLiteral expr) {
+            final int node = reserve();
+            final int[] indices = new int[expr.keys.size() * 2];
+            for (int i = 0; i < expr.keys.size(); i++) {
+                indices[i * 2] = child(expr.keys.get(i));
+                indices[i * 2 + 1] = child(expr.values.get(i));
+            }
+
+            return fill(node, MAP, expr.brace.line, list(indices), expr.keys.size(), token(expr.brace));
+        }
+
+        @Override
+        public Integer visitNilLiteralExpr(Expr.NilLiteral expr) {
+            return node(NIL, 0, -1, -1, -1);
+        }
+
+        @Override
+        public Integer visitNumberLiteralExpr(Expr.NumberLiteral expr) {
+            final long bits = Double.doubleToRawLongBits(expr.value);
+            return numeric(node(NUMBER, 0, (int) (bits >>> 32), (int) bits, -1));
+        }
+
+        @Override
+        public Integer visitSetIndexExpr(Expr.SetIndex expr) {
+            final int node = reserve();
+            final int[] indices = {child(expr.object), child(expr.index), child(expr.value)};
+            return fill(node, SET_INDEX, expr.bracket.line, list(indices), token(expr.bracket), -1);
+        }
+
+        @Override
+        public Integer visitStringLiteralExpr(Expr.StringLiteral expr) {
+            return node(STRING, 0, string(expr.value), -1, -1);
+        }
+
+        @Override
+        public Integer visitUnaryExpr(Expr.Unary expr) {
+            final int node = reserve();
+            if (expr.operator.type == TokenType.MINUS) {
+                final int operand = child(expr.right);
+                return numeric(fill(node, NEGATE, expr.operator.line, operand, token(expr.operator), -1));
+            }
+            return fill(node, NOT, expr.operator.line, child(expr.right), -1, -1);
+        }
+
+        @Override
+        public Integer visitVariableExpr(Expr.Variable expr) {
+            return node(VARIABLE, expr.name.line, token(expr.name), local(expr.depth, expr.slot), -1);
+        }
+
+        @Override
+        public Integer visitBlockStmt(Stmt.Block stmt) {
+            final int node = reserve();
+            return fill(node, BLOCK, 0, list(stmt.statements), stmt.statements.size(), stmt.flat ? 1 : 0);
+        }
+
+        @Override
+        public Integer visitBreakStmt(Stmt.Break stmt) {
+            return node(BREAK, stmt.keyword.line, -1, -1, -1);
+        }
+
+        @Override
+        public Integer visitExpressionStmt(Stmt.Expression stmt) {
+            final int node = reserve();
+            return fill(node, EXPRESSION, 0, child(stmt.expression), -1, -1);
+        }
+
+        @Override
+        public Integer visitIfStmt(Stmt.If stmt) {
+            final int node = reserve();
+            final int condition = child(stmt.condition);
+            final int thenBranch = child(stmt.thenBranch);
+            return fill(node, IF, 0, condition, thenBranch, child(stmt.elseBranch));
+        }
+
+        @Override
+        public Integer visitPrintStmt(Stmt.Print stmt) {
+            final int node = reserve();
+            return fill(node, PRINT, 0, child(stmt.expression), -1, -1);
+        }
+
+        @Override
+        public Integer visitVarStmt(Stmt.Var stmt) {
+            final int node = reserve();
+            return fill(node, VAR, stmt.name.line, string(stmt.name.lexeme), child(stmt.initialiser), stmt.slot);
+        }
+
+        @Override
+        public Integer visitWhileStmt(Stmt.While stmt) {
+            final int node = reserve();
+            final int condition = child(stmt.condition);
+            return fill(node, WHILE, 0, condition, child(stmt.body), -1);
+        }
+    }
+}
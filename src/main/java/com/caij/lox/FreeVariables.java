@@ -0,0 +1,224 @@
+package com.caij.lox;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Responsibility: finds the variables a script uses without ever declaring them, and without them being defined in
+ * its globals either (as natives are), and resolves each to a slot, so that an embedder can bind them (to the fields
+ * of a record, say) through {@link Interpreter#bindSlots(Object[])} and have them read and assigned by index rather
+ * than looked up by name.
+ *
+ * A variable declared in a block only hides a free one of the same name from its declaration to the end of the
+ * block, as it does when run. A variable declared at the top level is a global like any other, so is never free.
+ */
+final class FreeVariables implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+
+    private final Environment globals;
+    private final Set<String> declared = new HashSet<>();
+    private final Deque<Set<String>> scopes = new ArrayDeque<>();
+    private final Map<String, Integer> slots = new LinkedHashMap<>();
+
+    private FreeVariables(Environment globals) {
+        this.globals = globals;
+    }
+
+    /**
+     * Resolves the free variables of statements to slots, in the order they are first used
+     * @param statements statements parsed without an {@link AstInterner}, as the slots of their variables are set
+     * @param globals environment statements will run in
+     * @return slot of each free variable, by name
+     */
+    static Map<String, Integer> resolve(List<Stmt> statements, Environment globals) {
+        final FreeVariables resolver = new FreeVariables(globals);
+        for (Stmt statement : statements) {
+            if (statement instanceof Stmt.Var) resolver.declared.add(((Stmt.Var) statement).name.lexeme);
+        }
+        for (Stmt statement : statements) {
+            statement.accept(resolver);
+        }
+
+        return Collections.unmodifiableMap(resolver.slots);
+    }
+
+    /**
+     * @return slot of a variable if it is free, otherwise -1
+     */
+    private int slotOf(Token name) {
+        for (Set<String> scope : scopes) {
+            if (scope.contains(name.lexeme)) return -1;
+        }
+        if (declared.contains(name.lexeme) || globals.isDefined(name.lexeme)) return -1;
+
+        return slots.computeIfAbsent(name.lexeme, key -> slots.size());
+    }
+
+    private void resolve(Expr expr) {
+        if (expr != null) expr.accept(this);
+    }
+
+    private void resolve(Stmt stmt) {
+        if (stmt != null) stmt.accept(this);
+    }
+
+    private void resolve(List<Expr> exprs) {
+        for (Expr expr : exprs) {
+            expr.accept(this);
+        }
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        resolve(expr.value);
+        final int slot = slotOf(expr.name);
+        // locals are left as they are, possibly resolved to a frame (see LocalVariables)
+        if (slot >= 0) expr.slot = slot;
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        resolve(expr.left);
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        resolve(expr.callee);
+        resolve(expr.arguments);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        resolve(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitBooleanLiteralExpr(Expr.BooleanLiteral expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitIndexExpr(Expr.Index expr) {
+        resolve(expr.object);
+        resolve(expr.index);
+        return null;
+    }
+
+    @Override
+    public Void visitListLiteralExpr(Expr.ListLiteral expr) {
+        resolve(expr.elements);
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        resolve(expr.left);
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitMapLiteralExpr(Expr.MapLiteral expr) {
+        for (int i = 0; i < expr.keys.size(); i++) {
+            resolve(expr.keys.get(i));
+            resolve(expr.values.get(i));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitNilLiteralExpr(Expr.NilLiteral expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitNumberLiteralExpr(Expr.NumberLiteral expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitSetIndexExpr(Expr.SetIndex expr) {
+        resolve(expr.object);
+        resolve(expr.index);
+        resolve(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitStringLiteralExpr(Expr.StringLiteral expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        final int slot = slotOf(expr.name);
+        if (slot >= 0) expr.slot = slot;
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        scopes.push(new HashSet<>());
+        for (Stmt statement : stmt.statements) {
+            resolve(statement);
+        }
+        scopes.pop();
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        resolve(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        resolve(stmt.condition);
+        resolve(stmt.thenBranch);
+        resolve(stmt.elseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        resolve(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        // the initialiser is evaluated before the variable is defined, so still sees any free variable it hides
+        resolve(stmt.initialiser);
+        if (!scopes.isEmpty()) scopes.peek().add(stmt.name.lexeme);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        resolve(stmt.condition);
+        resolve(stmt.body);
+        return null;
+    }
+}
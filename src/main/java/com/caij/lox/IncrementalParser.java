@@ -0,0 +1,308 @@
+package com.caij.lox;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static com.caij.lox.TokenType.*;
+
+/**
+ * Responsibility: keeps the tokens and statements of a source up to date as it is edited, re-scanning and re-parsing
+ * only the top-level declarations an edit touches
+ */
+public class IncrementalParser {
+
+    /**
+     * A top-level declaration and the tokens it was parsed from. Chunks partition the source: each one runs from its
+     * start offset up to the start of the next, so whitespace and comments belong to the declaration before them.
+     *
+     * Tokens, statement and errors keep the lines they were parsed at; lines added or removed above the chunk since
+     * only change its shift, so moving a chunk down the source touches nothing parsed from it until its statement is
+     * asked for.
+     */
+    private static class Chunk {
+        int start;
+        int line;
+        int shift;
+        int column;
+        final List<Token> tokens;
+        final Stmt statement;
+        final List<Diagnostic> diagnostics = new ArrayList<>();
+
+        Chunk(int start, int line, int column, List<Token> tokens, Stmt statement) {
+            this.start = start;
+            this.line = line;
+            this.column = column;
+            this.tokens = tokens;
+            this.statement = statement;
+        }
+
+        boolean failedToParse() {
+            return statement == null;
+        }
+
+        /**
+         * @return line the chunk starts on in the current source
+         */
+        int currentLine() {
+            return line + shift;
+        }
+    }
+
+    private final List<Chunk> chunks = new ArrayList<>();
+    private String source;
+
+    /**
+     * Construct an IncrementalParser, parsing the whole of
+     * @param source raw source code
+     */
+    public IncrementalParser(String source) {
+        this.source = source;
+        chunks.addAll(parseRegion(0, source.length(), 1, 1).chunks);
+    }
+
+    /**
+     * Replace part of the source, then bring tokens and statements up to date with it
+     * @param offset offset into source the edit starts at
+     * @param length number of characters being replaced
+     * @param replacement text to put in their place
+     */
+    public void edit(int offset, int length, String replacement) {
+        if (offset < 0 || length < 0 || offset + length > source.length()) {
+            throw new IndexOutOfBoundsException("Edit [" + offset + ", " + (offset + length) + ") is outside of source.");
+        }
+
+        final int oldLength = source.length();
+        final String removed = source.substring(offset, offset + length);
+        final int delta = replacement.length() - length;
+        final int lineDelta = linesIn(replacement) - linesIn(removed);
+        source = source.substring(0, offset) + replacement + source.substring(offset + length);
+
+        if (chunks.isEmpty()) {
+            chunks.addAll(parseRegion(0, source.length(), 1, 1).chunks);
+            return;
+        }
+
+        // an edit can join onto the end of the declaration before it, and an "else" can attach to an earlier "if",
+        // so the declaration preceding the damage is always re-parsed too
+        final int first = Math.max(chunkAt(Math.max(offset - 1, 0)) - 1, 0);
+        int last = chunkAt(Math.min(offset + length, Math.max(oldLength - 1, 0)));
+
+        final int regionStart = chunks.get(first).start;
+        Region region;
+        for (;;) {
+            final int regionEnd = last + 1 < chunks.size() ? chunks.get(last + 1).start + delta : source.length();
+            region = parseRegion(regionStart, regionEnd, chunks.get(first).currentLine(), chunks.get(first).column);
+
+            // damage spills into the next declaration if the region swallowed it, failed to parse to its end, or
+            // moved it along its line
+            if (last + 1 >= chunks.size() || !spillsOver(region, chunks.get(last + 1))) break;
+            last++;
+        }
+
+        chunks.subList(first, last + 1).clear();
+        chunks.addAll(first, region.chunks);
+
+        // declarations after the edit are only moved along, keeping what was parsed from them
+        for (int i = first + region.chunks.size(); i < chunks.size(); i++) {
+            chunks.get(i).start += delta;
+            chunks.get(i).shift += lineDelta;
+        }
+
+        if (!chunks.isEmpty()) {
+            chunks.get(0).start = 0;
+            chunks.get(0).shift = 1 - chunks.get(0).line;
+            chunks.get(0).column = 1;
+        }
+    }
+
+    /**
+     * @return current source, with all edits applied
+     */
+    public String source() {
+        return source;
+    }
+
+    /**
+     * @return tokens of current source, as {@link Scanner#scanTokens()} would produce them
+     */
+    public List<Token> tokens() {
+        final List<Token> tokens = new ArrayList<>();
+        for (Chunk chunk : chunks) {
+            if (chunk.shift == 0) {
+                tokens.addAll(chunk.tokens);
+                continue;
+            }
+            for (Token token : chunk.tokens) {
+                tokens.add(new Token(token.type, token.lexeme, token.literal, token.line + chunk.shift));
+            }
+        }
+
+        tokens.add(new Token(EOF, "", null, linesIn(source) + 1));
+        return tokens;
+    }
+
+    /**
+     * @return statements of current source, as {@link Parser#parse()} would produce them
+     */
+    public List<Stmt> statements() {
+        final List<Stmt> statements = new ArrayList<>(chunks.size());
+        for (int i = 0; i < chunks.size(); i++) {
+            if (chunks.get(i).shift != 0) chunks.set(i, reline(chunks.get(i)));
+            statements.add(chunks.get(i).statement);
+        }
+
+        return Collections.unmodifiableList(statements);
+    }
+
+    /**
+     * @param statement index of a statement of {@link #statements()}
+     * @return lines the declaration has moved by since it was parsed, not yet baked into its statement
+     */
+    int lineShift(int statement) {
+        return chunks.get(statement).shift;
+    }
+
+    /**
+     * Line numbers are baked into tokens, so a declaration that moved is re-parsed from its existing tokens (without
+     * re-scanning) once its statement is asked for, however many edits above it moved it meanwhile
+     */
+    private static Chunk reline(Chunk chunk) {
+        final List<Token> moved = new ArrayList<>(chunk.tokens.size() + 1);
+        for (Token token : chunk.tokens) {
+            moved.add(new Token(token.type, token.lexeme, token.literal, token.line + chunk.shift));
+        }
+        moved.add(new Token(EOF, "", null, chunk.currentLine()));
+
+        // same tokens, so same errors as before, only moved
+        final Stmt statement = new Parser(moved, null, diagnostic -> {}).parseDeclaration();
+        moved.remove(moved.size() - 1);
+
+        final Chunk relined = new Chunk(chunk.start, chunk.currentLine(), chunk.column, moved, statement);
+        for (Diagnostic diagnostic : chunk.diagnostics) {
+            relined.diagnostics.add(new Diagnostic(diagnostic.getLine() + chunk.shift, diagnostic.getColumn(),
+                    diagnostic.getLexeme(), diagnostic.getMessage()));
+        }
+        return relined;
+    }
+
+    /**
+     * @return errors found in current source, in the order they appear
+     */
+    public List<Diagnostic> diagnostics() {
+        final List<Diagnostic> diagnostics = new ArrayList<>();
+        for (Chunk chunk : chunks) {
+            for (Diagnostic diagnostic : chunk.diagnostics) {
+                diagnostics.add(chunk.shift == 0 ? diagnostic : new Diagnostic(diagnostic.getLine() + chunk.shift,
+                        diagnostic.getColumn(), diagnostic.getLexeme(), diagnostic.getMessage()));
+            }
+        }
+
+        return diagnostics;
+    }
+
+    /**
+     * @return true if any errors were found in current source
+     */
+    public boolean hadError() {
+        for (Chunk chunk : chunks) {
+            if (!chunk.diagnostics.isEmpty()) return true;
+        }
+
+        return false;
+    }
+
+    private static class Region {
+        final List<Chunk> chunks;
+        final boolean unterminated;
+        final int endColumn;
+
+        Region(List<Chunk> chunks, boolean unterminated, int endColumn) {
+            this.chunks = chunks;
+            this.unterminated = unterminated;
+            this.endColumn = endColumn;
+        }
+    }
+
+    private Region parseRegion(int start, int end, int line, int column) {
+        final Diagnostics scanned = new Diagnostics();
+        final Scanner scanner = new Scanner(source.substring(start, end), line, column, scanned);
+        final List<Token> tokens = scanner.scanTokens();
+        final Diagnostics parsed = new Diagnostics();
+        final Parser parser = new Parser(tokens, scanner.columns(), parsed);
+
+        final List<Chunk> chunks = new ArrayList<>();
+        while (!parser.isAtEnd()) {
+            final int from = parser.position();
+            final int reported = parsed.all().size();
+            final Stmt statement = parser.parseDeclaration();
+            final int to = parser.position();
+
+            // first chunk keeps any leading whitespace, so the region stays covered
+            final Chunk chunk = chunks.isEmpty()
+                    ? new Chunk(start, line, column, new ArrayList<>(tokens.subList(from, to)), statement)
+                    : new Chunk(start + scanner.offsetOf(from), tokens.get(from).line, scanner.columns()[from],
+                            new ArrayList<>(tokens.subList(from, to)), statement);
+            chunks.add(chunk);
+
+            // errors found while parsing belong to the declaration being parsed
+            chunk.diagnostics.addAll(parsed.all().subList(reported, parsed.all().size()));
+        }
+
+        // errors found while scanning belong to the last declaration starting on or before their line
+        attributeByLine(chunks, scanned.all());
+
+        return new Region(chunks, scanner.endedUnterminated(), scanner.columns()[tokens.size() - 1]);
+    }
+
+    private static void attributeByLine(List<Chunk> chunks, List<Diagnostic> diagnostics) {
+        if (chunks.isEmpty()) return;
+
+        for (Diagnostic diagnostic : diagnostics) {
+            Chunk owner = chunks.get(0);
+            for (Chunk chunk : chunks) {
+                if (chunk.line > diagnostic.getLine()) break;
+                owner = chunk;
+            }
+            owner.diagnostics.add(diagnostic);
+            owner.diagnostics.sort(Diagnostics.BY_POSITION);
+        }
+    }
+
+    private boolean spillsOver(Region region, Chunk next) {
+        if (region.unterminated) return true;
+        if (!region.chunks.isEmpty() && region.chunks.get(region.chunks.size() - 1).failedToParse()) return true;
+        if (next.column != region.endColumn) return true;
+
+        // the next declaration may only have been broken because of what came before it
+        return next.failedToParse() || next.tokens.get(0).type == ELSE;
+    }
+
+    /**
+     * @return index of the chunk covering offset (chunks are sorted by start, so binary search them)
+     */
+    private int chunkAt(int offset) {
+        int low = 0;
+        int high = chunks.size() - 1;
+
+        while (low < high) {
+            final int middle = (low + high + 1) >>> 1;
+            if (chunks.get(middle).start <= offset) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+
+        return low;
+    }
+
+    private static int linesIn(String text) {
+        int lines = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') lines++;
+        }
+
+        return lines;
+    }
+}
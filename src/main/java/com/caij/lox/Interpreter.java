@@ -1,76 +1,485 @@
 package com.caij.lox;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import static com.caij.lox.FlatProgram.*;
 
 class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
-    private Environment environment = new Environment();
+    /**
+     * Unwinds to the innermost enclosing loop. Exits are frequent and the signal carries nothing, so a single
+     * instance without a stack trace is shared, making a break cost about as much as a normal return.
+     */
+    private static final class BreakSignal extends RuntimeException {
+        BreakSignal() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static final BreakSignal BREAK = new BreakSignal();
+
+    /**
+     * Limits are checked in slices: each node only counts down until the slice is used up, and only then are the
+     * instruction total and the clock looked at, keeping the check almost free when limits are generous
+     */
+    private static final int CHECK_INTERVAL = 1024;
+
+    /**
+     * Safepoints between offering the thread's carrier (or core) to other work, so long scripts cannot starve it
+     */
+    private static final int YIELD_INTERVAL = 16 * 1024;
+
+    /**
+     * Levels of an expression looked down to decide whether it can only produce a number
+     */
+    private static final int NUMERIC_LOOKAHEAD = 4;
+
+    /**
+     * Stands in for an operand that was evaluated without boxing, its value being in {@link #unboxed}
+     */
+    private static final Object UNBOXED = new Object();
+
+    private static final Object[] NO_SLOTS = new Object[0];
+
+    private final Limits limits;
+    private final Appendable out;
+    private CancellationToken cancellation = CancellationToken.NONE;
+    private int untilYield = YIELD_INTERVAL;
+    private final Environment globals;
+    private Environment environment;
+    private long instructionsLeft;
+    private int slice;
+    private int untilCheck;
+    private long deadline;
+    private int depth;
+    private double unboxed;
+    private double leftNumber;
+    private double rightNumber;
+
+    /**
+     * Values of the variables resolved to slots (see {@link FreeVariables}), such as the fields of a record
+     */
+    Object[] slots = NO_SLOTS;
+
+    /**
+     * Values of the locals resolved to slots of the script's frame (see {@link LocalVariables}), grown as they are
+     * declared and cleared once each execution ends. Compiled loops read and write it in place too, so switching
+     * between them and the tree walker moves nothing (see {@link CompiledLoop}).
+     */
+    Object[] frame = NO_SLOTS;
+
+    /**
+     * Iterations a loop goes round, over all its runs, before it is compiled, or 0 for loops never to be
+     */
+    private long tierUpAfter;
+
+    /**
+     * Iterations each loop has gone round in this interpreter, counted here rather than in the tree, which others
+     * may be running at the same time. Held weakly (statements are only equal to themselves), so the trees of what a
+     * long-lived interpreter ran before, such as earlier entries of a REPL, can still be collected.
+     */
+    private final Map<Stmt.While, long[]> iterations = new WeakHashMap<>();
+
+    /**
+     * Whether strings made by concatenation are made canonical, see {@link #internStrings(boolean)}
+     */
+    private boolean internStrings = false;
+
+    /**
+     * Arrays of the flat program being run, if any (see {@link #run(FlatProgram)})
+     */
+    private int[] nodes;
+    private int[] lists;
+    private Object[] constants;
+
+    Interpreter() {
+        this(Limits.none());
+    }
+
+    /**
+     * Construct an Interpreter, printing to standard output
+     * @param limits limits applied to each execution
+     */
+    Interpreter(Limits limits) {
+        this(limits, null);
+    }
+
+    /**
+     * Construct an Interpreter
+     * @param limits limits applied to each execution
+     * @param out where to print to, or null for standard output. Nothing here is synchronized, so giving each
+     *            interpreter its own (e.g. a StringBuilder) keeps many of them running side by side from contending
+     */
+    Interpreter(Limits limits, Appendable out) {
+        this(limits, out, Natives.standardLibrary().defineIn(new Environment()));
+    }
+
+    /**
+     * Construct an Interpreter
+     * @param limits limits applied to each execution
+     * @param out where to print to, or null for standard output
+     * @param globals environment to run in, e.g. a fork of a frozen prelude (see {@link Environment#fork()}), with
+     *                any natives it needs already defined (see {@link Natives})
+     */
+    Interpreter(Limits limits, Appendable out, Environment globals) {
+        this.limits = limits;
+        this.out = out;
+        this.globals = globals;
+        this.environment = globals;
+        // compiled loops keep globals in registers while they run, which other interpreters could not see
+        this.tierUpAfter = globals instanceof SharedEnvironment ? 0 : CompiledLoop.HOT_ITERATIONS;
+    }
+
+    /**
+     * Gives the variables resolved to slots (see {@link FreeVariables}) their values, for the executions that follow
+     * @param slots value of each slot, read and assigned in place
+     */
+    void bindSlots(Object[] slots) {
+        this.slots = slots;
+    }
+
+    /**
+     * Makes every string concatenation produces canonical, through the JVM's own table of strings (which holds them
+     * only weakly), as string literals are if scanned so (see {@link Scanner#internStrings(boolean)}). Strings equal
+     * to ones already made are then the same string, so comparing them (as scripts dispatching on a name do) stops at
+     * their identity; but each concatenation costs a look-up in the table, so this pays only where strings made are
+     * compared far more often than they are made.
+     * @param intern true to intern the results of concatenation, false (the default) not to
+     */
+    void internStrings(boolean intern) {
+        this.internStrings = intern;
+    }
+
+    /**
+     * Sets how often a loop must have gone round before it is compiled, on a background thread, and carried on in
+     * its compiled form (see {@link CompiledLoop})
+     * @param iterations iterations over all runs of the loop by this interpreter, or 0 never to compile loops (as
+     *                   when each statement executed must be seen, or the globals are shared)
+     */
+    void tierUpAfter(long iterations) {
+        this.tierUpAfter = iterations;
+    }
+
+    /**
+     * @return iterations loop has gone round in this interpreter, counted while loops may be compiled
+     */
+    long iterationsOf(Stmt.While loop) {
+        final long[] count = iterations.get(loop);
+        return count == null ? 0 : count[0];
+    }
+
+    /**
+     * @return global environment of this interpreter
+     */
+    Environment globals() {
+        return globals;
+    }
+
+    /**
+     * @return environment statements are executing in at this point
+     */
+    Environment environment() {
+        return environment;
+    }
 
     @Override
     public Object visitBinaryExpr(Expr.Binary expr) {
-        final Object left = evaluate(expr.left);
-        final Object right = evaluate(expr.right);
-
         switch (expr.operator.type) {
             case GREATER:
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left > (double)right;
+                numberOperands(expr);
+                return leftNumber > rightNumber;
             case GREATER_EQUAL:
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left >= (double)right;
+                numberOperands(expr);
+                return leftNumber >= rightNumber;
             case LESS:
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left < (double)right;
+                numberOperands(expr);
+                return leftNumber < rightNumber;
             case LESS_EQUAL:
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left <= (double)right;
+                numberOperands(expr);
+                return leftNumber <= rightNumber;
+            case MINUS:
+            case SLASH:
+            case STAR:
+                return arithmetic(expr);
+            case EQUAL_EQUAL:
+            case BANG_EQUAL:
+                if (isNumeric(expr.left, NUMERIC_LOOKAHEAD) && isNumeric(expr.right, NUMERIC_LOOKAHEAD)) {
+                    final double left = number(expr.left);
+                    return isSameNumber(left, number(expr.right)) == (expr.operator.type == TokenType.EQUAL_EQUAL);
+                }
+                break;
+            case PLUS:
+                if (isNumeric(expr.left, NUMERIC_LOOKAHEAD) && isNumeric(expr.right, NUMERIC_LOOKAHEAD)) {
+                    return arithmetic(expr);
+                }
+                if (expr.left.type == Types.STRING && expr.right.type == Types.STRING) {
+                    final String left = (String) evaluate(expr.left);
+                    return checkStringLength(expr.operator, left, (String) evaluate(expr.right));
+                }
+                break;
+        }
+
+        final Object left = evaluate(expr.left);
+        final Object right = evaluate(expr.right);
+
+        switch (expr.operator.type) {
             case BANG_EQUAL:
                 return !isEqual(left, right);
             case EQUAL_EQUAL:
                 return isEqual(left, right);
-            case MINUS:
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left - (double)right;
             case PLUS:
-                if (left instanceof Double && right instanceof Double) {
-                    return (double)left + (double)right;
-                }
+                return add(expr.operator, left, right);
+        }
 
-                if (left instanceof String && right instanceof String) {
-                    return (String)left + (String)right;
-                }
+        return null;
+    }
 
-                if (left instanceof String && right instanceof Double) {
-                    return (String)left + stringify(right);
-                }
-                if (right instanceof String && left instanceof Double) {
-                    return stringify(left) + (String)right;
+    Object add(Token operator, Object left, Object right) {
+        if (left instanceof Double && right instanceof Double) {
+            return (double)left + (double)right;
+        }
+
+        if (left instanceof String && right instanceof String) {
+            return checkStringLength(operator, (String)left, (String)right);
+        }
+
+        if (left instanceof String && right instanceof Double) {
+            return checkStringLength(operator, (String)left, stringify(right));
+        }
+        if (right instanceof String && left instanceof Double) {
+            return checkStringLength(operator, stringify(left), (String)right);
+        }
+        throw new RuntimeError(operator, "Operands must be two numbers or two strings.");
+    }
+
+    /**
+     * Whether an expression can only produce a number (or raise its own error): number literals, the results of
+     * numeric operators, and anything else inferred to be a number (see {@link Types}). Such expressions are evaluated
+     * as primitive doubles from end to end, boxed only once their value leaves arithmetic. Where nothing was inferred,
+     * looks at most a few levels down, so checking stays cheap on long chains.
+     */
+    private static boolean isNumeric(Expr expr, int lookahead) {
+        if (expr.kind == Expr.NUMBER_LITERAL || expr.type == Types.NUMBER) return true;
+        if (lookahead == 0) return false;
+
+        switch (expr.kind) {
+            case Expr.GROUPING:
+                return isNumeric(((Expr.Grouping) expr).expression, lookahead - 1);
+            case Expr.UNARY:
+                return ((Expr.Unary) expr).operator.type == TokenType.MINUS;
+            case Expr.BINARY: {
+                final Expr.Binary binary = (Expr.Binary) expr;
+                switch (binary.operator.type) {
+                    case MINUS:
+                    case SLASH:
+                    case STAR:
+                        return true;
+                    case PLUS:
+                        return isNumeric(binary.left, lookahead - 1) && isNumeric(binary.right, lookahead - 1);
                 }
-                throw new RuntimeError(expr.operator, "Operands must be two numbers or two strings.");
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Evaluates an expression {@link #isNumeric(Expr, int)} says can only produce a number, without boxing it
+     */
+    private double number(Expr expr) {
+        tick();
+        switch (expr.kind) {
+            case Expr.NUMBER_LITERAL: return ((Expr.NumberLiteral) expr).value;
+            case Expr.GROUPING: return number(((Expr.Grouping) expr).expression);
+            case Expr.UNARY: return negate((Expr.Unary) expr);
+            case Expr.BINARY: return arithmetic((Expr.Binary) expr);
+            // inferred to hold a number, so already a boxed one
+            default: return (double) expr.accept(this);
+        }
+    }
+
+    /**
+     * Evaluates an operand of a numeric operator. If it can only produce a number, or is an element of a list holding
+     * only numbers, its value is left unboxed in {@link #unboxed} and {@link #UNBOXED} returned; otherwise it is
+     * evaluated as usual.
+     */
+    private Object operand(Expr operand) {
+        if (operand.kind == Expr.INDEX) {
+            tick();
+            return element((Expr.Index) operand);
+        }
+        if (!isNumeric(operand, NUMERIC_LOOKAHEAD)) return evaluate(operand);
+
+        unboxed = number(operand);
+        return UNBOXED;
+    }
+
+    /**
+     * Evaluates both operands of a numeric operator into {@link #leftNumber} and {@link #rightNumber}, only checking
+     * they are numbers once both have been evaluated
+     */
+    private void numberOperands(Expr.Binary expr) {
+        final Object left = operand(expr.left);
+        final double leftValue = unboxed;
+        final Object right = operand(expr.right);
+        final double rightValue = unboxed;
+
+        if (left != UNBOXED || right != UNBOXED) checkNumberOperands(expr.operator, left, right);
+        leftNumber = left == UNBOXED ? leftValue : (double) left;
+        rightNumber = right == UNBOXED ? rightValue : (double) right;
+    }
+
+    private double arithmetic(Expr.Binary expr) {
+        numberOperands(expr);
+
+        switch (expr.operator.type) {
+            case MINUS:
+                return leftNumber - rightNumber;
             case SLASH:
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left / (double)right;
+                return leftNumber / rightNumber;
             case STAR:
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left * (double)right;
+                return leftNumber * rightNumber;
+            default:
+                return leftNumber + rightNumber;
         }
+    }
 
-        return null;
+    private double negate(Expr.Unary expr) {
+        final Object right = operand(expr.right);
+        if (right == UNBOXED) return -unboxed;
+
+        checkNumberOperand(expr.operator, right);
+        return -(double)right;
     }
 
     void interpret(List<Stmt> statements) {
+        try {
+            run(statements);
+        } catch (RuntimeError error) {
+            Lox.runtimeError(error);
+        }
+    }
+
+    /**
+     * Executes statements as {@link #interpret(List)} does, but leaves any runtime error to the caller
+     * @throws RuntimeError if a statement could not be executed, or a limit was exceeded
+     */
+    void run(List<Stmt> statements) {
+        run(statements, CancellationToken.NONE);
+    }
+
+    /**
+     * Executes statements as {@link #run(List)} does, stopping early if
+     * @param cancellation is cancelled
+     */
+    void run(List<Stmt> statements, CancellationToken cancellation) {
+        start(cancellation);
+
         try {
             for (Stmt statement : statements) {
                 execute(statement);
             }
         } catch (RuntimeError error) {
-            Lox.runtimeError(error);
+            if (error.token != null) error.addFrame("script", error.token.line);
+            throw error;
+        } finally {
+            Arrays.fill(frame, null);
         }
     }
 
-    private String stringify(Object value) {
+    /**
+     * Executes a flattened program as {@link #run(List)} would the statements it was flattened from
+     * @throws RuntimeError if a statement could not be executed, or a limit was exceeded
+     */
+    void run(FlatProgram program) {
+        run(program, CancellationToken.NONE);
+    }
+
+    /**
+     * Executes a flattened program as {@link #run(FlatProgram)} does, stopping early if
+     * @param cancellation is cancelled
+     */
+    void run(FlatProgram program, CancellationToken cancellation) {
+        start(cancellation);
+        nodes = program.nodes;
+        lists = program.lists;
+        constants = program.constants;
+
+        try {
+            for (int i = 0; i < program.rootCount; i++) {
+                execute(lists[program.root + i]);
+            }
+        } catch (RuntimeError error) {
+            if (error.token != null) error.addFrame("script", error.token.line);
+            throw error;
+        } finally {
+            Arrays.fill(frame, null);
+        }
+    }
+
+    private void start(CancellationToken cancellation) {
+        this.cancellation = cancellation;
+        instructionsLeft = limits.maxInstructions;
+        slice = (int) Math.min(CHECK_INTERVAL, instructionsLeft);
+        untilCheck = slice;
+        if (limits.timeout != null) deadline = System.nanoTime() + limits.timeout.toNanos();
+    }
+
+    /**
+     * Called on entering a block and going round a loop, the points at which an execution can stop or step aside
+     */
+    void safepoint() {
+        if (cancellation.isCancelled()) {
+            throw new RuntimeError(null, "Execution cancelled.");
+        }
+        if (--untilYield == 0) {
+            untilYield = YIELD_INTERVAL;
+            Thread.yield();
+        }
+    }
+
+    void tick() {
+        if (untilCheck-- == 0) checkLimits();
+    }
+
+    private void checkLimits() {
+        instructionsLeft -= slice;
+        if (instructionsLeft == 0) {
+            throw new RuntimeError(null, "Instruction limit of " + limits.maxInstructions + " exceeded.");
+        }
+        if (limits.timeout != null && System.nanoTime() - deadline > 0) {
+            throw new RuntimeError(null, "Time limit of " + limits.timeout.toMillis() + "ms exceeded.");
+        }
+
+        slice = (int) Math.min(CHECK_INTERVAL, instructionsLeft);
+        // this check counts as the first instruction of the new slice
+        untilCheck = slice - 1;
+    }
+
+    private String checkStringLength(Token operator, String left, String right) {
+        if ((long) left.length() + right.length() > limits.maxStringLength) {
+            throw new RuntimeError(operator, "String size limit of " + limits.maxStringLength + " exceeded.");
+        }
+        return internStrings ? (left + right).intern() : left + right;
+    }
+
+    static String stringify(Object value) {
         if (value == null) return "nil";
 
+        if (value instanceof LoxList || value instanceof LoxMap) {
+            final StringBuilder text = new StringBuilder();
+            stringify(value, text, Collections.newSetFromMap(new IdentityHashMap<>()));
+            return text.toString();
+        }
+
         if (value instanceof Double) {
             String text = value.toString();
             if (text.endsWith(".0")) {
@@ -81,19 +490,235 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return value.toString();
     }
 
-    private void checkNumberOperands(Token operator, Object left, Object right) {
-        if (left instanceof Double && right instanceof Double) return;
+    /**
+     * Appends value as {@link #stringify(Object)} would, but for lists and maps already being printed further out,
+     * which print as [...] and {...}, so a value holding itself, however indirectly, prints too
+     * @param printing lists and maps being printed, which value is added to while it is
+     */
+    static void stringify(Object value, StringBuilder text, Set<Object> printing) {
+        if (value instanceof LoxList) {
+            ((LoxList) value).appendTo(text, printing);
+        } else if (value instanceof LoxMap) {
+            ((LoxMap) value).appendTo(text, printing);
+        } else {
+            text.append(stringify(value));
+        }
+    }
+
+    void checkNumberOperands(Token operator, Object left, Object right) {
+        if ((left == UNBOXED || left instanceof Double) && (right == UNBOXED || right instanceof Double)) return;
 
         throw new RuntimeError(operator, "Operands must be numbers.");
     }
 
+    @Override
+    public Object visitCallExpr(Expr.Call expr) {
+        final Object callee = evaluate(expr.callee);
+        final List<Expr> arguments = expr.arguments;
+
+        // calls of up to two arguments pass them one by one, needing no array
+        switch (arguments.size()) {
+            case 0:
+                return callable(callee, expr.paren, 0).call(this, expr.paren);
+            case 1: {
+                final Object argument = evaluate(arguments.get(0));
+                return callable(callee, expr.paren, 1).call(this, expr.paren, argument);
+            }
+            case 2: {
+                final Object first = evaluate(arguments.get(0));
+                final Object second = evaluate(arguments.get(1));
+                return callable(callee, expr.paren, 2).call(this, expr.paren, first, second);
+            }
+            default: {
+                final Object[] values = new Object[arguments.size()];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = evaluate(arguments.get(i));
+                }
+                return call(callee, expr.paren, values);
+            }
+        }
+    }
+
+    Object call(Object callee, Token paren, Object[] arguments) {
+        return callable(callee, paren, arguments.length).call(this, paren, arguments);
+    }
+
+    /**
+     * @param callee value being called
+     * @param paren closing parenthesis of the call, where errors are reported
+     * @param arguments number of arguments it is called with
+     * @return callee, once checked to be callable with that many arguments
+     */
+    LoxCallable callable(Object callee, Token paren, int arguments) {
+        if (!(callee instanceof LoxCallable)) {
+            throw new RuntimeError(paren, "Can only call functions and classes.");
+        }
+
+        final LoxCallable function = (LoxCallable) callee;
+        if (arguments != function.arity()) {
+            throw new RuntimeError(paren, "Expected " + function.arity() + " arguments but got " +
+                    arguments + ".");
+        }
+        return function;
+    }
+
+    @Override
+    public Object visitListLiteralExpr(Expr.ListLiteral expr) {
+        final Object[] elements = new Object[expr.elements.size()];
+        for (int i = 0; i < elements.length; i++) {
+            elements[i] = evaluate(expr.elements.get(i));
+        }
+
+        return new LoxList(elements);
+    }
+
+    @Override
+    public Object visitIndexExpr(Expr.Index expr) {
+        final Object element = element(expr);
+        return element == UNBOXED ? (Object) unboxed : element;
+    }
+
+    private Object element(Expr.Index expr) {
+        final Object object = evaluate(expr.object);
+        return element(expr.bracket, object, operand(expr.index));
+    }
+
+    /**
+     * Reads an element of a list, or the value of a key in a map. If the list holds only numbers, the element is left
+     * unboxed in {@link #unboxed} and {@link #UNBOXED} returned.
+     * @param index index or key, or {@link #UNBOXED} if it is a number left in {@link #unboxed}
+     */
+    private Object element(Token bracket, Object object, Object index) {
+        if (object instanceof LoxMap) {
+            final LoxMap map = (LoxMap) object;
+            return index == UNBOXED ? map.getNumber(unboxed) : map.get(checkKey(bracket, index));
+        }
+
+        final LoxList list = checkList(bracket, object);
+        final int i = checkIndex(bracket, list, index, unboxed);
+        if (!list.isNumeric()) return list.get(i);
+
+        unboxed = list.getNumber(i);
+        return UNBOXED;
+    }
+
+    @Override
+    public Object visitSetIndexExpr(Expr.SetIndex expr) {
+        final Object object = evaluate(expr.object);
+        final Object index = operand(expr.index);
+        final double indexValue = unboxed;
+        final Object value = operand(expr.value);
+
+        return setElement(expr.bracket, object, index, indexValue, value);
+    }
+
+    /**
+     * Reads an element of a list, or the value of a key in a map, as {@link #visitIndexExpr(Expr.Index)} does
+     * @return the element, boxed
+     */
+    Object index(Token bracket, Object object, Object index) {
+        final Object element = element(bracket, object, index);
+        return element == UNBOXED ? (Object) unboxed : element;
+    }
+
+    /**
+     * Stores value in a list or map, as {@link #visitSetIndexExpr(Expr.SetIndex)} does
+     * @return value
+     */
+    Object setIndex(Token bracket, Object object, Object index, Object value) {
+        return setElement(bracket, object, index, 0, value);
+    }
+
+    /**
+     * Stores value, which may be {@link #UNBOXED}, in a list or map, returning it boxed
+     * @param index index or key, or {@link #UNBOXED} if it is
+     * @param indexValue the index or key, when unboxed
+     */
+    private Object setElement(Token bracket, Object object, Object index, double indexValue, Object value) {
+        if (object instanceof LoxMap) {
+            final LoxMap map = (LoxMap) object;
+            final Object boxed = value == UNBOXED ? (Object) unboxed : value;
+            if (index == UNBOXED) {
+                map.putNumber(indexValue, boxed);
+            } else {
+                map.put(checkKey(bracket, index), boxed);
+            }
+            return boxed;
+        }
+
+        final LoxList list = checkList(bracket, object);
+        final int i = checkIndex(bracket, list, index, indexValue);
+        if (value != UNBOXED) {
+            list.set(i, value);
+            return value;
+        }
+
+        list.setNumber(i, unboxed);
+        return unboxed;
+    }
+
+    private static LoxList checkList(Token bracket, Object object) {
+        if (object instanceof LoxList) return (LoxList) object;
+        throw new RuntimeError(bracket, "Only lists and maps can be indexed.");
+    }
+
+    static Object checkKey(Token token, Object key) {
+        if (key != null) return key;
+        throw new RuntimeError(token, "Map keys cannot be nil.");
+    }
+
+    /**
+     * @param index index, or {@link #UNBOXED} if it is
+     * @param value the index, when unboxed
+     * @return index, checked to be a whole number in bounds of list
+     */
+    private static int checkIndex(Token bracket, LoxList list, Object index, double value) {
+        if (index != UNBOXED) {
+            if (!(index instanceof Double)) throw new RuntimeError(bracket, "Index must be a number.");
+            value = (double) index;
+        }
+
+        if (value != Math.floor(value)) throw new RuntimeError(bracket, "Index must be a whole number.");
+        if (value < 0 || value >= list.size()) {
+            throw new RuntimeError(bracket, "Index " + stringify(value) + " is out of bounds for list of length " +
+                    list.size() + ".");
+        }
+        return (int) value;
+    }
+
+    @Override
+    public Object visitMapLiteralExpr(Expr.MapLiteral expr) {
+        final LoxMap map = new LoxMap();
+        for (int i = 0; i < expr.keys.size(); i++) {
+            final Object key = evaluate(expr.keys.get(i));
+            map.put(checkKey(expr.brace, key), evaluate(expr.values.get(i)));
+        }
+
+        return map;
+    }
+
     @Override
     public Object visitGroupingExpr(Expr.Grouping expr) {
         return evaluate(expr.expression);
     }
 
     @Override
-    public Object visitLiteralExpr(Expr.Literal expr) {
+    public Object visitBooleanLiteralExpr(Expr.BooleanLiteral expr) {
+        return expr.value;
+    }
+
+    @Override
+    public Object visitNilLiteralExpr(Expr.NilLiteral expr) {
+        return null;
+    }
+
+    @Override
+    public Object visitNumberLiteralExpr(Expr.NumberLiteral expr) {
+        return expr.value;
+    }
+
+    @Override
+    public Object visitStringLiteralExpr(Expr.StringLiteral expr) {
         return expr.value;
     }
 
@@ -112,14 +737,13 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitUnaryExpr(Expr.Unary expr) {
+        if (expr.operator.type == TokenType.MINUS) return negate(expr);
+
         final Object right = evaluate(expr.right);
 
         switch(expr.operator.type) {
             case BANG:
                 return !isTruthy(right);
-            case MINUS:
-                checkNumberOperand(expr.operator, right);
-                return -(double)right;
         }
 
         return null;
@@ -127,13 +751,14 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitVariableExpr(Expr.Variable expr) {
+        if (expr.slot >= 0) return expr.depth == 0 ? frame[expr.slot] : slots[expr.slot];
         return environment.get(expr.name);
     }
 
     @Override
     public Void visitExpressionStmt(Stmt.Expression stmt) {
         final Object value = evaluate(stmt.expression);
-        System.out.println(stringify(value));
+        println(stringify(value));
         return null;
     }
 
@@ -147,10 +772,34 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return null;
     }
 
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        final long[] count = tierUpAfter > 0 ? iterations.computeIfAbsent(stmt, loop -> new long[1]) : null;
+        try {
+            for (;;) {
+                // once hot, the loop carries on in its compiled form where it can, even if it is already running
+                if (count != null && count[0] >= tierUpAfter && CompiledLoop.enter(stmt, this, count)) break;
+                if (!isTruthy(evaluate(stmt.condition))) break;
+
+                execute(stmt.body);
+                safepoint();
+                if (count != null) count[0]++;
+            }
+        } catch (BreakSignal signal) {
+            // exits loop
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        throw BREAK;
+    }
+
     @Override
     public Void visitPrintStmt(Stmt.Print stmt) {
         final Object value = evaluate(stmt.expression);
-        System.out.println(stringify(value));
+        println(stringify(value));
         return null;
     }
 
@@ -161,62 +810,378 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             value = evaluate(stmt.initialiser);
         }
 
-        environment.define(stmt.name.lexeme, value);
+        if (stmt.slot >= 0) {
+            defineLocal(stmt.slot, value);
+        } else {
+            environment.define(stmt.name.lexeme, value);
+        }
         return null;
     }
 
+    void defineLocal(int slot, Object value) {
+        if (slot >= frame.length) frame = Arrays.copyOf(frame, Math.max(slot + 1, frame.length * 2));
+        frame[slot] = value;
+    }
+
     @Override
     public Object visitAssignExpr(Expr.Assign expr) {
         final Object value = evaluate(expr.value);
-        environment.assign(expr.name, value);
+        if (expr.slot >= 0 && expr.depth == 0) {
+            frame[expr.slot] = value;
+        } else if (expr.slot >= 0) {
+            slots[expr.slot] = value;
+        } else {
+            environment.assign(expr.name, value);
+        }
         return value;
     }
 
-    private void checkNumberOperand(Token operator, Object operand) {
+    void println(String text) {
+        if (out == null) {
+            System.out.println(text);
+            return;
+        }
+
+        try {
+            out.append(text).append('\n');
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    void checkNumberOperand(Token operator, Object operand) {
         if (operand instanceof Double) return;
         throw new RuntimeError(operator, "Operand must be a number.");
     }
 
-    private boolean isTruthy(Object object) {
+    static boolean isTruthy(Object object) {
         if (object == null) return false;
         if (object instanceof Boolean) return (boolean)object;
 
         return true;
     }
 
-    private boolean isEqual(Object a, Object b) {
-        if (a == null && b == null) return true;
-        if (a == null) return false;
+    /**
+     * Compares values as Lox does: nil only equals nil, numbers are equal as Double.equals has them (so NaN equals
+     * itself, and -0 does not equal 0), and anything else as its equals has it. The class of a value is its type tag:
+     * the same value (including nil) is equal without looking further, values of different classes are not, and only
+     * then are numbers compared by their bits and strings (often canonical, so the same) by their characters.
+     */
+    static boolean isEqual(Object a, Object b) {
+        if (a == b) return true;
+        if (a == null || b == null) return false;
+
+        final Class<?> type = a.getClass();
+        if (type != b.getClass()) return false;
+        if (type == Double.class) return isSameNumber((double) a, (double) b);
+        if (type == String.class) return ((String) a).equals(b);
 
         return a.equals(b);
     }
 
+    static boolean isSameNumber(double a, double b) {
+        return Double.doubleToLongBits(a) == Double.doubleToLongBits(b);
+    }
+
     private Object evaluate(Expr expr) {
+        tick();
         return expr.accept(this);
     }
 
-    private void execute(Stmt statement) {
+    /**
+     * Executes a statement; overridden only by the interpreters {@link Coverage} makes, to count it first, so while
+     * nothing is being covered this stays the one implementation, and is inlined as if it were final
+     */
+    void execute(Stmt statement) {
+        tick();
         statement.accept(this);
     }
 
     @Override
     public Void visitBlockStmt(Stmt.Block stmt) {
-        executeBlock(stmt.statements, new Environment(environment));
+        // a block whose locals are all in the frame needs no environment of its own
+        executeBlock(stmt.statements, stmt.flat ? environment : new Environment(environment));
         return null;
     }
 
     private void executeBlock(List<Stmt> statements, Environment environment) {
-        final Environment previous = this.environment;
+        final Environment previous = enterBlock(environment);
         try {
-            this.environment = environment;
-
             // execute all statements in given environment
             for (Stmt statement : statements) {
                 execute(statement);
             }
         } finally {
-            // restores environment
-            this.environment = previous;
+            exitBlock(previous);
+        }
+    }
+
+    /**
+     * @return environment to restore, through {@link #exitBlock(Environment)}, on leaving the block
+     */
+    Environment enterBlock(Environment environment) {
+        if (depth == limits.maxEnvironmentDepth) {
+            throw new RuntimeError(null, "Environment depth limit of " + limits.maxEnvironmentDepth + " exceeded.");
+        }
+
+        safepoint();
+
+        final Environment previous = this.environment;
+        depth++;
+        this.environment = environment;
+        return previous;
+    }
+
+    void exitBlock(Environment previous) {
+        // restores environment
+        this.environment = previous;
+        depth--;
+    }
+
+    // The same semantics again, over the nodes of a FlatProgram: every node is found at an index into nodes, its
+    // header first and operands after
+
+    private void execute(int node) {
+        tick();
+        final int[] nodes = this.nodes;
+
+        switch (kind(nodes[node])) {
+            case EXPRESSION:
+            case PRINT:
+                println(stringify(evaluate(nodes[node + 1])));
+                return;
+            case VAR: {
+                final int initialiser = nodes[node + 2];
+                final Object value = initialiser < 0 ? null : evaluate(initialiser);
+                if (nodes[node + 3] >= 0) {
+                    defineLocal(nodes[node + 3], value);
+                } else {
+                    environment.define((String) constants[nodes[node + 1]], value);
+                }
+                return;
+            }
+            case BLOCK: {
+                final boolean flat = nodes[node + 3] > 0;
+                final Environment previous = enterBlock(flat ? environment : new Environment(environment));
+                try {
+                    final int end = nodes[node + 1] + nodes[node + 2];
+                    for (int i = nodes[node + 1]; i < end; i++) {
+                        execute(lists[i]);
+                    }
+                } finally {
+                    exitBlock(previous);
+                }
+                return;
+            }
+            case IF:
+                if (isTruthy(evaluate(nodes[node + 1]))) {
+                    execute(nodes[node + 2]);
+                } else if (nodes[node + 3] >= 0) {
+                    execute(nodes[node + 3]);
+                }
+                return;
+            case WHILE:
+                try {
+                    while (isTruthy(evaluate(nodes[node + 1]))) {
+                        execute(nodes[node + 2]);
+                        safepoint();
+                    }
+                } catch (BreakSignal signal) {
+                    // exits loop
+                }
+                return;
+            case FlatProgram.BREAK:
+                throw BREAK;
+            default:
+                throw new IllegalStateException("Not a statement: " + kind(nodes[node]));
+        }
+    }
+
+    private Object evaluate(int node) {
+        final int[] nodes = this.nodes;
+        final int header = nodes[node];
+        if (FlatProgram.isNumeric(header)) return number(node);
+
+        tick();
+        switch (kind(header)) {
+            case NIL: return null;
+            case TRUE: return true;
+            case FALSE: return false;
+            case STRING: return constants[nodes[node + 1]];
+            case VARIABLE: {
+                final int slot = nodes[node + 2];
+                return slot >= 0 ? frame[slot] : environment.get((Token) constants[nodes[node + 1]]);
+            }
+            case ASSIGN: {
+                final Object value = evaluate(nodes[node + 2]);
+                if (nodes[node + 3] >= 0) {
+                    frame[nodes[node + 3]] = value;
+                } else {
+                    environment.assign((Token) constants[nodes[node + 1]], value);
+                }
+                return value;
+            }
+            case GROUPING: return evaluate(nodes[node + 1]);
+            case NOT: return !isTruthy(evaluate(nodes[node + 1]));
+            case ADD: {
+                final Object left = evaluate(nodes[node + 1]);
+                final Object right = evaluate(nodes[node + 2]);
+                return add((Token) constants[nodes[node + 3]], left, right);
+            }
+            case GREATER:
+                numberOperands(node);
+                return leftNumber > rightNumber;
+            case GREATER_EQUAL:
+                numberOperands(node);
+                return leftNumber >= rightNumber;
+            case LESS:
+                numberOperands(node);
+                return leftNumber < rightNumber;
+            case LESS_EQUAL:
+                numberOperands(node);
+                return leftNumber <= rightNumber;
+            case EQUAL: {
+                final Object left = evaluate(nodes[node + 1]);
+                return isEqual(left, evaluate(nodes[node + 2]));
+            }
+            case NOT_EQUAL: {
+                final Object left = evaluate(nodes[node + 1]);
+                return !isEqual(left, evaluate(nodes[node + 2]));
+            }
+            case AND: {
+                final Object left = evaluate(nodes[node + 1]);
+                return !isTruthy(left) ? left : evaluate(nodes[node + 2]);
+            }
+            case OR: {
+                final Object left = evaluate(nodes[node + 1]);
+                return isTruthy(left) ? left : evaluate(nodes[node + 2]);
+            }
+            case CALL: {
+                final int start = nodes[node + 1];
+                final Object callee = evaluate(lists[start]);
+                final Token paren = (Token) constants[nodes[node + 3]];
+
+                switch (nodes[node + 2]) {
+                    case 0:
+                        return callable(callee, paren, 0).call(this, paren);
+                    case 1: {
+                        final Object argument = evaluate(lists[start + 1]);
+                        return callable(callee, paren, 1).call(this, paren, argument);
+                    }
+                    case 2: {
+                        final Object first = evaluate(lists[start + 1]);
+                        final Object second = evaluate(lists[start + 2]);
+                        return callable(callee, paren, 2).call(this, paren, first, second);
+                    }
+                    default: {
+                        final Object[] arguments = new Object[nodes[node + 2]];
+                        for (int i = 0; i < arguments.length; i++) {
+                            arguments[i] = evaluate(lists[start + 1 + i]);
+                        }
+                        return call(callee, paren, arguments);
+                    }
+                }
+            }
+            case LIST: {
+                final int start = nodes[node + 1];
+                final Object[] elements = new Object[nodes[node + 2]];
+                for (int i = 0; i < elements.length; i++) {
+                    elements[i] = evaluate(lists[start + i]);
+                }
+
+                return new LoxList(elements);
+            }
+            case INDEX: {
+                final Object element = element(node);
+                return element == UNBOXED ? (Object) unboxed : element;
+            }
+            case SET_INDEX: {
+                final int start = nodes[node + 1];
+                final Token bracket = (Token) constants[nodes[node + 2]];
+                final Object object = evaluate(lists[start]);
+                final Object index = operand(lists[start + 1]);
+                final double indexValue = unboxed;
+                final Object value = operand(lists[start + 2]);
+
+                return setElement(bracket, object, index, indexValue, value);
+            }
+            case MAP: {
+                final int start = nodes[node + 1];
+                final Token brace = (Token) constants[nodes[node + 3]];
+                final LoxMap map = new LoxMap();
+                for (int i = 0; i < nodes[node + 2]; i++) {
+                    final Object key = evaluate(lists[start + i * 2]);
+                    map.put(checkKey(brace, key), evaluate(lists[start + i * 2 + 1]));
+                }
+
+                return map;
+            }
+            default:
+                throw new IllegalStateException("Not an expression: " + kind(header));
+        }
+    }
+
+    /**
+     * Evaluates a node flagged as numeric without boxing it, as {@link #number(Expr)} does an expression
+     */
+    private double number(int node) {
+        tick();
+        final int[] nodes = this.nodes;
+
+        switch (kind(nodes[node])) {
+            case NUMBER:
+                return FlatProgram.number(nodes[node + 1], nodes[node + 2]);
+            case GROUPING:
+                return number(nodes[node + 1]);
+            case NEGATE: {
+                final Object right = operand(nodes[node + 1]);
+                if (right == UNBOXED) return -unboxed;
+
+                checkNumberOperand((Token) constants[nodes[node + 2]], right);
+                return -(double) right;
+            }
+            default:
+                numberOperands(node);
+                switch (kind(nodes[node])) {
+                    case SUBTRACT: return leftNumber - rightNumber;
+                    case DIVIDE: return leftNumber / rightNumber;
+                    case MULTIPLY: return leftNumber * rightNumber;
+                    default: return leftNumber + rightNumber;
+                }
+        }
+    }
+
+    private Object operand(int node) {
+        if (kind(nodes[node]) == INDEX) {
+            tick();
+            return element(node);
+        }
+        if (FlatProgram.isKnownNumber(nodes[node])) {
+            unboxed = (double) evaluate(node);
+            return UNBOXED;
+        }
+        if (!FlatProgram.isNumeric(nodes[node])) return evaluate(node);
+
+        unboxed = number(node);
+        return UNBOXED;
+    }
+
+    private Object element(int node) {
+        final Token bracket = (Token) constants[nodes[node + 3]];
+        final Object object = evaluate(nodes[node + 1]);
+        return element(bracket, object, operand(nodes[node + 2]));
+    }
+
+    private void numberOperands(int node) {
+        final Object left = operand(nodes[node + 1]);
+        final double leftValue = unboxed;
+        final Object right = operand(nodes[node + 2]);
+        final double rightValue = unboxed;
+
+        if (left != UNBOXED || right != UNBOXED) {
+            checkNumberOperands((Token) constants[nodes[node + 3]], left, right);
         }
+        leftNumber = left == UNBOXED ? leftValue : (double) left;
+        rightNumber = right == UNBOXED ? rightValue : (double) right;
     }
 }
@@ -0,0 +1,70 @@
+package com.caij.lox;
+
+import java.time.Duration;
+
+/**
+ * Limits on a single execution of a script, so an untrusted one cannot run (or grow) forever
+ */
+public final class Limits {
+
+    private static final Limits NONE = new Limits(Long.MAX_VALUE, null, Integer.MAX_VALUE, Integer.MAX_VALUE);
+
+    final long maxInstructions;
+    final Duration timeout;
+    final int maxEnvironmentDepth;
+    final int maxStringLength;
+
+    private Limits(long maxInstructions, Duration timeout, int maxEnvironmentDepth, int maxStringLength) {
+        this.maxInstructions = maxInstructions;
+        this.timeout = timeout;
+        this.maxEnvironmentDepth = maxEnvironmentDepth;
+        this.maxStringLength = maxStringLength;
+    }
+
+    /**
+     * @return no limits at all, to narrow using the methods below
+     */
+    public static Limits none() {
+        return NONE;
+    }
+
+    /**
+     * @param maxInstructions most statements and expressions an execution may evaluate
+     * @throws IllegalArgumentException if maxInstructions is negative
+     */
+    public Limits maxInstructions(long maxInstructions) {
+        if (maxInstructions < 0) throw new IllegalArgumentException("Instruction limit must not be negative.");
+        return new Limits(maxInstructions, timeout, maxEnvironmentDepth, maxStringLength);
+    }
+
+    /**
+     * @param timeout longest an execution may run for
+     * @throws IllegalArgumentException if timeout is not positive
+     */
+    public Limits timeout(Duration timeout) {
+        if (timeout.isNegative() || timeout.isZero()) {
+            throw new IllegalArgumentException("Time limit must be positive.");
+        }
+        return new Limits(maxInstructions, timeout, maxEnvironmentDepth, maxStringLength);
+    }
+
+    /**
+     * @param maxEnvironmentDepth most environments (blocks) an execution may nest inside one another
+     * @throws IllegalArgumentException if maxEnvironmentDepth is negative
+     */
+    public Limits maxEnvironmentDepth(int maxEnvironmentDepth) {
+        if (maxEnvironmentDepth < 0) {
+            throw new IllegalArgumentException("Environment depth limit must not be negative.");
+        }
+        return new Limits(maxInstructions, timeout, maxEnvironmentDepth, maxStringLength);
+    }
+
+    /**
+     * @param maxStringLength longest string an execution may create
+     * @throws IllegalArgumentException if maxStringLength is negative
+     */
+    public Limits maxStringLength(int maxStringLength) {
+        if (maxStringLength < 0) throw new IllegalArgumentException("String size limit must not be negative.");
+        return new Limits(maxInstructions, timeout, maxEnvironmentDepth, maxStringLength);
+    }
+}
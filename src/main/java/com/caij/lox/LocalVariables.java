@@ -0,0 +1,231 @@
+package com.caij.lox;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Responsibility: resolves the variables declared in blocks to slots of one flat frame, so a block no longer needs an
+ * environment of its own (see {@link Interpreter#visitBlockStmt(Stmt.Block)}) and reading or assigning a local is
+ * indexing an array rather than looking its name up through a chain of maps.
+ *
+ * A local can only stay in a frame slot if nothing outlives the block holding it, such as a closure capturing it.
+ * Lox here has no functions of its own, and natives are only ever passed values, so no local is ever captured and
+ * every block is resolved. A block's slots are given back once it ends, so the frame is only as large as the most
+ * locals in scope at any one point, its depth being 0 (the script's own frame).
+ *
+ * Variables declared at the top level stay globals, looked up by name, as do references to a name before (or outside)
+ * the block declaring it, exactly as they are found when run.
+ */
+final class LocalVariables implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+
+    private final Deque<Map<String, Integer>> scopes = new ArrayDeque<>();
+    private int next = 0;
+    private int frameSize = 0;
+
+    private LocalVariables() {
+    }
+
+    /**
+     * Resolves the locals of statements to slots of a frame
+     * @param statements statements parsed without an {@link AstInterner}, as the slots of their variables are set
+     * @return number of slots the frame needs
+     */
+    static int resolve(List<Stmt> statements) {
+        final LocalVariables resolver = new LocalVariables();
+        for (Stmt statement : statements) {
+            statement.accept(resolver);
+        }
+        return resolver.frameSize;
+    }
+
+    /**
+     * @return slot of the innermost local of this name in scope, or -1 if it is not a local
+     */
+    private int slotOf(Token name) {
+        for (Map<String, Integer> scope : scopes) {
+            final Integer slot = scope.get(name.lexeme);
+            if (slot != null) return slot;
+        }
+        return -1;
+    }
+
+    private void resolve(Expr expr) {
+        if (expr != null) expr.accept(this);
+    }
+
+    private void resolve(Stmt stmt) {
+        if (stmt != null) stmt.accept(this);
+    }
+
+    private void resolveEach(List<Expr> exprs) {
+        for (Expr expr : exprs) {
+            expr.accept(this);
+        }
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        resolve(expr.value);
+        final int slot = slotOf(expr.name);
+        if (slot >= 0) {
+            expr.depth = 0;
+            expr.slot = slot;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        resolve(expr.left);
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        resolve(expr.callee);
+        resolveEach(expr.arguments);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        resolve(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitBooleanLiteralExpr(Expr.BooleanLiteral expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitIndexExpr(Expr.Index expr) {
+        resolve(expr.object);
+        resolve(expr.index);
+        return null;
+    }
+
+    @Override
+    public Void visitListLiteralExpr(Expr.ListLiteral expr) {
+        resolveEach(expr.elements);
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        resolve(expr.left);
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitMapLiteralExpr(Expr.MapLiteral expr) {
+        for (int i = 0; i < expr.keys.size(); i++) {
+            resolve(expr.keys.get(i));
+            resolve(expr.values.get(i));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitNilLiteralExpr(Expr.NilLiteral expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitNumberLiteralExpr(Expr.NumberLiteral expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitSetIndexExpr(Expr.SetIndex expr) {
+        resolve(expr.object);
+        resolve(expr.index);
+        resolve(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitStringLiteralExpr(Expr.StringLiteral expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        final int slot = slotOf(expr.name);
+        if (slot >= 0) {
+            expr.depth = 0;
+            expr.slot = slot;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        final int first = next;
+        scopes.push(new HashMap<>());
+        for (Stmt statement : stmt.statements) {
+            resolve(statement);
+        }
+        scopes.pop();
+        next = first;
+
+        stmt.flat = true;
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        resolve(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        resolve(stmt.condition);
+        resolve(stmt.thenBranch);
+        resolve(stmt.elseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        resolve(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        // the initialiser is evaluated before the variable is defined, so still sees whatever it hides
+        resolve(stmt.initialiser);
+        if (scopes.isEmpty()) return null;
+
+        // declaring a name again in the same block gives it a fresh slot, the old one simply no longer being reachable
+        stmt.slot = next++;
+        frameSize = Math.max(frameSize, next);
+        scopes.peek().put(stmt.name.lexeme, stmt.slot);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        resolve(stmt.condition);
+        resolve(stmt.body);
+        return null;
+    }
+}
@@ -0,0 +1,972 @@
+package com.caij.lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Responsibility: compiles a loop into a tree of closures, each made for its one node, so running it no longer
+ * dispatches on the kind of every node, looks globals up by name, or boxes the numbers it computes.
+ *
+ * Globals the loop uses are held in registers while it runs, loaded on entering it and stored back on leaving it
+ * (however it is left), which is sound as nothing but the loop itself can assign them meanwhile: the loop's blocks
+ * all keep their locals in the frame (see {@link LocalVariables}), so no name it uses can be declared again, and
+ * natives never touch variables. A variable the loop only ever assigns numbers is speculated to be one, and kept as
+ * an unboxed double. That holds for as long as the loop runs if the variable holds a number on entering it, which is
+ * all {@link CompiledLoop} then needs to check, and so all it can find broken.
+ *
+ * Every node counts as an instruction, checks its operands, and raises the same errors, as the tree walker's does.
+ */
+final class LoopCompiler {
+
+    /**
+     * Thrown on finding a node that cannot be compiled, leaving the loop to the tree walker
+     */
+    static final class Unsupported extends RuntimeException {
+        Unsupported(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    /**
+     * State of one run of a compiled loop
+     */
+    static final class Registers {
+        final Interpreter interpreter;
+        final Environment environment;
+        final double[] numbers;
+        final Object[] values;
+
+        Registers(Interpreter interpreter, Environment environment, int numbers, int values) {
+            this.interpreter = interpreter;
+            this.environment = environment;
+            this.numbers = new double[numbers];
+            this.values = new Object[values];
+        }
+    }
+
+    interface Code {
+        Object run(Registers registers);
+    }
+
+    interface NumberCode {
+        double run(Registers registers);
+    }
+
+    interface Condition {
+        boolean test(Registers registers);
+    }
+
+    interface Action {
+        /**
+         * @return true if a break was executed, for the innermost loop to stop
+         */
+        boolean run(Registers registers);
+    }
+
+    /**
+     * A variable loaded into a register on entering the loop, and stored back on leaving it
+     */
+    static final class Hoisted {
+        /**
+         * Name of a global, or frame slot of a local (see {@link #key(Expr)}), as it is excluded when deoptimized
+         */
+        final Object key;
+        final Token name;
+        final int slot;
+        final boolean number;
+        final int register;
+        final boolean assigned;
+
+        private Hoisted(Object key, Token name, int slot, boolean number, int register, boolean assigned) {
+            this.key = key;
+            this.name = name;
+            this.slot = slot;
+            this.number = number;
+            this.register = register;
+            this.assigned = assigned;
+        }
+
+        /**
+         * @return false if the variable does not hold what the loop was compiled for (undefined, or not a number)
+         */
+        boolean load(Registers registers) {
+            final Object value;
+            if (name != null) {
+                if (!registers.environment.isDefined(name.lexeme)) return false;
+                value = registers.environment.get(name);
+            } else {
+                final Object[] frame = registers.interpreter.frame;
+                value = slot < frame.length ? frame[slot] : null;
+            }
+
+            if (!number) {
+                registers.values[register] = value;
+                return true;
+            }
+            if (!(value instanceof Double)) return false;
+            registers.numbers[register] = (double) value;
+            return true;
+        }
+
+        void store(Registers registers) {
+            if (!assigned) return;
+
+            final Object value = number ? (Object) registers.numbers[register] : registers.values[register];
+            if (name != null) {
+                registers.environment.assign(name, value);
+            } else {
+                registers.interpreter.frame[slot] = value;
+            }
+        }
+    }
+
+    final Condition condition;
+    final Action body;
+    final Hoisted[] hoisted;
+    final int numberRegisters;
+    final int valueRegisters;
+
+    /**
+     * Variables speculated to be numbers (see {@link #key(Expr)}), and the register each is kept in
+     */
+    private final Map<Object, Integer> numbers = new HashMap<>();
+    /**
+     * Globals held in registers that are not speculated to be numbers, and their registers
+     */
+    private final Map<Object, Integer> values = new HashMap<>();
+
+    /**
+     * Compiles a loop
+     * @param loop loop whose variables were resolved (see {@link LocalVariables})
+     * @param excluded variables (see {@link #key(Expr)}) neither to hold in registers nor to speculate on
+     * @throws Unsupported if the loop cannot be compiled
+     */
+    LoopCompiler(Stmt.While loop, Set<Object> excluded) {
+        final Variables variables = new Variables();
+        variables.expression(loop.condition);
+        variables.statement(loop.body);
+
+        // speculates every variable the loop assigns is a number, then gives up on those assigned anything that might
+        // not be, until those left are only ever assigned numbers (which may take several rounds, as one may be
+        // assigned another). Those only read are left as they are, as nothing says what they hold.
+        final Set<Object> speculated = new HashSet<>(variables.assigned);
+        speculated.removeAll(excluded);
+        for (boolean changed = true; changed; ) {
+            changed = false;
+            for (Map.Entry<Object, Expr> write : variables.writes) {
+                if (speculated.contains(write.getKey()) && !isNumeric(write.getValue(), speculated)) {
+                    speculated.remove(write.getKey());
+                    changed = true;
+                }
+            }
+        }
+
+        final List<Hoisted> hoisted = new ArrayList<>();
+        for (Map.Entry<Object, Token> variable : variables.used.entrySet()) {
+            final Object key = variable.getKey();
+            final boolean global = key instanceof String;
+            final boolean assigned = variables.assigned.contains(key);
+
+            if (speculated.contains(key)) {
+                numbers.put(key, numbers.size());
+                // locals declared in the loop are defined before every use in it, so have nothing to load
+                if (!variables.declared.contains(key)) {
+                    hoisted.add(new Hoisted(key, global ? variable.getValue() : null, global ? -1 : (int) key, true,
+                            numbers.get(key), assigned));
+                }
+            } else if (global && !excluded.contains(key)) {
+                values.put(key, values.size());
+                hoisted.add(new Hoisted(key, variable.getValue(), -1, false, values.get(key), assigned));
+            }
+        }
+
+        this.hoisted = hoisted.toArray(new Hoisted[0]);
+        this.numberRegisters = numbers.size();
+        this.valueRegisters = values.size();
+        this.condition = condition(loop.condition);
+        this.body = statement(loop.body);
+    }
+
+    /**
+     * @return what a variable is known by while compiling: the name of a global, the frame slot of a local, or null
+     * for a variable resolved to a slot of its own (see {@link FreeVariables}), which is never held in a register
+     */
+    private static Object key(Expr expr) {
+        final int depth = expr instanceof Expr.Variable ? ((Expr.Variable) expr).depth : ((Expr.Assign) expr).depth;
+        final int slot = expr instanceof Expr.Variable ? ((Expr.Variable) expr).slot : ((Expr.Assign) expr).slot;
+        final Token name = expr instanceof Expr.Variable ? ((Expr.Variable) expr).name : ((Expr.Assign) expr).name;
+
+        if (depth == 0) return slot;
+        return slot >= 0 ? null : name.lexeme;
+    }
+
+    /**
+     * @return true if expr can only produce a number (or raise its own error), given the variables speculated to
+     */
+    private static boolean isNumeric(Expr expr, Set<Object> speculated) {
+        if (expr == null) return false;
+
+        switch (expr.kind) {
+            case Expr.NUMBER_LITERAL:
+                return true;
+            case Expr.GROUPING:
+                return isNumeric(((Expr.Grouping) expr).expression, speculated);
+            case Expr.UNARY:
+                return ((Expr.Unary) expr).operator.type == TokenType.MINUS;
+            case Expr.BINARY: {
+                final Expr.Binary binary = (Expr.Binary) expr;
+                switch (binary.operator.type) {
+                    case MINUS:
+                    case SLASH:
+                    case STAR:
+                        return true;
+                    case PLUS:
+                        return isNumeric(binary.left, speculated) && isNumeric(binary.right, speculated);
+                    default:
+                        return false;
+                }
+            }
+            case Expr.VARIABLE:
+            case Expr.ASSIGN: {
+                final Object key = key(expr);
+                if (key != null && speculated.contains(key)) return true;
+                break;
+            }
+        }
+
+        return expr.type == Types.NUMBER;
+    }
+
+    private boolean isNumeric(Expr expr) {
+        return isNumeric(expr, numbers.keySet());
+    }
+
+    /**
+     * Finds the variables a loop uses and what it assigns them, and checks it can be compiled
+     */
+    private static final class Variables {
+        final Map<Object, Token> used = new LinkedHashMap<>();
+        final Set<Object> assigned = new HashSet<>();
+        final Set<Object> declared = new HashSet<>();
+        /**
+         * Each assignment and declaration, of the variable to what it is given (null for nil)
+         */
+        final List<Map.Entry<Object, Expr>> writes = new ArrayList<>();
+
+        void statement(Stmt stmt) {
+            if (stmt == null) return;
+
+            switch (stmt.kind) {
+                case Stmt.BLOCK: {
+                    final Stmt.Block block = (Stmt.Block) stmt;
+                    if (!block.flat) throw new Unsupported("Block with an environment of its own.");
+                    for (Stmt statement : block.statements) {
+                        statement(statement);
+                    }
+                    break;
+                }
+                case Stmt.EXPRESSION:
+                    expression(((Stmt.Expression) stmt).expression);
+                    break;
+                case Stmt.PRINT:
+                    expression(((Stmt.Print) stmt).expression);
+                    break;
+                case Stmt.IF: {
+                    final Stmt.If branch = (Stmt.If) stmt;
+                    expression(branch.condition);
+                    statement(branch.thenBranch);
+                    statement(branch.elseBranch);
+                    break;
+                }
+                case Stmt.VAR: {
+                    final Stmt.Var var = (Stmt.Var) stmt;
+                    if (var.slot < 0) throw new Unsupported("Variable declared in an environment.");
+                    expression(var.initialiser);
+                    used.putIfAbsent(var.slot, var.name);
+                    declared.add(var.slot);
+                    assigned.add(var.slot);
+                    writes.add(new HashMap.SimpleEntry<>(var.slot, var.initialiser));
+                    break;
+                }
+                case Stmt.WHILE: {
+                    final Stmt.While loop = (Stmt.While) stmt;
+                    expression(loop.condition);
+                    statement(loop.body);
+                    break;
+                }
+            }
+        }
+
+        void expression(Expr expr) {
+            if (expr == null) return;
+
+            switch (expr.kind) {
+                case Expr.VARIABLE: {
+                    final Object key = key(expr);
+                    if (key != null) used.putIfAbsent(key, ((Expr.Variable) expr).name);
+                    break;
+                }
+                case Expr.ASSIGN: {
+                    final Expr.Assign assign = (Expr.Assign) expr;
+                    expression(assign.value);
+                    final Object key = key(expr);
+                    if (key != null) {
+                        used.putIfAbsent(key, assign.name);
+                        assigned.add(key);
+                        writes.add(new HashMap.SimpleEntry<>(key, assign.value));
+                    }
+                    break;
+                }
+                case Expr.BINARY:
+                    expression(((Expr.Binary) expr).left);
+                    expression(((Expr.Binary) expr).right);
+                    break;
+                case Expr.LOGICAL:
+                    expression(((Expr.Logical) expr).left);
+                    expression(((Expr.Logical) expr).right);
+                    break;
+                case Expr.GROUPING:
+                    expression(((Expr.Grouping) expr).expression);
+                    break;
+                case Expr.UNARY:
+                    expression(((Expr.Unary) expr).right);
+                    break;
+                case Expr.CALL:
+                    expression(((Expr.Call) expr).callee);
+                    ((Expr.Call) expr).arguments.forEach(this::expression);
+                    break;
+                case Expr.INDEX:
+                    expression(((Expr.Index) expr).object);
+                    expression(((Expr.Index) expr).index);
+                    break;
+                case Expr.SET_INDEX:
+                    expression(((Expr.SetIndex) expr).object);
+                    expression(((Expr.SetIndex) expr).index);
+                    expression(((Expr.SetIndex) expr).value);
+                    break;
+                case Expr.LIST_LITERAL:
+                    ((Expr.ListLiteral) expr).elements.forEach(this::expression);
+                    break;
+                case Expr.MAP_LITERAL:
+                    ((Expr.MapLiteral) expr).keys.forEach(this::expression);
+                    ((Expr.MapLiteral) expr).values.forEach(this::expression);
+                    break;
+            }
+        }
+    }
+
+    private Action statement(Stmt stmt) {
+        switch (stmt.kind) {
+            case Stmt.EXPRESSION:
+            case Stmt.PRINT: {
+                final Code value = value(stmt.kind == Stmt.PRINT ? ((Stmt.Print) stmt).expression
+                        : ((Stmt.Expression) stmt).expression);
+                return registers -> {
+                    registers.interpreter.tick();
+                    registers.interpreter.println(Interpreter.stringify(value.run(registers)));
+                    return false;
+                };
+            }
+            case Stmt.VAR: {
+                final Stmt.Var var = (Stmt.Var) stmt;
+                final Integer register = numbers.get(var.slot);
+                if (register != null) {
+                    final int number = register;
+                    final NumberCode initialiser = number(var.initialiser);
+                    return registers -> {
+                        registers.interpreter.tick();
+                        registers.numbers[number] = initialiser.run(registers);
+                        return false;
+                    };
+                }
+
+                final int slot = var.slot;
+                final Code initialiser = var.initialiser == null ? null : value(var.initialiser);
+                return registers -> {
+                    registers.interpreter.tick();
+                    final Object value = initialiser == null ? null : initialiser.run(registers);
+                    registers.interpreter.defineLocal(slot, value);
+                    return false;
+                };
+            }
+            case Stmt.BLOCK: {
+                final List<Stmt> statements = ((Stmt.Block) stmt).statements;
+                final Action[] actions = new Action[statements.size()];
+                for (int i = 0; i < actions.length; i++) {
+                    actions[i] = statement(statements.get(i));
+                }
+                return registers -> {
+                    final Interpreter interpreter = registers.interpreter;
+                    interpreter.tick();
+                    // the block's locals are all in the frame, so it runs in the loop's environment
+                    final Environment previous = interpreter.enterBlock(registers.environment);
+                    try {
+                        for (Action action : actions) {
+                            if (action.run(registers)) return true;
+                        }
+                        return false;
+                    } finally {
+                        interpreter.exitBlock(previous);
+                    }
+                };
+            }
+            case Stmt.IF: {
+                final Stmt.If branch = (Stmt.If) stmt;
+                final Condition condition = condition(branch.condition);
+                final Action then = statement(branch.thenBranch);
+                final Action otherwise = branch.elseBranch == null ? null : statement(branch.elseBranch);
+                return registers -> {
+                    registers.interpreter.tick();
+                    if (condition.test(registers)) return then.run(registers);
+                    return otherwise != null && otherwise.run(registers);
+                };
+            }
+            case Stmt.WHILE: {
+                final Stmt.While loop = (Stmt.While) stmt;
+                final Condition condition = condition(loop.condition);
+                final Action body = statement(loop.body);
+                return registers -> {
+                    registers.interpreter.tick();
+                    while (condition.test(registers)) {
+                        if (body.run(registers)) break;
+                        registers.interpreter.safepoint();
+                    }
+                    return false;
+                };
+            }
+            case Stmt.BREAK:
+                return registers -> {
+                    registers.interpreter.tick();
+                    return true;
+                };
+            default:
+                throw new Unsupported("Unknown statement.");
+        }
+    }
+
+    /**
+     * @return code producing the value of expr, boxed
+     */
+    private Code value(Expr expr) {
+        switch (expr.kind) {
+            case Expr.NUMBER_LITERAL: {
+                final Object value = ((Expr.NumberLiteral) expr).value;
+                return registers -> {
+                    registers.interpreter.tick();
+                    return value;
+                };
+            }
+            case Expr.STRING_LITERAL: {
+                final String value = ((Expr.StringLiteral) expr).value;
+                return registers -> {
+                    registers.interpreter.tick();
+                    return value;
+                };
+            }
+            case Expr.BOOLEAN_LITERAL: {
+                final Boolean value = ((Expr.BooleanLiteral) expr).value;
+                return registers -> {
+                    registers.interpreter.tick();
+                    return value;
+                };
+            }
+            case Expr.NIL_LITERAL:
+                return registers -> {
+                    registers.interpreter.tick();
+                    return null;
+                };
+            case Expr.GROUPING: {
+                final Code value = value(((Expr.Grouping) expr).expression);
+                return registers -> {
+                    registers.interpreter.tick();
+                    return value.run(registers);
+                };
+            }
+            case Expr.VARIABLE:
+                return variable((Expr.Variable) expr);
+            case Expr.ASSIGN:
+                return assign((Expr.Assign) expr);
+            case Expr.UNARY: {
+                final Expr.Unary unary = (Expr.Unary) expr;
+                if (unary.operator.type == TokenType.MINUS) return boxed(number(unary));
+
+                final Condition right = condition(unary.right);
+                return registers -> {
+                    registers.interpreter.tick();
+                    return !right.test(registers);
+                };
+            }
+            case Expr.BINARY:
+                return binary((Expr.Binary) expr);
+            case Expr.LOGICAL: {
+                final Expr.Logical logical = (Expr.Logical) expr;
+                final Code left = value(logical.left);
+                final Code right = value(logical.right);
+                if (logical.operator.type == TokenType.OR) {
+                    return registers -> {
+                        registers.interpreter.tick();
+                        final Object value = left.run(registers);
+                        return Interpreter.isTruthy(value) ? value : right.run(registers);
+                    };
+                }
+                return registers -> {
+                    registers.interpreter.tick();
+                    final Object value = left.run(registers);
+                    return !Interpreter.isTruthy(value) ? value : right.run(registers);
+                };
+            }
+            case Expr.CALL: {
+                final Expr.Call call = (Expr.Call) expr;
+                final Code callee = value(call.callee);
+                final Code[] arguments = values(call.arguments);
+                final Token paren = call.paren;
+                switch (arguments.length) {
+                    case 0:
+                        return registers -> {
+                            registers.interpreter.tick();
+                            final Object function = callee.run(registers);
+                            return registers.interpreter.callable(function, paren, 0)
+                                    .call(registers.interpreter, paren);
+                        };
+                    case 1: {
+                        final Code argument = arguments[0];
+                        return registers -> {
+                            registers.interpreter.tick();
+                            final Object function = callee.run(registers);
+                            final Object value = argument.run(registers);
+                            return registers.interpreter.callable(function, paren, 1)
+                                    .call(registers.interpreter, paren, value);
+                        };
+                    }
+                    case 2: {
+                        final Code first = arguments[0];
+                        final Code second = arguments[1];
+                        return registers -> {
+                            registers.interpreter.tick();
+                            final Object function = callee.run(registers);
+                            final Object firstValue = first.run(registers);
+                            final Object secondValue = second.run(registers);
+                            return registers.interpreter.callable(function, paren, 2)
+                                    .call(registers.interpreter, paren, firstValue, secondValue);
+                        };
+                    }
+                }
+                return registers -> {
+                    registers.interpreter.tick();
+                    final Object function = callee.run(registers);
+                    final Object[] values = new Object[arguments.length];
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = arguments[i].run(registers);
+                    }
+                    return registers.interpreter.call(function, paren, values);
+                };
+            }
+            case Expr.INDEX: {
+                final Expr.Index index = (Expr.Index) expr;
+                final Code object = value(index.object);
+                final Code key = value(index.index);
+                final Token bracket = index.bracket;
+                return registers -> {
+                    registers.interpreter.tick();
+                    final Object value = object.run(registers);
+                    return registers.interpreter.index(bracket, value, key.run(registers));
+                };
+            }
+            case Expr.SET_INDEX: {
+                final Expr.SetIndex index = (Expr.SetIndex) expr;
+                final Code object = value(index.object);
+                final Code key = value(index.index);
+                final Code value = value(index.value);
+                final Token bracket = index.bracket;
+                return registers -> {
+                    registers.interpreter.tick();
+                    final Object target = object.run(registers);
+                    final Object at = key.run(registers);
+                    return registers.interpreter.setIndex(bracket, target, at, value.run(registers));
+                };
+            }
+            case Expr.LIST_LITERAL: {
+                final Code[] elements = values(((Expr.ListLiteral) expr).elements);
+                return registers -> {
+                    registers.interpreter.tick();
+                    final Object[] values = new Object[elements.length];
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = elements[i].run(registers);
+                    }
+                    return new LoxList(values);
+                };
+            }
+            case Expr.MAP_LITERAL: {
+                final Expr.MapLiteral literal = (Expr.MapLiteral) expr;
+                final Code[] keys = values(literal.keys);
+                final Code[] values = values(literal.values);
+                final Token brace = literal.brace;
+                return registers -> {
+                    registers.interpreter.tick();
+                    final LoxMap map = new LoxMap();
+                    for (int i = 0; i < keys.length; i++) {
+                        final Object key = keys[i].run(registers);
+                        map.put(Interpreter.checkKey(brace, key), values[i].run(registers));
+                    }
+                    return map;
+                };
+            }
+            default:
+                throw new Unsupported("Unknown expression.");
+        }
+    }
+
+    private Code[] values(List<Expr> exprs) {
+        final Code[] codes = new Code[exprs.size()];
+        for (int i = 0; i < codes.length; i++) {
+            codes[i] = value(exprs.get(i));
+        }
+        return codes;
+    }
+
+    private static Code boxed(NumberCode number) {
+        return number::run;
+    }
+
+    private Code variable(Expr.Variable expr) {
+        final Object key = key(expr);
+        final Integer number = numbers.get(key);
+        if (number != null) {
+            final int register = number;
+            return registers -> {
+                registers.interpreter.tick();
+                return registers.numbers[register];
+            };
+        }
+
+        final Integer value = values.get(key);
+        if (value != null) {
+            final int register = value;
+            return registers -> {
+                registers.interpreter.tick();
+                return registers.values[register];
+            };
+        }
+
+        final int slot = expr.slot;
+        if (expr.depth == 0) {
+            return registers -> {
+                registers.interpreter.tick();
+                return registers.interpreter.frame[slot];
+            };
+        }
+        if (slot >= 0) {
+            return registers -> {
+                registers.interpreter.tick();
+                return registers.interpreter.slots[slot];
+            };
+        }
+
+        final Token name = expr.name;
+        return registers -> {
+            registers.interpreter.tick();
+            return registers.environment.get(name);
+        };
+    }
+
+    private Code assign(Expr.Assign expr) {
+        final Object key = key(expr);
+        if (numbers.containsKey(key)) return boxed(number(expr));
+
+        final Code value = value(expr.value);
+        final Integer hoisted = values.get(key);
+        if (hoisted != null) {
+            final int register = hoisted;
+            return registers -> {
+                registers.interpreter.tick();
+                return registers.values[register] = value.run(registers);
+            };
+        }
+
+        final int slot = expr.slot;
+        if (expr.depth == 0) {
+            return registers -> {
+                registers.interpreter.tick();
+                final Object assigned = value.run(registers);
+                registers.interpreter.frame[slot] = assigned;
+                return assigned;
+            };
+        }
+        if (slot >= 0) {
+            return registers -> {
+                registers.interpreter.tick();
+                final Object assigned = value.run(registers);
+                registers.interpreter.slots[slot] = assigned;
+                return assigned;
+            };
+        }
+
+        final Token name = expr.name;
+        return registers -> {
+            registers.interpreter.tick();
+            final Object assigned = value.run(registers);
+            registers.environment.assign(name, assigned);
+            return assigned;
+        };
+    }
+
+    private Code binary(Expr.Binary expr) {
+        switch (expr.operator.type) {
+            case MINUS:
+            case SLASH:
+            case STAR:
+                return boxed(number(expr));
+            case PLUS: {
+                if (isNumeric(expr.left) && isNumeric(expr.right)) return boxed(number(expr));
+
+                final Code left = value(expr.left);
+                final Code right = value(expr.right);
+                final Token operator = expr.operator;
+                return registers -> {
+                    registers.interpreter.tick();
+                    final Object value = left.run(registers);
+                    return registers.interpreter.add(operator, value, right.run(registers));
+                };
+            }
+            default: {
+                final Condition condition = condition(expr);
+                return condition::test;
+            }
+        }
+    }
+
+    /**
+     * @return code producing the value of expr, which must be {@link #isNumeric(Expr)}, without boxing it
+     */
+    private NumberCode number(Expr expr) {
+        switch (expr.kind) {
+            case Expr.NUMBER_LITERAL: {
+                final double value = ((Expr.NumberLiteral) expr).value;
+                return registers -> {
+                    registers.interpreter.tick();
+                    return value;
+                };
+            }
+            case Expr.GROUPING: {
+                final NumberCode value = number(((Expr.Grouping) expr).expression);
+                return registers -> {
+                    registers.interpreter.tick();
+                    return value.run(registers);
+                };
+            }
+            case Expr.UNARY: {
+                final Expr.Unary unary = (Expr.Unary) expr;
+                if (isNumeric(unary.right)) {
+                    final NumberCode right = number(unary.right);
+                    return registers -> {
+                        registers.interpreter.tick();
+                        return -right.run(registers);
+                    };
+                }
+
+                final Code right = value(unary.right);
+                final Token operator = unary.operator;
+                return registers -> {
+                    registers.interpreter.tick();
+                    final Object value = right.run(registers);
+                    registers.interpreter.checkNumberOperand(operator, value);
+                    return -(double) value;
+                };
+            }
+            case Expr.BINARY:
+                return arithmetic((Expr.Binary) expr);
+            case Expr.VARIABLE:
+            case Expr.ASSIGN: {
+                final Integer register = numbers.get(key(expr));
+                if (register == null) break;
+
+                final int number = register;
+                if (expr.kind == Expr.VARIABLE) {
+                    return registers -> {
+                        registers.interpreter.tick();
+                        return registers.numbers[number];
+                    };
+                }
+
+                final NumberCode value = number(((Expr.Assign) expr).value);
+                return registers -> {
+                    registers.interpreter.tick();
+                    return registers.numbers[number] = value.run(registers);
+                };
+            }
+        }
+
+        // inferred to hold a number, so already a boxed one
+        final Code value = value(expr);
+        return registers -> (double) value.run(registers);
+    }
+
+    private NumberCode arithmetic(Expr.Binary expr) {
+        final TokenType type = expr.operator.type;
+        if (isNumeric(expr.left) && isNumeric(expr.right)) {
+            final NumberCode left = number(expr.left);
+            final NumberCode right = number(expr.right);
+            switch (type) {
+                case MINUS:
+                    return registers -> {
+                        registers.interpreter.tick();
+                        return left.run(registers) - right.run(registers);
+                    };
+                case SLASH:
+                    return registers -> {
+                        registers.interpreter.tick();
+                        return left.run(registers) / right.run(registers);
+                    };
+                case STAR:
+                    return registers -> {
+                        registers.interpreter.tick();
+                        return left.run(registers) * right.run(registers);
+                    };
+                default:
+                    return registers -> {
+                        registers.interpreter.tick();
+                        return left.run(registers) + right.run(registers);
+                    };
+            }
+        }
+
+        // operands are only checked once both have been evaluated, as errors in either come first
+        final Code left = value(expr.left);
+        final Code right = value(expr.right);
+        final Token operator = expr.operator;
+        return registers -> {
+            registers.interpreter.tick();
+            final Object a = left.run(registers);
+            final Object b = right.run(registers);
+            registers.interpreter.checkNumberOperands(operator, a, b);
+            return arithmetic(type, (double) a, (double) b);
+        };
+    }
+
+    private static double arithmetic(TokenType type, double a, double b) {
+        switch (type) {
+            case MINUS: return a - b;
+            case SLASH: return a / b;
+            case STAR: return a * b;
+            default: return a + b;
+        }
+    }
+
+    /**
+     * @return code testing whether the value of expr is truthy, without producing the value where it need not
+     */
+    private Condition condition(Expr expr) {
+        switch (expr.kind) {
+            case Expr.GROUPING: {
+                final Condition condition = condition(((Expr.Grouping) expr).expression);
+                return registers -> {
+                    registers.interpreter.tick();
+                    return condition.test(registers);
+                };
+            }
+            case Expr.UNARY: {
+                final Expr.Unary unary = (Expr.Unary) expr;
+                if (unary.operator.type != TokenType.BANG) break;
+
+                final Condition right = condition(unary.right);
+                return registers -> {
+                    registers.interpreter.tick();
+                    return !right.test(registers);
+                };
+            }
+            case Expr.BINARY: {
+                final Expr.Binary binary = (Expr.Binary) expr;
+                switch (binary.operator.type) {
+                    case GREATER:
+                    case GREATER_EQUAL:
+                    case LESS:
+                    case LESS_EQUAL:
+                        return comparison(binary);
+                    case EQUAL_EQUAL:
+                    case BANG_EQUAL:
+                        return equality(binary);
+                }
+                break;
+            }
+        }
+
+        final Code value = value(expr);
+        return registers -> Interpreter.isTruthy(value.run(registers));
+    }
+
+    private Condition comparison(Expr.Binary expr) {
+        final TokenType type = expr.operator.type;
+        if (isNumeric(expr.left) && isNumeric(expr.right)) {
+            final NumberCode left = number(expr.left);
+            final NumberCode right = number(expr.right);
+            switch (type) {
+                case GREATER:
+                    return registers -> {
+                        registers.interpreter.tick();
+                        return left.run(registers) > right.run(registers);
+                    };
+                case GREATER_EQUAL:
+                    return registers -> {
+                        registers.interpreter.tick();
+                        return left.run(registers) >= right.run(registers);
+                    };
+                case LESS:
+                    return registers -> {
+                        registers.interpreter.tick();
+                        return left.run(registers) < right.run(registers);
+                    };
+                default:
+                    return registers -> {
+                        registers.interpreter.tick();
+                        return left.run(registers) <= right.run(registers);
+                    };
+            }
+        }
+
+        final Code left = value(expr.left);
+        final Code right = value(expr.right);
+        final Token operator = expr.operator;
+        return registers -> {
+            registers.interpreter.tick();
+            final Object a = left.run(registers);
+            final Object b = right.run(registers);
+            registers.interpreter.checkNumberOperands(operator, a, b);
+            return compare(type, (double) a, (double) b);
+        };
+    }
+
+    private static boolean compare(TokenType type, double a, double b) {
+        switch (type) {
+            case GREATER: return a > b;
+            case GREATER_EQUAL: return a >= b;
+            case LESS: return a < b;
+            default: return a <= b;
+        }
+    }
+
+    private Condition equality(Expr.Binary expr) {
+        final boolean equal = expr.operator.type == TokenType.EQUAL_EQUAL;
+        if (isNumeric(expr.left) && isNumeric(expr.right)) {
+            final NumberCode left = number(expr.left);
+            final NumberCode right = number(expr.right);
+            return registers -> {
+                registers.interpreter.tick();
+                final double a = left.run(registers);
+                return Interpreter.isSameNumber(a, right.run(registers)) == equal;
+            };
+        }
+
+        final Code left = value(expr.left);
+        final Code right = value(expr.right);
+        return registers -> {
+            registers.interpreter.tick();
+            final Object a = left.run(registers);
+            return Interpreter.isEqual(a, right.run(registers)) == equal;
+        };
+    }
+}
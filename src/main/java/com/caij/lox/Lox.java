@@ -1,9 +1,11 @@
 package com.caij.lox;
 
-import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.List;
@@ -15,8 +17,13 @@ public class Lox {
     private static boolean hadRuntimeError = false;
 
     public static void main(String[] args) throws IOException {
-        if (args.length > 1) {
-            System.out.println("Usage: jlox [script]");
+        if (args.length == 3 && args[0].equals("--batch")) {
+            runBatch(args[1], args[2]);
+        } else if (args.length == 3 && args[0].equals("--coverage")) {
+            runWithCoverage(args[1], args[2]);
+        } else if (args.length > 1) {
+            System.out.println("Usage: jlox [script] | jlox --batch script records.csv|records.jsonl" +
+                    " | jlox --coverage report.lcov script");
             System.exit(64);
         } else if (args.length == 1) {
             runFile(args[0]);
@@ -25,23 +32,33 @@ public class Lox {
         }
     }
 
-    static void error(int line, String message) {
-        report(line, "", message);
-    }
-
-    static void error(Token token, String message) {
-        if (token.type == TokenType.EOF) {
-            report(token.line, " at end", message);
-        } else {
-            report(token.line, " at '" + token.lexeme + "'", message);
-        }
+    static void report(Diagnostic diagnostic) {
+        System.err.println(diagnostic);
+        hadError = true;
     }
 
     static void runtimeError(RuntimeError error) {
-        System.err.println(error.getMessage() + "\n[line " + error.token.line + "]");
+        System.err.print(describe(error));
         hadRuntimeError = true;
     }
 
+    /**
+     * @return error as it is reported to the user, one line after another
+     */
+    static String describe(RuntimeError error) {
+        final StringBuilder description = new StringBuilder(error.getMessage()).append('\n');
+        if (error.token != null) {
+            description.append("[line ").append(error.token.line).append("]\n");
+        }
+
+        // the outermost frame is always the script itself, which is already described by the line above
+        final List<String> frames = error.getLoxStackTrace();
+        for (int i = 0; i < frames.size() - 1; i++) {
+            description.append("    ").append(frames.get(i)).append('\n');
+        }
+        return description.toString();
+    }
+
     private static void runFile(String path) throws IOException {
         byte[] bytes = Files.readAllBytes(Paths.get(path));
         run(new String(bytes, Charset.defaultCharset()));
@@ -50,30 +67,67 @@ public class Lox {
         if (hadRuntimeError) System.exit(70);
     }
 
-    private static void runPrompt() throws IOException {
-        InputStreamReader input = new InputStreamReader(System.in);
-        BufferedReader reader = new BufferedReader(input);
+    private static void runBatch(String script, String records) throws IOException {
+        final Batch batch;
+        try {
+            batch = Batch.compile(new String(Files.readAllBytes(Paths.get(script)), Charset.defaultCharset()),
+                    Limits.none());
+        } catch (IllegalArgumentException errors) {
+            System.err.println(errors.getMessage());
+            System.exit(65);
+            return;
+        }
+
+        final Writer out = new BufferedWriter(new OutputStreamWriter(System.out, Charset.defaultCharset()),
+                Batch.BUFFER_SIZE);
+        final Batch.Summary summary = batch.run(Paths.get(records), out, System.err,
+                Runtime.getRuntime().availableProcessors());
+        System.err.println(summary);
 
-        for (;;) {
-            System.out.print(">>> ");
-            run(reader.readLine());
-            hadError = false;
+        if (summary.getFailures() > 0) System.exit(70);
+    }
+
+    /**
+     * Runs a script as {@link #runFile(String)} does, counting the runs of each of its lines
+     * @param report where to write the counts, in LCOV format
+     */
+    private static void runWithCoverage(String report, String path) throws IOException {
+        final byte[] bytes = Files.readAllBytes(Paths.get(path));
+        final List<Stmt> statements = compile(new String(bytes, Charset.defaultCharset()));
+        if (statements == null) System.exit(65);
+
+        final Coverage coverage = new Coverage();
+        coverage.instrument(statements);
+        coverage.interpreter(Limits.none(), null).interpret(statements);
+        try (Writer out = Files.newBufferedWriter(Paths.get(report), StandardCharsets.UTF_8)) {
+            coverage.writeLcov(path, out);
         }
+
+        if (hadRuntimeError) System.exit(70);
+    }
+
+    private static void runPrompt() throws IOException {
+        new Repl(System.in, System.out, System.err).run();
     }
 
     private static void run(String source) {
+        final List<Stmt> statements = compile(source);
+        if (statements != null) interpreter.interpret(statements);
+    }
+
+    /**
+     * @return statements of source, resolved and ready to run, or null if it has errors (already reported)
+     */
+    private static List<Stmt> compile(String source) {
         final Scanner scanner = new Scanner(source);
         final List<Token> tokens = scanner.scanTokens();
         final Parser parser = new Parser(tokens);
         final List<Stmt> statements = parser.parse();
 
-        if (hadError) return;
+        if (hadError) return null;
 
-        interpreter.interpret(statements);
-    }
-
-    private static void report(int line, String where, String message) {
-        System.err.println("[line " + line + "] Error" + where + ": " + message);
-        hadError = true;
+        LocalVariables.resolve(statements);
+        Types.infer(statements);
+        return statements;
     }
 }
@@ -0,0 +1,43 @@
+package com.caij.lox;
+
+/**
+ * Represents a value that can be called, such as a native function
+ */
+interface LoxCallable {
+
+    /**
+     * @return number of arguments it must be called with
+     */
+    int arity();
+
+    /**
+     * Calls it with arguments already checked to be the right number of
+     * @param interpreter interpreter making the call
+     * @param paren closing parenthesis of the call, where errors are reported
+     * @param arguments values of arguments
+     * @return value of the call
+     * @throws RuntimeError if the call could not be made
+     */
+    Object call(Interpreter interpreter, Token paren, Object[] arguments);
+
+    /**
+     * Calls it without arguments, as {@link #call(Interpreter, Token, Object[])} would with none
+     */
+    default Object call(Interpreter interpreter, Token paren) {
+        return call(interpreter, paren, new Object[0]);
+    }
+
+    /**
+     * Calls it with one argument, as {@link #call(Interpreter, Token, Object[])} would, but needs no array for it
+     */
+    default Object call(Interpreter interpreter, Token paren, Object argument) {
+        return call(interpreter, paren, new Object[]{argument});
+    }
+
+    /**
+     * Calls it with two arguments, as {@link #call(Interpreter, Token, Object[])} would, but needs no array for them
+     */
+    default Object call(Interpreter interpreter, Token paren, Object first, Object second) {
+        return call(interpreter, paren, new Object[]{first, second});
+    }
+}
@@ -0,0 +1,145 @@
+package com.caij.lox;
+
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * A list value. While every element is a number they are kept unboxed in a double[], so numeric data costs eight bytes
+ * an element and can be read and written without allocating; the first element that is not a number moves them all
+ * into an Object[] for good. Both grow by doubling, so appending is amortised O(1).
+ */
+final class LoxList {
+
+    private static final double[] NO_NUMBERS = new double[0];
+
+    private double[] numbers;
+    private Object[] values;
+    private int size;
+
+    /**
+     * Construct an empty list
+     */
+    LoxList() {
+        this.numbers = NO_NUMBERS;
+    }
+
+    /**
+     * Construct a list of
+     * @param elements its elements, which it takes ownership of
+     */
+    LoxList(Object[] elements) {
+        this.size = elements.length;
+
+        final double[] numbers = new double[size];
+        for (int i = 0; i < size; i++) {
+            if (!(elements[i] instanceof Double)) {
+                this.values = elements;
+                return;
+            }
+            numbers[i] = (double) elements[i];
+        }
+        this.numbers = numbers;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return true if every element is a number, held unboxed (so {@link #getNumber(int)} can be used)
+     */
+    boolean isNumeric() {
+        return values == null;
+    }
+
+    /**
+     * @param index index already checked to be in bounds
+     */
+    Object get(int index) {
+        return values == null ? (Object) numbers[index] : values[index];
+    }
+
+    /**
+     * @param index index already checked to be in bounds, of a list that {@link #isNumeric()}
+     */
+    double getNumber(int index) {
+        return numbers[index];
+    }
+
+    /**
+     * @param index index already checked to be in bounds
+     */
+    void set(int index, Object value) {
+        if (values == null) {
+            if (value instanceof Double) {
+                numbers[index] = (double) value;
+                return;
+            }
+            box();
+        }
+        values[index] = value;
+    }
+
+    /**
+     * @param index index already checked to be in bounds
+     */
+    void setNumber(int index, double value) {
+        if (values == null) {
+            numbers[index] = value;
+        } else {
+            values[index] = value;
+        }
+    }
+
+    void append(Object value) {
+        if (values == null) {
+            if (value instanceof Double) {
+                appendNumber((double) value);
+                return;
+            }
+            box();
+        }
+
+        if (size == values.length) values = Arrays.copyOf(values, Math.max(8, size * 2));
+        values[size++] = value;
+    }
+
+    void appendNumber(double value) {
+        if (values != null) {
+            append(value);
+            return;
+        }
+
+        if (size == numbers.length) numbers = Arrays.copyOf(numbers, Math.max(8, size * 2));
+        numbers[size++] = value;
+    }
+
+    private void box() {
+        final Object[] boxed = new Object[Math.max(8, numbers.length)];
+        for (int i = 0; i < size; i++) {
+            boxed[i] = numbers[i];
+        }
+        values = boxed;
+        numbers = null;
+    }
+
+    void appendTo(StringBuilder text, Set<Object> printing) {
+        if (!printing.add(this)) {
+            text.append("[...]");
+            return;
+        }
+
+        text.append('[');
+        for (int i = 0; i < size; i++) {
+            if (i > 0) text.append(", ");
+            Interpreter.stringify(get(i), text, printing);
+        }
+        text.append(']');
+        printing.remove(this);
+    }
+
+    @Override
+    public String toString() {
+        return Interpreter.stringify(this);
+    }
+}
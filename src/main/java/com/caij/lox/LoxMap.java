@@ -0,0 +1,266 @@
+package com.caij.lox;
+
+import java.util.Set;
+
+/**
+ * A map value, keyed by any value but nil. Entries are kept in insertion order in parallel arrays, found through an
+ * open-addressing table probed linearly. Each slot of the table holds an entry's hash beside its index, so a probe
+ * only looks at the entries whose hashes match, and growing never hashes anything again. Number keys are kept unboxed
+ * in their own array, so they can be stored and looked up without allocating; string keys are hashed once, by String
+ * itself.
+ */
+final class LoxMap {
+
+    /**
+     * Stands in the keys of entries whose key is a number, held in {@link #numberKeys}
+     */
+    private static final Object NUMBER = new Object();
+
+    /**
+     * Stands in the keys of entries that have been removed, matching no key
+     */
+    private static final Object REMOVED = new Object();
+
+    private static final int MINIMUM_CAPACITY = 8;
+
+    /**
+     * Pairs of the hash and the index plus one of an entry, the index being 0 in an empty slot; there are twice as many
+     * slots as entries, so probes stay short
+     */
+    private int[] table;
+    private Object[] keys;
+    private double[] numberKeys;
+    private int[] hashes;
+    private Object[] values;
+    private int entries;
+    private int size;
+
+    /**
+     * Construct an empty map
+     */
+    LoxMap() {
+        allocate(MINIMUM_CAPACITY);
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @param key key, not nil
+     * @return value key is mapped to, or nil if it is not in the map
+     */
+    Object get(Object key) {
+        if (key instanceof Double) return getNumber((double) key);
+
+        final int entry = find(key, hash(key));
+        return entry < 0 ? null : values[entry];
+    }
+
+    Object getNumber(double key) {
+        final int entry = findNumber(key, hash(key));
+        return entry < 0 ? null : values[entry];
+    }
+
+    boolean has(Object key) {
+        if (key == null) return false;
+        if (key instanceof Double) return findNumber((double) key, hash((double) key)) >= 0;
+        return find(key, hash(key)) >= 0;
+    }
+
+    /**
+     * @param key key, not nil
+     */
+    void put(Object key, Object value) {
+        if (key instanceof Double) {
+            putNumber((double) key, value);
+            return;
+        }
+
+        final int hash = hash(key);
+        final int entry = find(key, hash);
+        if (entry >= 0) {
+            values[entry] = value;
+            return;
+        }
+
+        final int added = add(hash, value);
+        keys[added] = key;
+    }
+
+    void putNumber(double key, Object value) {
+        final int hash = hash(key);
+        final int entry = findNumber(key, hash);
+        if (entry >= 0) {
+            values[entry] = value;
+            return;
+        }
+
+        final int added = add(hash, value);
+        keys[added] = NUMBER;
+        numberKeys[added] = key;
+    }
+
+    /**
+     * @return value key was mapped to, or nil if it was not in the map
+     */
+    Object remove(Object key) {
+        if (key == null) return null;
+
+        final int entry = key instanceof Double ? findNumber((double) key, hash((double) key)) : find(key, hash(key));
+        if (entry < 0) return null;
+
+        // its slot stays taken, so probes for the keys after it still pass through, until the table is rebuilt
+        final Object value = values[entry];
+        keys[entry] = REMOVED;
+        values[entry] = null;
+        size--;
+        return value;
+    }
+
+    /**
+     * @return list of keys, in the order they were first put
+     */
+    LoxList keys() {
+        final Object[] list = new Object[size];
+        int i = 0;
+        for (int entry = 0; entry < entries; entry++) {
+            if (keys[entry] != REMOVED) list[i++] = key(entry);
+        }
+        return new LoxList(list);
+    }
+
+    private Object key(int entry) {
+        return keys[entry] == NUMBER ? (Object) numberKeys[entry] : keys[entry];
+    }
+
+    private int find(Object key, int hash) {
+        final int[] table = this.table;
+        final int mask = table.length - 1;
+        for (int slot = (hash << 1) & mask; ; slot = (slot + 2) & mask) {
+            final int entry = table[slot + 1] - 1;
+            if (entry < 0) return -1;
+            if (table[slot] != hash) continue;
+
+            final Object candidate = keys[entry];
+            if (candidate == key || key.equals(candidate)) return entry;
+        }
+    }
+
+    private int findNumber(double key, int hash) {
+        final int[] table = this.table;
+        final int mask = table.length - 1;
+        final long bits = Double.doubleToLongBits(key);
+        for (int slot = (hash << 1) & mask; ; slot = (slot + 2) & mask) {
+            final int entry = table[slot + 1] - 1;
+            if (entry < 0) return -1;
+            if (table[slot] != hash) continue;
+
+            // compared as Double.equals does, as == is on numbers in Lox: NaN equals itself, -0 does not equal 0
+            if (Double.doubleToLongBits(numberKeys[entry]) == bits && keys[entry] == NUMBER) return entry;
+        }
+    }
+
+    /**
+     * Appends an entry, without its key, to the entries and table
+     * @return index of the entry
+     */
+    private int add(int hash, Object value) {
+        if (entries == keys.length) rebuild();
+
+        final int entry = entries++;
+        hashes[entry] = hash;
+        values[entry] = value;
+        insert(entry, hash);
+        size++;
+        return entry;
+    }
+
+    private void insert(int entry, int hash) {
+        final int mask = table.length - 1;
+        int slot = (hash << 1) & mask;
+        while (table[slot + 1] != 0) {
+            slot = (slot + 2) & mask;
+        }
+        table[slot] = hash;
+        table[slot + 1] = entry + 1;
+    }
+
+    /**
+     * Drops removed entries and grows (if still needed) the arrays, then fills a new table from their hashes
+     */
+    private void rebuild() {
+        final Object[] oldKeys = keys;
+        final double[] oldNumberKeys = numberKeys;
+        final int[] oldHashes = hashes;
+        final Object[] oldValues = values;
+        final int oldEntries = entries;
+
+        allocate(size * 2 > oldKeys.length ? oldKeys.length * 2 : oldKeys.length);
+        for (int entry = 0; entry < oldEntries; entry++) {
+            if (oldKeys[entry] == REMOVED) continue;
+
+            final int moved = entries++;
+            keys[moved] = oldKeys[entry];
+            numberKeys[moved] = oldNumberKeys[entry];
+            hashes[moved] = oldHashes[entry];
+            values[moved] = oldValues[entry];
+            insert(moved, hashes[moved]);
+        }
+    }
+
+    private void allocate(int capacity) {
+        table = new int[capacity * 4];
+        keys = new Object[capacity];
+        numberKeys = new double[capacity];
+        hashes = new int[capacity];
+        values = new Object[capacity];
+        entries = 0;
+    }
+
+    private static int hash(Object key) {
+        return mix(key.hashCode());
+    }
+
+    private static int hash(double key) {
+        final long bits = Double.doubleToLongBits(key);
+        return mix((int) (bits ^ bits >>> 32));
+    }
+
+    /**
+     * Spreads every bit of a hash over its low bits, which pick its slot. Whole numbers differ only in the high bits of
+     * their representation, and so of their hashes, which would otherwise pile them all into a few slots.
+     */
+    private static int mix(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85EBCA6B;
+        hash ^= hash >>> 13;
+        hash *= 0xC2B2AE35;
+        return hash ^ hash >>> 16;
+    }
+
+    void appendTo(StringBuilder text, Set<Object> printing) {
+        if (!printing.add(this)) {
+            text.append("{...}");
+            return;
+        }
+
+        text.append('{');
+        boolean first = true;
+        for (int entry = 0; entry < entries; entry++) {
+            if (keys[entry] == REMOVED) continue;
+            if (!first) text.append(", ");
+            first = false;
+
+            text.append(Interpreter.stringify(key(entry))).append(": ");
+            Interpreter.stringify(values[entry], text, printing);
+        }
+        text.append('}');
+        printing.remove(this);
+    }
+
+    @Override
+    public String toString() {
+        return Interpreter.stringify(this);
+    }
+}
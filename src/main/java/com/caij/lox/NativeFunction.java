@@ -0,0 +1,185 @@
+package com.caij.lox;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * A Java method callable from Lox. Everything that can be worked out from the method's type is worked out once, when
+ * it is bound: its arity, which Lox type each parameter takes, and how its result becomes a Lox value. Calls then only
+ * check their arguments' types and go straight through an adapted MethodHandle, without reflection: one taking each
+ * argument as an Object for calls of up to two arguments, which so need no array, and one spreading an array of them
+ * for the rest.
+ */
+final class NativeFunction implements LoxCallable {
+
+    private static final MethodHandle TO_LOX;
+
+    static {
+        try {
+            TO_LOX = MethodHandles.lookup().findStatic(NativeFunction.class, "toLox",
+                    MethodType.methodType(Object.class, Object.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final String name;
+    private final Class<?>[] parameters;
+    private final MethodHandle invoker;
+    private final MethodHandle spreader;
+
+    private NativeFunction(String name, Class<?>[] parameters, MethodHandle invoker, MethodHandle spreader) {
+        this.name = name;
+        this.parameters = parameters;
+        this.invoker = invoker;
+        this.spreader = spreader;
+    }
+
+    /**
+     * Binds a method handle as a native function. Parameters may be numbers (double or Double), booleans (boolean or
+     * Boolean), strings, lists, maps, or any value (Object); results may be void, any Java number (converted to a Lox
+     * number), a boolean, a string, a list, a map, or any value (numbers among which are converted when returned).
+     * @param name name the function is called by in Lox
+     * @param handle method handle to call
+     * @return function calling handle
+     * @throws IllegalArgumentException if handle takes or returns a type Lox has no equivalent of
+     */
+    static NativeFunction bind(String name, MethodHandle handle) {
+        final MethodType type = handle.type();
+        if (type.parameterCount() > 255) {
+            throw new IllegalArgumentException("'" + name + "' takes more than 255 arguments.");
+        }
+
+        final Class<?>[] parameters = new Class<?>[type.parameterCount()];
+        for (int i = 0; i < parameters.length; i++) {
+            parameters[i] = loxTypeOf(name, type.parameterType(i));
+        }
+
+        MethodHandle adapted = handle;
+        final Class<?> result = type.returnType();
+        if (result.isPrimitive() && result != void.class && result != boolean.class && result != char.class) {
+            // every Java number is a Lox number, i.e. a double
+            adapted = MethodHandles.explicitCastArguments(adapted, type.changeReturnType(double.class));
+        } else if (result == Object.class || Number.class.isAssignableFrom(result)) {
+            adapted = MethodHandles.filterReturnValue(adapted.asType(type.changeReturnType(Object.class)), TO_LOX);
+        } else if (result != void.class && result != boolean.class && result != Boolean.class
+                && result != String.class && result != LoxList.class && result != LoxMap.class) {
+            throw new IllegalArgumentException("'" + name + "' returns " + result.getName() + ", which Lox has no "
+                    + "equivalent of.");
+        }
+
+        // (Object, ...) -> Object, so calls with each number of arguments are the same exact invocation, and
+        // (Object[]) -> Object for those passing an array
+        final MethodHandle invoker = adapted.asType(MethodType.genericMethodType(parameters.length));
+        return new NativeFunction(name, parameters, invoker, invoker.asSpreader(Object[].class, parameters.length));
+    }
+
+    private static Class<?> loxTypeOf(String name, Class<?> parameter) {
+        if (parameter == double.class || parameter == Double.class) return Double.class;
+        if (parameter == boolean.class || parameter == Boolean.class) return Boolean.class;
+        if (parameter == String.class) return String.class;
+        if (parameter == LoxList.class) return LoxList.class;
+        if (parameter == LoxMap.class) return LoxMap.class;
+        if (parameter == Object.class) return Object.class;
+
+        throw new IllegalArgumentException("'" + name + "' takes " + parameter.getName() + ", which Lox has no "
+                + "equivalent of.");
+    }
+
+    private static Object toLox(Object value) {
+        if (value instanceof Number && !(value instanceof Double)) return ((Number) value).doubleValue();
+        return value;
+    }
+
+    String name() {
+        return name;
+    }
+
+    @Override
+    public int arity() {
+        return parameters.length;
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, Token paren, Object[] arguments) {
+        for (int i = 0; i < parameters.length; i++) {
+            checkArgument(paren, i, arguments[i]);
+        }
+
+        try {
+            return (Object) spreader.invokeExact(arguments);
+        } catch (RuntimeError | VirtualMachineError error) {
+            throw error;
+        } catch (Throwable throwable) {
+            throw failed(paren, throwable);
+        }
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, Token paren) {
+        try {
+            return (Object) invoker.invokeExact();
+        } catch (RuntimeError | VirtualMachineError error) {
+            throw error;
+        } catch (Throwable throwable) {
+            throw failed(paren, throwable);
+        }
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, Token paren, Object argument) {
+        checkArgument(paren, 0, argument);
+
+        try {
+            return (Object) invoker.invokeExact(argument);
+        } catch (RuntimeError | VirtualMachineError error) {
+            throw error;
+        } catch (Throwable throwable) {
+            throw failed(paren, throwable);
+        }
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, Token paren, Object first, Object second) {
+        checkArgument(paren, 0, first);
+        checkArgument(paren, 1, second);
+
+        try {
+            return (Object) invoker.invokeExact(first, second);
+        } catch (RuntimeError | VirtualMachineError error) {
+            throw error;
+        } catch (Throwable throwable) {
+            throw failed(paren, throwable);
+        }
+    }
+
+    private void checkArgument(Token paren, int index, Object argument) {
+        final Class<?> parameter = parameters[index];
+        if (parameter != Object.class && !parameter.isInstance(argument)) {
+            throw new RuntimeError(paren, "Argument " + (index + 1) + " of '" + name + "' must be a "
+                    + describe(parameter) + ".");
+        }
+    }
+
+    /**
+     * Reports what a native function threw as failing the call, which the script sees as any other runtime error. The
+     * JVM itself failing (running out of memory or stack) is not the function's failure, so is never caught for this.
+     */
+    private RuntimeError failed(Token paren, Throwable throwable) {
+        return new RuntimeError(paren, "Native function '" + name + "' failed: " + throwable);
+    }
+
+    private static String describe(Class<?> parameter) {
+        if (parameter == Double.class) return "number";
+        if (parameter == Boolean.class) return "boolean";
+        if (parameter == LoxList.class) return "list";
+        if (parameter == LoxMap.class) return "map";
+        return "string";
+    }
+
+    @Override
+    public String toString() {
+        return "<native fn " + name + ">";
+    }
+}
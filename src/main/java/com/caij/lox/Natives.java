@@ -0,0 +1,94 @@
+package com.caij.lox;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.lang.invoke.MethodType.methodType;
+
+/**
+ * Responsibility: collects Java methods to expose to scripts as native functions, defining them as globals.
+ *
+ * Methods are given as MethodHandles, so an embedder can expose a service's method by binding its handle to the
+ * service first, e.g. {@code lookup.findVirtual(Rates.class, "rate", methodType(double.class, String.class))
+ * .bindTo(rates)}. See {@link NativeFunction#bind(String, MethodHandle)} for the types they may take and return.
+ */
+public final class Natives {
+
+    private static final List<NativeFunction> STANDARD_LIBRARY = new ArrayList<>();
+
+    static {
+        final MethodHandles.Lookup lookup = MethodHandles.lookup();
+        final MethodType unary = methodType(double.class, double.class);
+        final MethodType binary = methodType(double.class, double.class, double.class);
+
+        try {
+            STANDARD_LIBRARY.add(NativeFunction.bind("clock",
+                    lookup.findStatic(Natives.class, "clock", methodType(double.class))));
+            STANDARD_LIBRARY.add(NativeFunction.bind("len",
+                    lookup.findVirtual(LoxList.class, "size", methodType(int.class))));
+            STANDARD_LIBRARY.add(NativeFunction.bind("append",
+                    lookup.findVirtual(LoxList.class, "append", methodType(void.class, Object.class))));
+            STANDARD_LIBRARY.add(NativeFunction.bind("keys",
+                    lookup.findVirtual(LoxMap.class, "keys", methodType(LoxList.class))));
+            STANDARD_LIBRARY.add(NativeFunction.bind("has",
+                    lookup.findVirtual(LoxMap.class, "has", methodType(boolean.class, Object.class))));
+            STANDARD_LIBRARY.add(NativeFunction.bind("remove",
+                    lookup.findVirtual(LoxMap.class, "remove", methodType(Object.class, Object.class))));
+            for (String name : new String[]{"abs", "ceil", "floor", "sqrt", "exp", "log", "sin", "cos", "tan"}) {
+                STANDARD_LIBRARY.add(NativeFunction.bind(name, lookup.findStatic(Math.class, name, unary)));
+            }
+            for (String name : new String[]{"min", "max", "pow", "atan2"}) {
+                STANDARD_LIBRARY.add(NativeFunction.bind(name, lookup.findStatic(Math.class, name, binary)));
+            }
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final Map<String, NativeFunction> functions = new LinkedHashMap<>();
+
+    /**
+     * @return the standard library: clock(), giving seconds since the epoch, len(list) and append(list, value),
+     * keys(map) (a list of its keys, in the order they were put, for iterating over it), has(map, key) and
+     * remove(map, key), and the functions of java.lang.Math that take and return doubles (abs, ceil, floor, sqrt, exp,
+     * log, sin, cos, tan, min, max, pow, atan2)
+     */
+    public static Natives standardLibrary() {
+        final Natives natives = new Natives();
+        for (NativeFunction function : STANDARD_LIBRARY) {
+            natives.functions.put(function.name(), function);
+        }
+        return natives;
+    }
+
+    /**
+     * Binds a method handle as a native function, checking its types now rather than on every call
+     * @param name name the function is called by in Lox
+     * @param handle method handle to call
+     * @return this, to bind more
+     * @throws IllegalArgumentException if handle takes or returns a type Lox has no equivalent of
+     */
+    public Natives bind(String name, MethodHandle handle) {
+        functions.put(name, NativeFunction.bind(name, handle));
+        return this;
+    }
+
+    /**
+     * Defines every function bound so far as a global of
+     * @param environment a global environment
+     * @return environment, with functions defined
+     */
+    public Environment defineIn(Environment environment) {
+        functions.forEach(environment::define);
+        return environment;
+    }
+
+    private static double clock() {
+        return System.currentTimeMillis() / 1000.0;
+    }
+}
@@ -10,17 +10,84 @@ import static com.caij.lox.TokenType.*;
  */
 public class Parser {
 
-    private static class ParseError extends RuntimeException {}
+    /**
+     * Only ever used to unwind to the enclosing declaration, so it is shared and carries no stack trace
+     */
+    private static class ParseError extends RuntimeException {
+        ParseError() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static final ParseError PARSE_ERROR = new ParseError();
+
+    /**
+     * How tightly each binary operator binds, lowest first; tokens that are not binary operators bind not at all
+     */
+    private static final int NONE = 0;
+    private static final int ASSIGNMENT = 1;
+    private static final int OR_PRECEDENCE = 2;
+    private static final int AND_PRECEDENCE = 3;
+    private static final int EQUALITY = 4;
+    private static final int COMPARISON = 5;
+    private static final int TERM = 6;
+    private static final int FACTOR = 7;
+
+    private static final int[] PRECEDENCES = new int[TokenType.values().length];
+
+    static {
+        PRECEDENCES[EQUAL.ordinal()] = ASSIGNMENT;
+        PRECEDENCES[OR.ordinal()] = OR_PRECEDENCE;
+        PRECEDENCES[AND.ordinal()] = AND_PRECEDENCE;
+        PRECEDENCES[BANG_EQUAL.ordinal()] = EQUALITY;
+        PRECEDENCES[EQUAL_EQUAL.ordinal()] = EQUALITY;
+        PRECEDENCES[GREATER.ordinal()] = COMPARISON;
+        PRECEDENCES[GREATER_EQUAL.ordinal()] = COMPARISON;
+        PRECEDENCES[LESS.ordinal()] = COMPARISON;
+        PRECEDENCES[LESS_EQUAL.ordinal()] = COMPARISON;
+        PRECEDENCES[MINUS.ordinal()] = TERM;
+        PRECEDENCES[PLUS.ordinal()] = TERM;
+        PRECEDENCES[SLASH.ordinal()] = FACTOR;
+        PRECEDENCES[STAR.ordinal()] = FACTOR;
+    }
 
     private final List<Token> tokens;
+    private final int[] columns;
+    private final ErrorReporter reporter;
+    private final AstInterner interner;
     private int current = 0;
+    private int loopDepth = 0;
 
     /**
      * Construct a Parser
      * @param tokens raw tokens to parse
      */
     public Parser(List<Token> tokens) {
-        this.tokens = tokens;
+        this(tokens, null, Lox::report);
+    }
+
+    /**
+     * Construct a Parser
+     * @param tokens raw tokens to parse
+     * @param columns column each token starts at (see {@link Scanner#columns()}), or null if unknown
+     * @param reporter where to report errors found in tokens
+     */
+    Parser(List<Token> tokens, int[] columns, ErrorReporter reporter) {
+        this(tokens, columns, reporter, null);
+    }
+
+    /**
+     * Construct a Parser whose expressions are shared with those of other parsers using the same interner
+     * @param tokens raw tokens to parse
+     * @param columns column each token starts at (see {@link Scanner#columns()}), or null if unknown
+     * @param reporter where to report errors found in tokens
+     * @param interner interner to share tokens and expressions through, or null to share nothing
+     */
+    Parser(List<Token> tokens, int[] columns, ErrorReporter reporter, AstInterner interner) {
+        this.tokens = interner == null ? tokens : interner.intern(tokens);
+        this.columns = columns;
+        this.reporter = reporter;
+        this.interner = interner;
     }
 
     /**
@@ -36,13 +103,28 @@ public class Parser {
         return statements;
     }
 
+    /**
+     * Parse only the next top-level declaration, leaving the parser at the start of the one after it
+     * @return declaration created from tokens, or null if it could not be parsed
+     */
+    Stmt parseDeclaration() {
+        return declaration();
+    }
+
+    /**
+     * @return index of the next token to be parsed
+     */
+    int position() {
+        return current;
+    }
+
     private Expr expression() {
-        return assignment();
+        return expression(ASSIGNMENT);
     }
 
     private Stmt declaration() {
         try {
-            if (match(VAR)) return varDeclaration();
+            if (match(VAR)) return at(previous().line, varDeclaration());
 
             return statement();
         } catch (ParseError error) {
@@ -64,11 +146,22 @@ public class Parser {
     }
 
     private Stmt statement() {
-        if (match(IF)) return ifStatement();
-        if (match(PRINT)) return printStatement();
-        if (match(LEFT_BRACE)) return new Stmt.Block(block());
+        final int line = peek().line;
+        if (match(IF)) return at(line, ifStatement());
+        if (match(PRINT)) return at(line, printStatement());
+        if (match(WHILE)) return at(line, whileStatement());
+        if (match(BREAK)) return at(line, breakStatement());
+        if (match(LEFT_BRACE)) return at(line, new Stmt.Block(block()));
+
+        return at(line, expressionStatement());
+    }
 
-        return expressionStatement();
+    /**
+     * @return statement, having recorded the line it starts on
+     */
+    private static Stmt at(int line, Stmt statement) {
+        statement.line = line;
+        return statement;
     }
 
     private Stmt ifStatement() {
@@ -86,6 +179,30 @@ public class Parser {
         return new Stmt.If(condition, thenBranch, elseBranch);
     }
 
+    private Stmt whileStatement() {
+        consume(LEFT_PAREN, "Expect '(' after 'while'.");
+        final Expr condition = expression();
+        consume(RIGHT_PAREN, "Expect ')' after condition.");
+
+        try {
+            loopDepth++;
+            final Stmt body = statement();
+            return new Stmt.While(condition, body);
+        } finally {
+            loopDepth--;
+        }
+    }
+
+    private Stmt breakStatement() {
+        final int keyword = current - 1;
+        if (loopDepth == 0) {
+            error(keyword, "Must be inside a loop to use 'break'.");
+        }
+
+        consume(SEMICOLON, "Expect ';' after 'break'.");
+        return new Stmt.Break(tokens.get(keyword));
+    }
+
     private Stmt expressionStatement() {
         final Expr expr = expression();
         consume(SEMICOLON, "Expect ';' after expression.");
@@ -103,154 +220,166 @@ public class Parser {
         return statements;
     }
 
-    private Expr assignment() {
-        final Expr expr = or();
-
-        if (match(EQUAL)) {
-            final Token equals = previous();
-            final Expr value = assignment();
-
-            if (expr instanceof Expr.Variable) {
-                final Token name = ((Expr.Variable) expr).name;
-                return new Expr.Assign(name, value);
-            }
-
-            error(equals, "Invalid assignment target.");
-        }
-        return expr;
-    }
-
-    private Expr or() {
-        Expr expr = and();
-
-        while (match(OR)) {
-            final Token operator = previous();
-            final Expr right = and();
-            new Expr.Logical(expr, operator, right);
-        }
-
-        return expr;
-    }
-
-    private Expr and() {
-        Expr expr = equality();
-
-        while (match(AND)) {
-            final Token operator = previous();
-            final Expr right = equality();
-            expr = new Expr.Logical(expr, operator, right);
-        }
-
-        return expr;
-    }
-
     private Stmt printStatement() {
         final Expr value = expression();
         consume(SEMICOLON, "Expect ';' after value.");
         return new Stmt.Print(value);
     }
 
-    private Expr equality() {
-        Expr expr = comparison();
+    /**
+     * Parses an expression by precedence climbing: a prefix operand, then as many infix operators binding at least as
+     * tightly as minimum, each taking as its right operand everything binding more tightly than itself
+     */
+    private Expr expression(int minimum) {
+        Expr expr = prefix();
 
-        while (match(BANG_EQUAL, EQUAL_EQUAL)) {
-            Token operator = previous();
-            Expr right = comparison();
-            // note how expression will have a different value each iteration, and it is building the tree (or chain)
-            // of binary expressions
-            // take the following: true != false != true
-            // resulting expression will be:
-            // (a) left = binary(true != false)
-            // (b) operator = !=
-            // (c) right = true
-            // in effect, it is a binary expression, containing a binary expression (a), a token (b), and a literal (c)
+        for (;;) {
+            final TokenType type = peek().type;
+            final int precedence = PRECEDENCES[type.ordinal()];
+            if (precedence == NONE || precedence < minimum) return expr;
+            advance();
+
+            if (type == EQUAL) {
+                final int equals = current - 1;
+                // right-associative, so a = b = c assigns c to b first
+                final Expr value = expression(ASSIGNMENT);
+
+                if (expr instanceof Expr.Variable) {
+                    final Token name = ((Expr.Variable) expr).name;
+                    return new Expr.Assign(name, value);
+                }
+                if (expr instanceof Expr.Index) {
+                    final Expr.Index index = (Expr.Index) expr;
+                    return new Expr.SetIndex(index.object, index.bracket, index.index, value);
+                }
+
+                error(equals, "Invalid assignment target.");
+                return expr;
+            }
 
-            expr = new Expr.Binary(expr, operator, right);
+            // left-associative, so each pass of the loop builds the tree (or chain) a level up: true != false != true
+            // is binary(binary(true != false) != true)
+            final Token operator = previous();
+            final Expr right = expression(precedence + 1);
+            expr = type == AND || type == OR
+                    ? share(new Expr.Logical(expr, operator, right))
+                    : share(new Expr.Binary(expr, operator, right));
         }
-        return expr;
     }
 
-    private Expr comparison() {
-        Expr expr = term();
-
-        while (match(GREATER, GREATER_EQUAL, LESS, LESS_EQUAL)) {
-            Token operator = previous();
-            Expr right = term();
-            expr = new Expr.Binary(expr, operator, right);
+    private Expr prefix() {
+        final Token token = peek();
+        if (token.type == BANG || token.type == MINUS) {
+            advance();
+            // only another prefix (or a call) binds more tightly than a unary operator
+            return share(new Expr.Unary(token, prefix()));
         }
 
-        return expr;
+        return call(primary());
     }
 
-    private Expr term() {
-        Expr expr = factor();
+    private Expr call(Expr callee) {
+        Expr expr = callee;
+        for (;;) {
+            if (match(LEFT_PAREN)) {
+                expr = finishCall(expr);
+            } else if (match(LEFT_BRACKET)) {
+                final Expr index = expression();
+                final Token bracket = consume(RIGHT_BRACKET, "Expect ']' after index.");
+                // what a list holds can change between reads, so these are never shared either
+                expr = new Expr.Index(expr, bracket, index);
+            } else {
+                return expr;
+            }
+        }
+    }
 
-        while (match(MINUS, PLUS)) {
-            Token operator = previous();
-            Expr right = factor();
-            expr = new Expr.Binary(expr, operator, right);
+    private Expr finishCall(Expr callee) {
+        final List<Expr> arguments = new ArrayList<>();
+        if (!check(RIGHT_PAREN)) {
+            do {
+                if (arguments.size() == 255) {
+                    error(current, "Can't have more than 255 arguments.");
+                }
+                arguments.add(expression());
+            } while (match(COMMA));
         }
 
-        return expr;
+        final Token paren = consume(RIGHT_PAREN, "Expect ')' after arguments.");
+        // calls can do anything, so are never shared
+        return new Expr.Call(callee, paren, arguments);
     }
 
-    private Expr factor() {
-        Expr expr = unary();
-
-        // divide or multiply
-        while (match(SLASH, STAR)) {
-            Token operator = previous();
-            Expr right = unary();
-            expr = new Expr.Binary(expr, operator, right);
+    private Expr listLiteral(Token bracket) {
+        final List<Expr> elements = new ArrayList<>();
+        if (!check(RIGHT_BRACKET)) {
+            do {
+                elements.add(expression());
+            } while (match(COMMA));
         }
 
-        return expr;
+        consume(RIGHT_BRACKET, "Expect ']' after list elements.");
+        // each evaluation makes a new list, so are never shared
+        return new Expr.ListLiteral(bracket, elements);
     }
 
-    private Expr unary() {
-        if (match(BANG, MINUS)) {
-            Token operator = previous();
-            Expr right = unary();
-            return new Expr.Unary(operator, right);
+    private Expr mapLiteral(Token brace) {
+        final List<Expr> keys = new ArrayList<>();
+        final List<Expr> values = new ArrayList<>();
+        if (!check(RIGHT_BRACE)) {
+            do {
+                keys.add(expression());
+                consume(COLON, "Expect ':' after map key.");
+                values.add(expression());
+            } while (match(COMMA));
         }
 
-        return primary();
+        consume(RIGHT_BRACE, "Expect '}' after map entries.");
+        // each evaluation makes a new map, so are never shared
+        return new Expr.MapLiteral(brace, keys, values);
     }
 
     private Expr primary() {
-        if (match(FALSE)) return new Expr.Literal(false);
-        if (match(TRUE)) return new Expr.Literal(true);
-        if (match(NIL)) return new Expr.Literal(null);
-
-        // is a literal
-        if (match(NUMBER, STRING)) {
-            return new Expr.Literal(previous().literal);
-        }
+        // EOF is stepped over too, but only to be stepped back from to report it
+        final Token token = tokens.get(current++);
+
+        switch (token.type) {
+            case FALSE: return share(new Expr.BooleanLiteral(false));
+            case TRUE: return share(new Expr.BooleanLiteral(true));
+            case NIL: return share(new Expr.NilLiteral());
+
+            // is a literal, kept unboxed from here on
+            case NUMBER: return share(new Expr.NumberLiteral((double) token.literal));
+            case STRING: return share(new Expr.StringLiteral((String) token.literal));
+
+            case IDENTIFIER: return share(new Expr.Variable(token));
+
+            // start of an expression
+            case LEFT_PAREN: {
+                final Expr expression = expression();
+                consume(RIGHT_PAREN, "Expect ')' after expression.");
+                // return expression between parentheses
+                return share(new Expr.Grouping(expression));
+            }
 
-        if (match(IDENTIFIER)) {
-            return new Expr.Variable(previous());
-        }
+            case LEFT_BRACKET: return listLiteral(token);
+            // only reached in expressions, a brace starting a statement being a block
+            case LEFT_BRACE: return mapLiteral(token);
 
-        // start of an expression
-        if (match(LEFT_PAREN)) {
-            final Expr expression = expression();
-            consume(RIGHT_PAREN, "Expect ')' after expression.");
-            // return expression between parentheses
-            return new Expr.Grouping(expression);
+            default:
+                throw error(--current, "Expect expression.");
         }
+    }
 
-        throw error(peek(), "Expect expression.");
+    private Expr share(Expr expr) {
+        return interner == null ? expr : interner.intern(expr);
     }
 
-    private boolean match(TokenType... types) {
-        for (TokenType type : types) {
-            if (check(type)) {
-                advance();
-                return true;
-            }
-        }
+    private boolean match(TokenType type) {
+        if (!check(type)) return false;
 
-        return false;
+        advance();
+        return true;
     }
 
     private Token previous() {
@@ -271,19 +400,21 @@ public class Parser {
         return previous();
     }
 
-    private boolean isAtEnd() {
+    boolean isAtEnd() {
         return peek().type == EOF;
     }
 
     private Token consume(TokenType toConsume, String errorMessage) {
         if (check(toConsume)) return advance();
 
-        throw error(peek(), errorMessage);
+        throw error(current, errorMessage);
     }
 
-    private ParseError error(Token token, String message) {
-        Lox.error(token, message);
-        return new ParseError();
+    private ParseError error(int index, String message) {
+        final Token token = tokens.get(index);
+        final int column = columns == null ? 0 : columns[index];
+        reporter.report(new Diagnostic(token.line, column, token.type == EOF ? "" : token.lexeme, message));
+        return PARSE_ERROR;
     }
 
     private void synchronize() {
@@ -301,6 +432,7 @@ public class Parser {
                 case WHILE:
                 case PRINT:
                 case RETURN:
+                case BREAK:
                     return;
             }
 
@@ -0,0 +1,412 @@
+package com.caij.lox;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Responsibility: reads records, one per line, from a channel through a buffer of fixed size, and turns their fields
+ * into Lox values: numbers, strings, booleans and nil, and (from JSON) lists and maps.
+ */
+final class Records {
+
+    /**
+     * Receives the fields of a record
+     */
+    interface Fields {
+        /**
+         * @return true if field (whose name this is) is wanted, false to skip converting its value
+         */
+        boolean wants(String name);
+
+        void field(String name, Object value);
+    }
+
+    /**
+     * Stands in for a line too long for the buffer, which is skipped instead of read (compared by identity)
+     */
+    static final String TOO_LONG = new String("<line too long>");
+
+    private final ReadableByteChannel channel;
+    private final ByteBuffer buffer;
+    private boolean ended = false;
+    private int line = 0;
+
+    /**
+     * Construct Records using
+     * @param channel where records are read from
+     * @param bufferSize size of the buffer records are read through, past which a record is skipped
+     */
+    Records(ReadableByteChannel channel, int bufferSize) {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocate(bufferSize);
+        this.buffer.flip();
+    }
+
+    /**
+     * @return next line, without its line terminator, {@link #TOO_LONG} if it does not fit in the buffer, or null if
+     * there are no more
+     * @throws IOException if the channel could not be read
+     */
+    String nextLine() throws IOException {
+        for (;;) {
+            final byte[] bytes = buffer.array();
+            final int start = buffer.position();
+            final int limit = buffer.limit();
+            for (int i = start; i < limit; i++) {
+                if (bytes[i] == '\n') {
+                    buffer.position(i + 1);
+                    return line(bytes, start, i);
+                }
+            }
+
+            if (ended) {
+                buffer.position(limit);
+                return start == limit ? null : line(bytes, start, limit);
+            }
+            if (start == 0 && limit == buffer.capacity()) {
+                skipLine();
+                return TOO_LONG;
+            }
+
+            buffer.compact();
+            ended = channel.read(buffer) < 0;
+            buffer.flip();
+        }
+    }
+
+    /**
+     * Reads on past the rest of a line that filled the buffer, keeping none of it
+     */
+    private void skipLine() throws IOException {
+        for (;;) {
+            buffer.clear();
+            ended = channel.read(buffer) < 0;
+            buffer.flip();
+
+            final byte[] bytes = buffer.array();
+            for (int i = 0; i < buffer.limit(); i++) {
+                if (bytes[i] == '\n') {
+                    buffer.position(i + 1);
+                    line++;
+                    return;
+                }
+            }
+            if (ended) {
+                buffer.position(buffer.limit());
+                line++;
+                return;
+            }
+        }
+    }
+
+    private String line(byte[] bytes, int start, int end) {
+        line++;
+        if (end > start && bytes[end - 1] == '\r') end--;
+        return new String(bytes, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return number of the line last read, starting at 1
+     */
+    int line() {
+        return line;
+    }
+
+    /**
+     * Splits a line of comma separated values, any of which may be quoted (doubling any quote inside)
+     * @throws IllegalArgumentException if a quoted value is not closed
+     */
+    static List<String> splitCsv(String line) {
+        final List<String> values = new ArrayList<>();
+        int i = 0;
+        for (;;) {
+            if (i < line.length() && line.charAt(i) == '"') {
+                final StringBuilder value = new StringBuilder();
+                i++;
+                for (;;) {
+                    if (i >= line.length()) throw new IllegalArgumentException("Unterminated quoted value.");
+                    final char c = line.charAt(i++);
+                    if (c != '"') {
+                        value.append(c);
+                    } else if (i < line.length() && line.charAt(i) == '"') {
+                        value.append('"');
+                        i++;
+                    } else {
+                        break;
+                    }
+                }
+                values.add(value.toString());
+            } else {
+                final int comma = line.indexOf(',', i);
+                values.add(line.substring(i, comma < 0 ? line.length() : comma));
+                i = comma < 0 ? line.length() : comma;
+            }
+
+            if (i >= line.length()) return values;
+            if (line.charAt(i) != ',') throw new IllegalArgumentException("Expect ',' after quoted value.");
+            i++;
+        }
+    }
+
+    /**
+     * @return value of a CSV field: nil if empty, a number if written as a Lox number is (optionally negative), else
+     * the text itself
+     */
+    static Object csvValue(String text) {
+        if (text.isEmpty()) return null;
+        return isNumber(text) ? (Object) Double.parseDouble(text) : text;
+    }
+
+    private static boolean isNumber(String text) {
+        int i = text.charAt(0) == '-' ? 1 : 0;
+        final int digits = i;
+        while (i < text.length() && isDigit(text.charAt(i))) i++;
+        if (i == digits) return false;
+
+        if (i < text.length() && text.charAt(i) == '.') {
+            final int fraction = ++i;
+            while (i < text.length() && isDigit(text.charAt(i))) i++;
+            if (i == fraction) return false;
+        }
+        return i == text.length();
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * Reads a line holding a JSON object, passing each of its fields on
+     * @throws IllegalArgumentException if line is not a JSON object
+     */
+    static void readJson(String line, Fields fields) {
+        final Json json = new Json(line);
+        json.skipWhitespace();
+        json.expect('{');
+        json.skipWhitespace();
+        if (!json.next('}')) {
+            do {
+                json.skipWhitespace();
+                final String name = json.string();
+                json.skipWhitespace();
+                json.expect(':');
+                json.skipWhitespace();
+                if (fields.wants(name)) {
+                    fields.field(name, json.value());
+                } else {
+                    json.skipValue();
+                }
+                json.skipWhitespace();
+            } while (json.next(','));
+            json.expect('}');
+        }
+
+        json.skipWhitespace();
+        if (!json.atEnd()) throw json.error("Expect end of line after object.");
+    }
+
+    /**
+     * Reads one line of JSON into Lox values
+     */
+    private static final class Json {
+        private final String text;
+        private int i = 0;
+
+        Json(String text) {
+            this.text = text;
+        }
+
+        Object value() {
+            if (atEnd()) throw error("Expect value.");
+
+            final char c = text.charAt(i);
+            switch (c) {
+                case '"': return string();
+                case '{': return map();
+                case '[': return list();
+                case 't': return word("true", true);
+                case 'f': return word("false", false);
+                case 'n': return word("null", null);
+                default:
+                    if (c == '-' || isDigit(c)) return number();
+                    throw error("Unexpected '" + c + "'.");
+            }
+        }
+
+        /**
+         * Moves past a value as {@link #value()} would, without making anything of it: only the quotes, brackets and
+         * words delimiting it are checked, not the digits of its numbers or its escapes
+         */
+        void skipValue() {
+            if (atEnd()) throw error("Expect value.");
+
+            final char c = text.charAt(i);
+            switch (c) {
+                case '"': skipString(); break;
+                case '{': skipMap(); break;
+                case '[': skipList(); break;
+                case 't': word("true", true); break;
+                case 'f': word("false", false); break;
+                case 'n': word("null", null); break;
+                default:
+                    if (c == '-' || isDigit(c)) skipNumber();
+                    else throw error("Unexpected '" + c + "'.");
+            }
+        }
+
+        private void skipMap() {
+            expect('{');
+            skipWhitespace();
+            if (next('}')) return;
+
+            do {
+                skipWhitespace();
+                skipString();
+                skipWhitespace();
+                expect(':');
+                skipWhitespace();
+                skipValue();
+                skipWhitespace();
+            } while (next(','));
+            expect('}');
+        }
+
+        private void skipList() {
+            expect('[');
+            skipWhitespace();
+            if (next(']')) return;
+
+            do {
+                skipWhitespace();
+                skipValue();
+                skipWhitespace();
+            } while (next(','));
+            expect(']');
+        }
+
+        private void skipString() {
+            expect('"');
+            for (;;) {
+                if (atEnd()) throw error("Unterminated string.");
+                final char c = text.charAt(i++);
+                if (c == '"') return;
+                // whatever is escaped, the character after a backslash cannot close the string
+                if (c == '\\' && i++ >= text.length()) throw error("Unterminated string.");
+            }
+        }
+
+        private void skipNumber() {
+            while (i < text.length() && "+-.eE0123456789".indexOf(text.charAt(i)) >= 0) i++;
+        }
+
+        private LoxMap map() {
+            expect('{');
+            final LoxMap map = new LoxMap();
+            skipWhitespace();
+            if (next('}')) return map;
+
+            do {
+                skipWhitespace();
+                final String key = string();
+                skipWhitespace();
+                expect(':');
+                skipWhitespace();
+                map.put(key, value());
+                skipWhitespace();
+            } while (next(','));
+            expect('}');
+            return map;
+        }
+
+        private LoxList list() {
+            expect('[');
+            final LoxList list = new LoxList();
+            skipWhitespace();
+            if (next(']')) return list;
+
+            do {
+                skipWhitespace();
+                list.append(value());
+                skipWhitespace();
+            } while (next(','));
+            expect(']');
+            return list;
+        }
+
+        private Object word(String word, Object value) {
+            if (!text.startsWith(word, i)) throw error("Unexpected '" + text.charAt(i) + "'.");
+            i += word.length();
+            return value;
+        }
+
+        private double number() {
+            final int start = i;
+            skipNumber();
+            try {
+                return Double.parseDouble(text.substring(start, i));
+            } catch (NumberFormatException e) {
+                throw error("Malformed number.");
+            }
+        }
+
+        String string() {
+            expect('"');
+            final StringBuilder value = new StringBuilder();
+            for (;;) {
+                if (atEnd()) throw error("Unterminated string.");
+                final char c = text.charAt(i++);
+                if (c == '"') return value.toString();
+                if (c != '\\') {
+                    value.append(c);
+                    continue;
+                }
+
+                if (atEnd()) throw error("Unterminated string.");
+                final char escaped = text.charAt(i++);
+                switch (escaped) {
+                    case 'b': value.append('\b'); break;
+                    case 'f': value.append('\f'); break;
+                    case 'n': value.append('\n'); break;
+                    case 'r': value.append('\r'); break;
+                    case 't': value.append('\t'); break;
+                    case 'u':
+                        if (i + 4 > text.length()) throw error("Malformed escape.");
+                        try {
+                            value.append((char) Integer.parseInt(text.substring(i, i + 4), 16));
+                        } catch (NumberFormatException e) {
+                            throw error("Malformed escape.");
+                        }
+                        i += 4;
+                        break;
+                    default: value.append(escaped);
+                }
+            }
+        }
+
+        void skipWhitespace() {
+            while (i < text.length() && Character.isWhitespace(text.charAt(i))) i++;
+        }
+
+        boolean next(char expected) {
+            if (atEnd() || text.charAt(i) != expected) return false;
+            i++;
+            return true;
+        }
+
+        void expect(char expected) {
+            if (!next(expected)) throw error("Expect '" + expected + "'.");
+        }
+
+        boolean atEnd() {
+            return i >= text.length();
+        }
+
+        IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " (at column " + (i + 1) + ")");
+        }
+    }
+}
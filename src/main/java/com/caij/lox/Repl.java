@@ -0,0 +1,135 @@
+package com.caij.lox;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Responsibility: runs an interactive session, one entry at a time, against a single interpreter kept warm between
+ * entries, so variables defined by one are there for the next without anything being loaded again.
+ *
+ * Lines are buffered until they make a complete entry: one that does not end inside a string, comment or block, or
+ * short of the end of a statement. A blank line submits whatever has been buffered, reporting any errors in it.
+ */
+public final class Repl {
+
+    private static final String PROMPT = ">>> ";
+    private static final String CONTINUATION = "... ";
+
+    private final BufferedReader in;
+    private final PrintStream out;
+    private final PrintStream err;
+    private final boolean timings;
+    private final Interpreter interpreter;
+    private final StringBuilder buffer = new StringBuilder();
+
+    /**
+     * Construct a Repl, reporting how long each entry took to run, using
+     * @param in where entries are read from
+     * @param out where prompts and printed values go
+     * @param err where errors and timings go
+     */
+    public Repl(InputStream in, PrintStream out, PrintStream err) {
+        this(new InputStreamReader(in), out, err, true);
+    }
+
+    /**
+     * Construct a Repl using
+     * @param in where entries are read from
+     * @param out where prompts and printed values go
+     * @param err where errors (and timings) go
+     * @param timings true to report how long each entry took to run
+     */
+    Repl(Reader in, PrintStream out, PrintStream err, boolean timings) {
+        this.in = in instanceof BufferedReader ? (BufferedReader) in : new BufferedReader(in);
+        this.out = out;
+        this.err = err;
+        this.timings = timings;
+        this.interpreter = new Interpreter(Limits.none(), out);
+    }
+
+    /**
+     * Reads and runs entries until input ends, running whatever is left buffered at that point
+     */
+    public void run() throws IOException {
+        for (;;) {
+            out.print(buffer.length() == 0 ? PROMPT : CONTINUATION);
+            out.flush();
+
+            final String line = in.readLine();
+            if (line == null) {
+                if (!isBlank(buffer)) submit(true);
+                out.println();
+                return;
+            }
+
+            final boolean blank = isBlank(line);
+            if (blank && isBlank(buffer)) {
+                buffer.setLength(0);
+                continue;
+            }
+
+            if (!blank) buffer.append(line).append('\n');
+            submit(blank);
+        }
+    }
+
+    /**
+     * Runs what has been buffered, unless it is incomplete and
+     * @param force is false, in which case it stays buffered waiting for more
+     */
+    private void submit(boolean force) {
+        final String source = buffer.toString();
+        final Diagnostics diagnostics = new Diagnostics();
+        final Scanner scanner = new Scanner(source, diagnostics);
+        final List<Token> tokens = scanner.scanTokens();
+        final List<Stmt> statements = new Parser(tokens, scanner.columns(), diagnostics).parse();
+
+        if (!force && (scanner.endedUnterminated() || endsEarly(diagnostics))) return;
+        buffer.setLength(0);
+
+        if (diagnostics.hasErrors()) {
+            for (Diagnostic diagnostic : diagnostics.all()) {
+                err.println(diagnostic);
+            }
+            return;
+        }
+
+        LocalVariables.resolve(statements);
+        Types.infer(statements);
+        final long start = System.nanoTime();
+        try {
+            interpreter.run(statements);
+        } catch (RuntimeError error) {
+            err.print(Lox.describe(error));
+        }
+
+        if (timings) {
+            err.println(String.format(Locale.ROOT, "[%.3f ms]", (System.nanoTime() - start) / 1e6));
+        }
+    }
+
+    /**
+     * @return true if the only errors are at the end of input, i.e. more input could still complete it
+     */
+    private static boolean endsEarly(Diagnostics diagnostics) {
+        if (!diagnostics.hasErrors()) return false;
+
+        for (Diagnostic diagnostic : diagnostics.all()) {
+            if (!"".equals(diagnostic.getLexeme())) return false;
+        }
+        return true;
+    }
+
+    private static boolean isBlank(CharSequence text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (!Character.isWhitespace(text.charAt(i))) return false;
+        }
+        return true;
+    }
+}
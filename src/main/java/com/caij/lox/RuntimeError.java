@@ -1,11 +1,39 @@
 package com.caij.lox;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Represents an error raised while interpreting a script. Java's stack trace would only show the interpreter's own
+ * recursion, so it is never captured; the trace kept instead is of the script, one frame per call being made.
+ */
 public class RuntimeError extends RuntimeException {
 
+    /**
+     * Token error was raised at, or null if it is not tied to a place in the script (such as a limit being exceeded)
+     */
     final Token token;
+    private final List<String> frames = new ArrayList<>(2);
 
     public RuntimeError(Token token, String message) {
-        super(message);
+        super(message, null, false, false);
         this.token = token;
     }
+
+    /**
+     * Adds a frame to the trace, as error unwinds out of it
+     * @param name name of function (or script) the error passed through
+     * @param line line number that was being executed within it
+     */
+    void addFrame(String name, int line) {
+        frames.add("at " + name + " (line " + line + ")");
+    }
+
+    /**
+     * @return frames of script the error unwound through, innermost first
+     */
+    public List<String> getLoxStackTrace() {
+        return Collections.unmodifiableList(frames);
+    }
 }
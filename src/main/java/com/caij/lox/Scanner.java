@@ -1,51 +1,117 @@
 package com.caij.lox;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
+import java.util.Locale;
 
 import static com.caij.lox.TokenType.*;
 
 /**
  * Responsibility: recognise syntax of language from input
+ *
+ * Source is scanned as a byte[] of its ASCII characters (every other character becomes DEL, which the language has no
+ * use for either), so runs of whitespace, comments and strings can be skipped eight bytes at a time with SWAR tricks
+ * on long words. Characters are classified by table lookup, and keywords are recognised from characters before any
+ * substring is made, so only identifiers, numbers and strings ever allocate a lexeme.
  */
 public class Scanner {
 
-    private final String source;
-    private final List<Token> tokens = new ArrayList<>();
-    private static final Map<String, TokenType> keywords;
+    private static final byte ALPHA = 1;
+    private static final byte DIGIT = 2;
+
+    private static final byte NOT_ASCII = 0x7F;
+
+    private static final VarHandle WORDS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final long ONES = 0x0101010101010101L;
+    private static final long LOWS = 0x7F7F7F7F7F7F7F7FL;
+    private static final long HIGHS = 0x8080808080808080L;
+
+    /**
+     * Class of each of the first 256 characters; every other character is neither alphabetic nor a digit
+     */
+    private static final byte[] CHARACTER_CLASSES = new byte[256];
+
+    /**
+     * Lexemes of tokens whose text never varies, shared instead of cut from source each time
+     */
+    private static final String[] FIXED_LEXEMES = new String[TokenType.values().length];
 
     static {
-        keywords = new HashMap<>();
-        keywords.put("and",    AND);
-        keywords.put("class",  CLASS);
-        keywords.put("else",   ELSE);
-        keywords.put("false",  FALSE);
-        keywords.put("for",    FOR);
-        keywords.put("fun",    FUN);
-        keywords.put("if",     IF);
-        keywords.put("nil",    NIL);
-        keywords.put("or",     OR);
-        keywords.put("print",  PRINT);
-        keywords.put("return", RETURN);
-        keywords.put("super",  SUPER);
-        keywords.put("this",   THIS);
-        keywords.put("true",   TRUE);
-        keywords.put("var",    VAR);
-        keywords.put("while",  WHILE);
+        for (char c = 'a'; c <= 'z'; c++) CHARACTER_CLASSES[c] = ALPHA;
+        for (char c = 'A'; c <= 'Z'; c++) CHARACTER_CLASSES[c] = ALPHA;
+        CHARACTER_CLASSES['_'] = ALPHA;
+        for (char c = '0'; c <= '9'; c++) CHARACTER_CLASSES[c] = DIGIT;
+
+        final String[] fixed = {
+                "(", ")", "{", "}", "[", "]", ":", ",", ".", "-", "+", ";", "/", "*",
+                "!", "!=", "=", "==", ">", ">=", "<", "<=",
+        };
+        final TokenType[] fixedTypes = {
+                LEFT_PAREN, RIGHT_PAREN, LEFT_BRACE, RIGHT_BRACE, LEFT_BRACKET, RIGHT_BRACKET,
+                COLON, COMMA, DOT, MINUS, PLUS, SEMICOLON, SLASH, STAR,
+                BANG, BANG_EQUAL, EQUAL, EQUAL_EQUAL, GREATER, GREATER_EQUAL, LESS, LESS_EQUAL,
+        };
+        for (int i = 0; i < fixed.length; i++) FIXED_LEXEMES[fixedTypes[i].ordinal()] = fixed[i];
+        for (TokenType keyword : new TokenType[]{AND, BREAK, CLASS, ELSE, FALSE, FOR, FUN, IF, NIL, OR, PRINT,
+                RETURN, SUPER, THIS, TRUE, VAR, WHILE}) {
+            FIXED_LEXEMES[keyword.ordinal()] = keyword.name().toLowerCase(Locale.ROOT);
+        }
     }
 
+    private final String source;
+    private final byte[] bytes;
+    private final int length;
+    private final List<Token> tokens = new ArrayList<>();
+    private final ErrorReporter reporter;
+    private int[] offsets = new int[16];
+    private int[] columns = new int[16];
+
     private int start = 0;
     private int current = 0;
-    private int line = 1;
+    private int line;
+    private int lineStart;
+    private boolean unterminated = false;
+    private boolean internStrings = false;
 
     /**
      * Construct a Scanner using
      * @param source raw source code
      */
     public Scanner(String source) {
+        this(source, Lox::report);
+    }
+
+    /**
+     * Construct a Scanner using
+     * @param source raw source code
+     * @param reporter where to report errors found in source
+     */
+    Scanner(String source, ErrorReporter reporter) {
+        this(source, 1, 1, reporter);
+    }
+
+    /**
+     * Construct a Scanner for a fragment of a larger source, using
+     * @param source raw source code of the fragment
+     * @param line line number the fragment starts on
+     * @param column column the fragment starts at
+     * @param reporter where to report errors found in source
+     */
+    Scanner(String source, int line, int column, ErrorReporter reporter) {
         this.source = source;
+        this.length = source.length();
+        this.bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            final char c = source.charAt(i);
+            bytes[i] = c < 0x80 ? (byte) c : NOT_ASCII;
+        }
+        this.line = line;
+        this.lineStart = 1 - column;
+        this.reporter = reporter;
     }
 
     /**
@@ -58,10 +124,46 @@ public class Scanner {
             scanToken();
         }
 
+        start = current;
         tokens.add(new Token(TokenType.EOF, "", null, line));
+        record();
         return tokens;
     }
 
+    /**
+     * @param index index of a scanned token
+     * @return offset into source at which the token starts
+     */
+    int offsetOf(int index) {
+        return offsets[index];
+    }
+
+    /**
+     * Makes the value of every string literal canonical, through the JVM's own table of strings, so equal literals
+     * (and strings an interpreter interns, see {@link Interpreter#internStrings(boolean)}) are the same string and
+     * comparing them stops at their identity. Each literal then costs a look-up in the table, and stays in it for as
+     * long as it is used, so this pays only for scripts comparing their literals often.
+     * @param intern true to intern the values of string literals, false (the default) not to
+     */
+    void internStrings(boolean intern) {
+        this.internStrings = intern;
+    }
+
+    /**
+     * @return column (starting at 1) each scanned token starts at, indexed the same as tokens
+     */
+    int[] columns() {
+        return columns;
+    }
+
+    /**
+     * @return true if the source ended inside a string or a multi-line comment, in which case whatever follows the
+     * scanned source would have been swallowed by it too
+     */
+    boolean endedUnterminated() {
+        return unterminated;
+    }
+
     private void scanToken() {
         char c = advance();
 
@@ -70,6 +172,9 @@ public class Scanner {
             case ')': addToken(RIGHT_PAREN); break;
             case '{': addToken(LEFT_BRACE); break;
             case '}': addToken(RIGHT_BRACE); break;
+            case '[': addToken(LEFT_BRACKET); break;
+            case ']': addToken(RIGHT_BRACKET); break;
+            case ':': addToken(COLON); break;
             case ',': addToken(COMMA); break;
             case '.': addToken(DOT); break;
             case '-': addToken(MINUS); break;
@@ -85,7 +190,7 @@ public class Scanner {
                     multiLineBlockComment();
                 } else {
                     if (match('/')) {
-                        while (peek() != '\n' && notAtEnd()) advance();
+                        current = find(current, (byte) '\n', (byte) '\n');
                     } else {
                         addToken(SLASH);
                     }
@@ -95,10 +200,12 @@ public class Scanner {
             case ' ':
             case '\r':
             case '\t':
-                // Ignore whitespace.
+                // Ignore whitespace, a run of it at a time
+                if (current < length && bytes[current] <= ' ') skipWhitespace();
                 break;
             case '\n':
-                line++;
+                newLine();
+                if (current < length && bytes[current] <= ' ') skipWhitespace();
                 break;
 
             default:
@@ -107,121 +214,271 @@ public class Scanner {
                 } else if (isAlpha(c)) {
                     identifier();
                 } else {
-                    Lox.error(line, "Unexpected character.");
+                    error(start, "Unexpected character.");
                 }
                 break;
         }
     }
 
     private void identifier() {
-        while (isAlphaNumeric(peek())) advance();
+        while (current < length && isAlphaNumeric(bytes[current])) current++;
+
+        // is the text a keyword? if not, it is an identifier
+        addToken(keyword());
+    }
+
+    /**
+     * Recognises keywords by trie: branch on the first (and sometimes second) character, then compare the rest
+     */
+    private TokenType keyword() {
+        switch (bytes[start]) {
+            case 'a': return rest(1, "nd", AND);
+            case 'b': return rest(1, "reak", BREAK);
+            case 'c': return rest(1, "lass", CLASS);
+            case 'e': return rest(1, "lse", ELSE);
+            case 'f':
+                if (current - start > 1) {
+                    switch (bytes[start + 1]) {
+                        case 'a': return rest(2, "lse", FALSE);
+                        case 'o': return rest(2, "r", FOR);
+                        case 'u': return rest(2, "n", FUN);
+                    }
+                }
+                break;
+            case 'i': return rest(1, "f", IF);
+            case 'n': return rest(1, "il", NIL);
+            case 'o': return rest(1, "r", OR);
+            case 'p': return rest(1, "rint", PRINT);
+            case 'r': return rest(1, "eturn", RETURN);
+            case 's': return rest(1, "uper", SUPER);
+            case 't':
+                if (current - start > 1) {
+                    switch (bytes[start + 1]) {
+                        case 'h': return rest(2, "is", THIS);
+                        case 'r': return rest(2, "ue", TRUE);
+                    }
+                }
+                break;
+            case 'v': return rest(1, "ar", VAR);
+            case 'w': return rest(1, "hile", WHILE);
+        }
 
-        String text = source.substring(start, current);
+        return IDENTIFIER;
+    }
 
-        // is the text a keyword?
-        TokenType type = keywords.get(text);
-        // if not, it is an identifier
-        if (type == null) type = IDENTIFIER;
+    private TokenType rest(int from, String rest, TokenType type) {
+        if (current - start != from + rest.length()) return IDENTIFIER;
 
-        addToken(type);
+        for (int i = 0; i < rest.length(); i++) {
+            if (bytes[start + from + i] != rest.charAt(i)) return IDENTIFIER;
+        }
+        return type;
     }
 
-    private boolean isAlphaNumeric(char c) {
-        return isAlpha(c) || isDigit(c);
+    private static boolean isAlphaNumeric(int c) {
+        return c < 256 && CHARACTER_CLASSES[c] != 0;
     }
 
-    private boolean isAlpha(char c) {
-        return (c >= 'a' && c <= 'z') ||
-                (c >= 'A' && c <= 'Z') ||
-                c == '_';
+    private static boolean isAlpha(int c) {
+        return c < 256 && CHARACTER_CLASSES[c] == ALPHA;
     }
 
     private void number() {
-        while (isDigit(peek())) advance();
+        long whole = bytes[start] - '0';
+        while (current < length && isDigit(bytes[current])) {
+            whole = whole * 10 + (bytes[current++] - '0');
+        }
 
         // post-decimal numbers
+        boolean fraction = false;
         if (peek() == '.' && isDigit(peekNext())) {
-            advance();
+            fraction = true;
+            current++;
 
-            while (isDigit(peek())) advance();
+            while (current < length && isDigit(bytes[current])) current++;
         }
 
-        addToken(NUMBER, Double.parseDouble(source.substring(start, current)));
+        final String text = source.substring(start, current);
+        // whole numbers of up to 15 digits are exactly representable, so need no parsing
+        final double value = !fraction && current - start <= 15 ? (double) whole : Double.parseDouble(text);
+        addToken(NUMBER, text, value);
     }
 
     private char peekNext() {
-        if (current + 1 >= source.length()) return '\0';
-        return source.charAt(current + 1);
+        if (current + 1 >= length) return '\0';
+        return (char) bytes[current + 1];
     }
 
-    private boolean isDigit(char c) {
-        return c >= '0' && c <= '9';
+    private static boolean isDigit(int c) {
+        return c < 256 && CHARACTER_CLASSES[c] == DIGIT;
     }
 
     private void string() {
-        while (peek() != '"' && notAtEnd()) {
+        for (;;) {
+            current = find(current, (byte) '"', (byte) '\n');
+            if (current >= length || bytes[current] == '"') break;
+
             // multi-line strings allowed
-            if (peek() == '\n') line++;
-            advance();
+            newLine(++current);
         }
 
         // if we have not found a closing quote
         if (isAtEnd()) {
-            Lox.error(line, "Unterminated string.");
+            unterminated = true;
+            error(current, "Unterminated string.");
             return;
         }
 
         advance();
 
         // strip enclosing quotes ["]mystring["]
-        String value = source.substring(start + 1, current - 1);
-        addToken(STRING, value);
+        final String value = source.substring(start + 1, current - 1);
+        addToken(STRING, internStrings ? value.intern() : value);
     }
 
     private void multiLineBlockComment() {
-        while (peek() != '*' && peekNext() != '/' && notAtEnd()) {
-            advance();
+        for (;;) {
+            current = find(current, (byte) '*', (byte) '\n');
+
+            if (isAtEnd()) {
+                unterminated = true;
+                error(current, "Unterminated multi-line block comment.");
+                return;
+            }
+
+            if (bytes[current] == '\n') {
+                newLine(++current);
+            } else if (current + 1 < length && bytes[current + 1] == '/') {
+                // skip past closing two characters of multi-line comment
+                current += 2;
+                return;
+            } else {
+                current++;
+            }
         }
+    }
 
-        if (isAtEnd()) {
-            Lox.error(line, "Unterminated multi-line block comment.");
-            return;
+    /**
+     * @return offset of the first of either byte at or after from, or length if there is neither
+     */
+    private int find(int from, byte either, byte or) {
+        int i = from;
+        for (; i + Long.BYTES <= length; i += Long.BYTES) {
+            final long word = (long) WORDS.get(bytes, i);
+            final long found = bytesEqual(word, either) | bytesEqual(word, or);
+            if (found != 0) return i + (Long.numberOfTrailingZeros(found) >>> 3);
         }
 
-        // skip past closing two characters of multi-line comment
-        advance();
-        advance();
+        for (; i < length; i++) {
+            if (bytes[i] == either || bytes[i] == or) return i;
+        }
+        return length;
+    }
+
+    /**
+     * Skips spaces, tabs, carriage returns and newlines from current, counting lines as it goes
+     */
+    private void skipWhitespace() {
+        for (; current + Long.BYTES <= length; current += Long.BYTES) {
+            final long word = (long) WORDS.get(bytes, current);
+            final long newlines = bytesEqual(word, (byte) '\n');
+            final long blank = newlines | bytesEqual(word, (byte) ' ')
+                    | bytesEqual(word, (byte) '\t') | bytesEqual(word, (byte) '\r');
+
+            // only newlines before the first non-blank byte are skipped
+            final long other = ~blank & HIGHS;
+            final int run = other == 0 ? Long.BYTES : Long.numberOfTrailingZeros(other) >>> 3;
+            final long skipped = run == Long.BYTES ? newlines : newlines & ((1L << (run << 3)) - 1);
+
+            if (skipped != 0) {
+                line += Long.bitCount(skipped);
+                lineStart = current + ((63 - Long.numberOfLeadingZeros(skipped)) >>> 3) + 1;
+            }
+            if (run < Long.BYTES) {
+                current += run;
+                return;
+            }
+        }
+
+        while (current < length) {
+            final byte b = bytes[current];
+            if (b == '\n') {
+                newLine(++current);
+            } else if (b == ' ' || b == '\t' || b == '\r') {
+                current++;
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return word with the high bit set in exactly those bytes equal to b, and every other bit clear
+     */
+    private static long bytesEqual(long word, byte b) {
+        final long x = word ^ (ONES * b);
+        // high bit of ((x & LOWS) + LOWS) | x is set in every byte of x that is not zero
+        return ~(((x & LOWS) + LOWS) | x | LOWS);
     }
 
     private char peek() {
-        if (isAtEnd()) return '\0';
-        return source.charAt(current);
+        if (current >= length) return '\0';
+        return (char) bytes[current];
     }
 
     private boolean notAtEnd() {
-        return current < source.length();
+        return current < length;
     }
 
     private boolean isAtEnd() {
-        return current >= source.length();
+        return current >= length;
     }
 
     private boolean match(char expected) {
-        if (isAtEnd()) return false;
+        if (current >= length) return false;
         // if next character matches
-        if (source.charAt(current) != expected) return false;
+        if (bytes[current] != expected) return false;
 
         current++;
         return true;
     }
 
     private void addToken(TokenType type) {
-        addToken(type, null);
+        final String fixed = FIXED_LEXEMES[type.ordinal()];
+        addToken(type, fixed != null ? fixed : source.substring(start, current), null);
     }
 
     private void addToken(TokenType type, Object literal) {
-        String text = source.substring(start, current);
+        addToken(type, source.substring(start, current), literal);
+    }
+
+    private void addToken(TokenType type, String text, Object literal) {
         tokens.add(new Token(type, text, literal, line));
+        record();
+    }
+
+    private void record() {
+        final int index = tokens.size() - 1;
+        if (index == offsets.length) {
+            offsets = Arrays.copyOf(offsets, index * 2);
+            columns = Arrays.copyOf(columns, index * 2);
+        }
+
+        offsets[index] = start;
+        columns[index] = start - lineStart + 1;
+    }
+
+    private void newLine() {
+        newLine(current);
+    }
+
+    private void newLine(int nextLineStart) {
+        line++;
+        lineStart = nextLineStart;
+    }
+
+    private void error(int offset, String message) {
+        reporter.report(new Diagnostic(line, offset - lineStart + 1, null, message));
     }
 
     private char advance() {
@@ -230,6 +487,6 @@ public class Scanner {
         // given: hello
         // current = h[e]llo
         // returned = [h]ello
-        return source.charAt(current - 1);
+        return (char) bytes[current - 1];
     }
 }
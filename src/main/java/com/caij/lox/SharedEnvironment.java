@@ -0,0 +1,65 @@
+package com.caij.lox;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A global environment that many interpreters, on many threads, can use at once.
+ *
+ * Each variable lives in its own cell, found by name through a concurrent map, so neither reading nor assigning ever
+ * locks and read-mostly globals scale with threads. Defining or assigning a variable is a volatile write
+ * of its cell: once it is done, every thread reading that variable sees the new value (or a later one). Nothing is
+ * atomic across statements, so two threads running {@code x = x + 1;} can still lose an update.
+ */
+class SharedEnvironment extends Environment {
+
+    private static final class Cell {
+        volatile Object value;
+
+        Cell(Object value) {
+            this.value = value;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Cell> cells = new ConcurrentHashMap<>();
+
+    @Override
+    Object get(Token name) {
+        final Cell cell = cells.get(name.lexeme);
+        if (cell == null) throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+
+        return cell.value;
+    }
+
+    @Override
+    void define(String name, Object value) {
+        final Cell cell = cells.get(name);
+        if (cell != null) {
+            cell.value = value;
+            return;
+        }
+
+        // another thread may define it first, in which case this is an assignment to its cell
+        final Cell defined = cells.putIfAbsent(name, new Cell(value));
+        if (defined != null) defined.value = value;
+    }
+
+    @Override
+    boolean isDefined(String name) {
+        return cells.containsKey(name);
+    }
+
+    @Override
+    void assign(Token name, Object value) {
+        final Cell cell = cells.get(name.lexeme);
+        if (cell == null) throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+
+        cell.value = value;
+    }
+
+    @Override
+    public Environment freeze() {
+        final Environment snapshot = new Environment();
+        cells.forEach((name, cell) -> snapshot.define(name, cell.value));
+        return snapshot.freeze();
+    }
+}
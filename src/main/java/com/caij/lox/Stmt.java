@@ -1,82 +1,165 @@
 package com.caij.lox;
 
 import java.util.List;
-import com.caij.lox.Token;
 
 abstract class Stmt {
-  interface Visitor<R> {
-    R visitBlockStmt(Block stmt);
-    R visitExpressionStmt(Expression stmt);
-    R visitIfStmt(If stmt);
-    R visitPrintStmt(Print stmt);
-    R visitVarStmt(Var stmt);
-  }
-  static class Block extends Stmt {
-    Block(List<Stmt> statements) {
-      this.statements = statements;
-    }
+    static final int BLOCK = 0;
+    static final int BREAK = 1;
+    static final int EXPRESSION = 2;
+    static final int IF = 3;
+    static final int PRINT = 4;
+    static final int VAR = 5;
+    static final int WHILE = 6;
+
+    interface Visitor<R> {
+        R visitBlockStmt(Block stmt);
+
+        R visitBreakStmt(Break stmt);
+
+        R visitExpressionStmt(Expression stmt);
+
+        R visitIfStmt(If stmt);
+
+        R visitPrintStmt(Print stmt);
 
-    @Override
-    <R> R accept(Visitor<R> visitor) {
-      return visitor.visitBlockStmt(this);
+        R visitVarStmt(Var stmt);
+
+        R visitWhileStmt(While stmt);
     }
 
-    final List<Stmt> statements;
-  }
-  static class Expression extends Stmt {
-    Expression(Expr expression) {
-      this.expression = expression;
+    static final class Block extends Stmt {
+        Block(List<Stmt> statements) {
+            super(BLOCK);
+            this.statements = statements;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitBlockStmt(this);
+        }
+
+        final List<Stmt> statements;
+        boolean flat;
     }
 
-    @Override
-    <R> R accept(Visitor<R> visitor) {
-      return visitor.visitExpressionStmt(this);
+    static final class Break extends Stmt {
+        Break(Token keyword) {
+            super(BREAK);
+            this.keyword = keyword;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitBreakStmt(this);
+        }
+
+        final Token keyword;
     }
 
-    final Expr expression;
-  }
-  static class If extends Stmt {
-    If(Expr condition, Stmt thenBranch, Stmt elseBranch) {
-      this.condition = condition;
-      this.thenBranch = thenBranch;
-      this.elseBranch = elseBranch;
+    static final class Expression extends Stmt {
+        Expression(Expr expression) {
+            super(EXPRESSION);
+            this.expression = expression;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitExpressionStmt(this);
+        }
+
+        final Expr expression;
     }
 
-    @Override
-    <R> R accept(Visitor<R> visitor) {
-      return visitor.visitIfStmt(this);
+    static final class If extends Stmt {
+        If(Expr condition, Stmt thenBranch, Stmt elseBranch) {
+            super(IF);
+            this.condition = condition;
+            this.thenBranch = thenBranch;
+            this.elseBranch = elseBranch;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitIfStmt(this);
+        }
+
+        final Expr condition;
+        final Stmt thenBranch;
+        final Stmt elseBranch;
     }
 
-    final Expr condition;
-    final Stmt thenBranch;
-    final Stmt elseBranch;
-  }
-  static class Print extends Stmt {
-    Print(Expr expression) {
-      this.expression = expression;
+    static final class Print extends Stmt {
+        Print(Expr expression) {
+            super(PRINT);
+            this.expression = expression;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitPrintStmt(this);
+        }
+
+        final Expr expression;
     }
 
-    @Override
-    <R> R accept(Visitor<R> visitor) {
-      return visitor.visitPrintStmt(this);
+    static final class Var extends Stmt {
+        Var(Token name, Expr initialiser) {
+            super(VAR);
+            this.name = name;
+            this.initialiser = initialiser;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitVarStmt(this);
+        }
+
+        final Token name;
+        final Expr initialiser;
+        int slot = -1;
     }
 
-    final Expr expression;
-  }
-  static class Var extends Stmt {
-    Var(Token name, Expr initialiser) {
-      this.name = name;
-      this.initialiser = initialiser;
+    static final class While extends Stmt {
+        While(Expr condition, Stmt body) {
+            super(WHILE);
+            this.condition = condition;
+            this.body = body;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitWhileStmt(this);
+        }
+
+        final Expr condition;
+        final Stmt body;
+        volatile CompiledLoop compiled;
     }
 
-    @Override
-    <R> R accept(Visitor<R> visitor) {
-      return visitor.visitVarStmt(this);
+    final int kind;
+    int line;
+    int counter = -1;
+
+    Stmt(int kind) {
+        this.kind = kind;
     }
 
-    final Token name;
-    final Expr initialiser;
-  }
+    abstract <R> R accept(Visitor<R> visitor);
 
-  abstract <R> R accept(Visitor<R> visitor);
+    /**
+     * Does what stmt.accept(visitor) does, but by switching on kind, so that once inlined into a caller
+     * whose visitor is known the visit is a direct call
+     */
+    static <R> R dispatch(Stmt stmt, Visitor<R> visitor) {
+        switch (stmt.kind) {
+            case BLOCK: return visitor.visitBlockStmt((Block) stmt);
+            case BREAK: return visitor.visitBreakStmt((Break) stmt);
+            case EXPRESSION: return visitor.visitExpressionStmt((Expression) stmt);
+            case IF: return visitor.visitIfStmt((If) stmt);
+            case PRINT: return visitor.visitPrintStmt((Print) stmt);
+            case VAR: return visitor.visitVarStmt((Var) stmt);
+            case WHILE: return visitor.visitWhileStmt((While) stmt);
+            default: throw new IllegalStateException("Unknown kind: " + stmt.kind);
+        }
+    }
 }
@@ -0,0 +1,305 @@
+package com.caij.lox;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Responsibility: works out, ahead of running, which expressions can only produce a number, a string, a boolean or
+ * nil (or raise their own error), and records it in {@link Expr#type}, so the interpreter can take paths that skip
+ * checking operands whose type is already known (see {@link Interpreter#visitBinaryExpr(Expr.Binary)}).
+ *
+ * The inference follows the flow of the script: a variable has the type of what was last assigned to it on every
+ * path reaching a use, branches joining to whatever they agree on, and loops going round until nothing changes. What
+ * natives return, elements of lists and maps, and variables nothing in the script has assigned yet are unknown, as is
+ * anything the paths reaching it disagree on. Unknown ({@link #UNKNOWN}, 0) is what every expression starts as, so
+ * expressions not inferred are simply checked as they always were.
+ */
+final class Types implements Expr.Visitor<Integer>, Stmt.Visitor<Void> {
+
+    static final int UNKNOWN = 0;
+    static final int NUMBER = 1;
+    static final int STRING = 2;
+    static final int BOOLEAN = 3;
+    static final int NIL = 4;
+
+    /**
+     * Type of each variable known at this point, keyed by its declaring statement if a local, else by its name; a
+     * variable missing is unknown. Null where the point cannot be reached (after a break).
+     */
+    private Map<Object, Integer> known = new HashMap<>();
+    private final Deque<Map<String, Stmt.Var>> scopes = new ArrayDeque<>();
+
+    /**
+     * For each loop being inferred (innermost last), what is known at the breaks out of it so far, null until one is
+     */
+    private final List<Map<Object, Integer>> breaks = new ArrayList<>();
+
+    private Types() {
+    }
+
+    /**
+     * Infers the types of the expressions of statements
+     * @param statements statements parsed without an {@link AstInterner}, as the types of their expressions are set.
+     *                   They must run in globals that nothing else assigns to as they run (so not a shared
+     *                   environment), as the types of globals are inferred too.
+     */
+    static void infer(List<Stmt> statements) {
+        final Types types = new Types();
+        for (Stmt statement : statements) {
+            statement.accept(types);
+        }
+    }
+
+    /**
+     * @return the one type of two things, or unknown if they differ
+     */
+    private static int join(int a, int b) {
+        return a == b ? a : UNKNOWN;
+    }
+
+    /**
+     * @return what is known on both of two paths that meet, either of which may be unreachable (null)
+     */
+    private static Map<Object, Integer> join(Map<Object, Integer> a, Map<Object, Integer> b) {
+        if (a == null) return b == null ? null : new HashMap<>(b);
+        if (b == null) return new HashMap<>(a);
+
+        final Map<Object, Integer> both = new HashMap<>();
+        for (Map.Entry<Object, Integer> entry : a.entrySet()) {
+            if (entry.getValue().equals(b.get(entry.getKey()))) both.put(entry.getKey(), entry.getValue());
+        }
+        return both;
+    }
+
+    private Map<Object, Integer> copy() {
+        return known == null ? null : new HashMap<>(known);
+    }
+
+    /**
+     * @return key the type of the variable of this name, as it is found at this point, is kept under
+     */
+    private Object variable(Token name) {
+        for (Map<String, Stmt.Var> scope : scopes) {
+            final Stmt.Var declaration = scope.get(name.lexeme);
+            if (declaration != null) return declaration;
+        }
+        return name.lexeme;
+    }
+
+    private int typeOf(Object variable) {
+        if (known == null) return UNKNOWN;
+        return known.getOrDefault(variable, UNKNOWN);
+    }
+
+    private void assign(Object variable, int type) {
+        if (known == null) return;
+
+        if (type == UNKNOWN) {
+            known.remove(variable);
+        } else {
+            known.put(variable, type);
+        }
+    }
+
+    private int infer(Expr expr) {
+        final int type = expr.accept(this);
+        expr.type = type;
+        return type;
+    }
+
+    private void infer(Stmt stmt) {
+        if (stmt != null) stmt.accept(this);
+    }
+
+    @Override
+    public Integer visitAssignExpr(Expr.Assign expr) {
+        final int type = infer(expr.value);
+        assign(variable(expr.name), type);
+        return type;
+    }
+
+    @Override
+    public Integer visitBinaryExpr(Expr.Binary expr) {
+        final int left = infer(expr.left);
+        final int right = infer(expr.right);
+
+        switch (expr.operator.type) {
+            case MINUS:
+            case SLASH:
+            case STAR:
+                return NUMBER;
+            case PLUS:
+                if (left == NUMBER && right == NUMBER) return NUMBER;
+                // a string added to anything either is a string or raises an error
+                return left == STRING || right == STRING ? STRING : UNKNOWN;
+            default:
+                return BOOLEAN;
+        }
+    }
+
+    @Override
+    public Integer visitCallExpr(Expr.Call expr) {
+        infer(expr.callee);
+        for (Expr argument : expr.arguments) {
+            infer(argument);
+        }
+        return UNKNOWN;
+    }
+
+    @Override
+    public Integer visitGroupingExpr(Expr.Grouping expr) {
+        return infer(expr.expression);
+    }
+
+    @Override
+    public Integer visitBooleanLiteralExpr(Expr.BooleanLiteral expr) {
+        return BOOLEAN;
+    }
+
+    @Override
+    public Integer visitIndexExpr(Expr.Index expr) {
+        infer(expr.object);
+        infer(expr.index);
+        return UNKNOWN;
+    }
+
+    @Override
+    public Integer visitListLiteralExpr(Expr.ListLiteral expr) {
+        for (Expr element : expr.elements) {
+            infer(element);
+        }
+        return UNKNOWN;
+    }
+
+    @Override
+    public Integer visitLogicalExpr(Expr.Logical expr) {
+        final int left = infer(expr.left);
+        // the right operand is not always evaluated, so neither are any assignments in it
+        final Map<Object, Integer> skipped = copy();
+        final int right = infer(expr.right);
+        known = join(skipped, known);
+        return join(left, right);
+    }
+
+    @Override
+    public Integer visitMapLiteralExpr(Expr.MapLiteral expr) {
+        for (int i = 0; i < expr.keys.size(); i++) {
+            infer(expr.keys.get(i));
+            infer(expr.values.get(i));
+        }
+        return UNKNOWN;
+    }
+
+    @Override
+    public Integer visitNilLiteralExpr(Expr.NilLiteral expr) {
+        return NIL;
+    }
+
+    @Override
+    public Integer visitNumberLiteralExpr(Expr.NumberLiteral expr) {
+        return NUMBER;
+    }
+
+    @Override
+    public Integer visitSetIndexExpr(Expr.SetIndex expr) {
+        infer(expr.object);
+        infer(expr.index);
+        return infer(expr.value);
+    }
+
+    @Override
+    public Integer visitStringLiteralExpr(Expr.StringLiteral expr) {
+        return STRING;
+    }
+
+    @Override
+    public Integer visitUnaryExpr(Expr.Unary expr) {
+        infer(expr.right);
+        return expr.operator.type == TokenType.MINUS ? NUMBER : BOOLEAN;
+    }
+
+    @Override
+    public Integer visitVariableExpr(Expr.Variable expr) {
+        return typeOf(variable(expr.name));
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        scopes.push(new HashMap<>());
+        for (Stmt statement : stmt.statements) {
+            infer(statement);
+        }
+        scopes.pop();
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        final int loop = breaks.size() - 1;
+        breaks.set(loop, join(breaks.get(loop), known));
+        known = null;
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        infer(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        infer(stmt.condition);
+        final Map<Object, Integer> otherwise = copy();
+        infer(stmt.thenBranch);
+
+        final Map<Object, Integer> then = known;
+        known = otherwise;
+        infer(stmt.elseBranch);
+        known = join(then, known);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        infer(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        final int type = stmt.initialiser == null ? NIL : infer(stmt.initialiser);
+        if (scopes.isEmpty()) {
+            assign(stmt.name.lexeme, type);
+        } else {
+            scopes.peek().put(stmt.name.lexeme, stmt);
+            assign(stmt, type);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        // goes round until what is known on entering the loop is also known on coming back round, inferring the
+        // body again each time, so the types it is left with hold on every iteration
+        for (;;) {
+            final Map<Object, Integer> entering = copy();
+            breaks.add(null);
+            infer(stmt.condition);
+            final Map<Object, Integer> exiting = copy();
+            infer(stmt.body);
+
+            final Map<Object, Integer> broken = breaks.remove(breaks.size() - 1);
+            final Map<Object, Integer> next = join(entering, known);
+            if (next == null || next.equals(entering)) {
+                known = join(exiting, broken);
+                return null;
+            }
+            known = next;
+        }
+    }
+}
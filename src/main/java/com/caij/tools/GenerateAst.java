@@ -8,6 +8,14 @@ import java.util.List;
 
 import static java.util.Arrays.asList;
 
+/**
+ * Generates the AST classes. Each type is written as
+ * <pre>Name : Type field, Type field ; Type slot = initial, Type slot</pre>
+ * where the fields before ";" are final and set by the constructor, and the optional slots after it are mutable
+ * metadata for later passes (and the interpreter) to hang data on, such as resolved variable locations, profiling
+ * counters and inline caches. Every node also gets a kind, for {@code dispatch} to switch on instead of going through
+ * {@code accept}.
+ */
 public class GenerateAst {
 
     public static void main(String[] args) throws FileNotFoundException, UnsupportedEncodingException {
@@ -18,93 +26,169 @@ public class GenerateAst {
 
         String outputDir = args[0];
 
-        defineAst(outputDir, "Expr", asList(
-                "Assign: Token name, Expr value",
-                "Binary : Expr left, Token operator, Expr right",
+        // nodes shared through an AstInterner share their slots too, so slots holding anything particular to where a
+        // node appears (like a resolved variable) must only be filled in on programs parsed without one
+        // every expression also has a slot for the type it is known to produce (see Types)
+        defineAst(outputDir, "Expr", "int type", asList(
+                "Assign: Token name, Expr value ; int depth = -1, int slot = -1",
+                "Binary : Expr left, Token operator, Expr right ; Object cache",
+                "Call : Expr callee, Token paren, List<Expr> arguments",
                 "Grouping : Expr expression",
-                "Literal : Object value",
+                "BooleanLiteral : boolean value",
+                "Index : Expr object, Token bracket, Expr index",
+                "ListLiteral : Token bracket, List<Expr> elements",
                 "Logical : Expr left, Token operator, Expr right",
-                "Unary : Token operator, Expr right",
-                "Variable: Token name"
+                "MapLiteral : Token brace, List<Expr> keys, List<Expr> values",
+                "NilLiteral : ",
+                "NumberLiteral : double value",
+                "SetIndex : Expr object, Token bracket, Expr index, Expr value",
+                "StringLiteral : String value",
+                "Unary : Token operator, Expr right ; Object cache",
+                "Variable: Token name ; int depth = -1, int slot = -1"
         ));
-        defineAst(outputDir, "Stmt", asList(
-                "Block: List<Stmt> statements",
+        // and every statement has the line it starts on, and a slot for its coverage counter (see Coverage); loops
+        // carry their compiled form once hot (see CompiledLoop), the times they go round being counted by each
+        // interpreter running them instead
+        defineAst(outputDir, "Stmt", "int line, int counter = -1", asList(
+                "Block: List<Stmt> statements ; boolean flat",
+                "Break : Token keyword",
                 "Expression : Expr expression",
                 "If : Expr condition, Stmt thenBranch, Stmt elseBranch",
                 "Print : Expr expression",
-                "Var : Token name, Expr initialiser"
+                "Var : Token name, Expr initialiser ; int slot = -1",
+                "While : Expr condition, Stmt body ; volatile CompiledLoop compiled"
         ));
     }
 
-    private static void defineAst(String outputDir, String baseName, List<String> types) throws FileNotFoundException, UnsupportedEncodingException {
+    private static void defineAst(String outputDir, String baseName, String baseSlots, List<String> types) throws FileNotFoundException, UnsupportedEncodingException {
         String path = outputDir + File.separator + baseName + ".java";
         PrintWriter writer = new PrintWriter(path, "UTF-8");
 
         writer.println("package com.caij.lox;");
         writer.println();
-        writer.println("import java.util.List;");
-        writer.println("import com.caij.lox.Token;");
-        writer.println();
+        if (types.stream().anyMatch(type -> type.contains("List<"))) {
+            writer.println("import java.util.List;");
+            writer.println();
+        }
         writer.println("abstract class " + baseName + " {");
 
+        // The node kinds.
+        for (int i = 0; i < types.size(); i++) {
+            writer.println("    static final int " + kindOf(className(types.get(i))) + " = " + i + ";");
+        }
+        writer.println();
+
         defineVisitor(writer, baseName, types);
 
         // The AST classes.
         for (String type : types) {
-            String className = type.split(":")[0].trim();
-            String fields = type.split(":")[1].trim();
-            defineType(writer, baseName, className, fields);
+            String definition = type.substring(type.indexOf(':') + 1);
+            String fields = definition.split(";")[0].trim();
+            String slots = definition.contains(";") ? definition.substring(definition.indexOf(';') + 1).trim() : "";
+            writer.println();
+            defineType(writer, baseName, className(type), fields, slots);
+        }
+
+        // The kind, set by each AST class.
+        writer.println();
+        writer.println("    final int kind;");
+        for (String slot : baseSlots.isEmpty() ? new String[0] : baseSlots.split(", ")) {
+            writer.println("    " + slot + ";");
         }
+        writer.println();
+        writer.println("    " + baseName + "(int kind) {");
+        writer.println("        this.kind = kind;");
+        writer.println("    }");
 
         // The base accept() method.
         writer.println();
-        writer.println("  abstract <R> R accept(Visitor<R> visitor);");
+        writer.println("    abstract <R> R accept(Visitor<R> visitor);");
+
+        defineDispatch(writer, baseName, types);
 
         writer.println("}");
         writer.close();
     }
 
     private static void defineVisitor(PrintWriter writer, String baseName, List<String> types) {
-        writer.println("  interface Visitor<R> {");
+        writer.println("    interface Visitor<R> {");
 
-        for (String type : types) {
-            String typeName = type.split(":")[0].trim();
-            writer.println("    R visit" + typeName + baseName + "(" +
+        for (int i = 0; i < types.size(); i++) {
+            String typeName = className(types.get(i));
+            if (i > 0) writer.println();
+            writer.println("        R visit" + typeName + baseName + "(" +
                     typeName + " " + baseName.toLowerCase() + ");");
         }
 
-        writer.println("  }");
+        writer.println("    }");
     }
 
-    private static void defineType(PrintWriter writer, String baseName, String className, String fieldList) {
-        writer.println("  static class " + className + " extends " +
+    private static void defineType(PrintWriter writer, String baseName, String className, String fieldList,
+                                   String slotList) {
+        writer.println("    static final class " + className + " extends " +
                 baseName + " {");
 
         // Constructor.
-        writer.println("    " + className + "(" + fieldList + ") {");
+        writer.println("        " + className + "(" + fieldList + ") {");
+        writer.println("            super(" + kindOf(className) + ");");
 
         // Store parameters in fields.
-        String[] fields = fieldList.split(", ");
+        String[] fields = fieldList.isEmpty() ? new String[0] : fieldList.split(", ");
         for (String field : fields) {
             String name = field.split(" ")[1];
-            writer.println("      this." + name + " = " + name + ";");
+            writer.println("            this." + name + " = " + name + ";");
         }
 
-        writer.println("    }");
+        writer.println("        }");
 
         // Visitor pattern.
         writer.println();
-        writer.println("    @Override");
-        writer.println("    <R> R accept(Visitor<R> visitor) {");
-        writer.println("      return visitor.visit" + className + baseName + "(this);");
+        writer.println("        @Override");
+        writer.println("        <R> R accept(Visitor<R> visitor) {");
+        writer.println("            return visitor.visit" + className + baseName + "(this);");
+        writer.println("        }");
+
+        // Fields, then slots.
+        if (fields.length > 0 || !slotList.isEmpty()) writer.println();
+        for (String field : fields) {
+            writer.println("        final " + field + ";");
+        }
+        for (String slot : slotList.isEmpty() ? new String[0] : slotList.split(", ")) {
+            writer.println("        " + slot + ";");
+        }
+
         writer.println("    }");
+    }
+
+    private static void defineDispatch(PrintWriter writer, String baseName, List<String> types) {
+        String name = baseName.toLowerCase();
 
-        // Fields.
         writer.println();
-        for (String field : fields) {
-            writer.println("    final " + field + ";");
+        writer.println("    /**");
+        writer.println("     * Does what " + name + ".accept(visitor) does, but by switching on kind, so that once inlined" +
+                " into a caller");
+        writer.println("     * whose visitor is known the visit is a direct call");
+        writer.println("     */");
+        writer.println("    static <R> R dispatch(" + baseName + " " + name + ", Visitor<R> visitor) {");
+        writer.println("        switch (" + name + ".kind) {");
+        for (String type : types) {
+            String className = className(type);
+            writer.println("            case " + kindOf(className) + ": return visitor.visit" + className + baseName +
+                    "((" + className + ") " + name + ");");
         }
+        writer.println("            default: throw new IllegalStateException(\"Unknown kind: \" + " + name + ".kind);");
+        writer.println("        }");
+        writer.println("    }");
+    }
+
+    private static String className(String type) {
+        return type.split(":")[0].trim();
+    }
 
-        writer.println("  }");
+    /**
+     * @return name of kind constant of a class, e.g. NUMBER_LITERAL for NumberLiteral
+     */
+    private static String kindOf(String className) {
+        return className.replaceAll("([a-z])([A-Z])", "$1_$2").toUpperCase();
     }
 }
@@ -0,0 +1,149 @@
+package com.caij.lox;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AstInternerWill {
+
+    private static final int SCRIPTS = 500;
+
+    @Test
+    void share_identical_expressions_between_scripts() {
+        final AstInterner interner = new AstInterner();
+
+        final Stmt.Print first = (Stmt.Print) parse("print (rate * 2) + 1;", interner).get(0);
+        final Stmt.Print second = (Stmt.Print) parse("print (rate * 2) + 1;", interner).get(0);
+        final Stmt.Print elsewhere = (Stmt.Print) parse("\nprint (rate * 2) + 1;", interner).get(0);
+
+        assertThat(second).isNotSameAs(first);
+        assertThat(second.expression).isSameAs(first.expression);
+        // line numbers are kept, so the same expression on another line is only shared down to its literals
+        assertThat(elsewhere.expression).isNotSameAs(first.expression);
+        assertThat(((Expr.Binary) elsewhere.expression).right).isSameAs(((Expr.Binary) first.expression).right);
+    }
+
+    @Test
+    void never_share_assignments() {
+        final AstInterner interner = new AstInterner();
+
+        final Expr first = ((Stmt.Expression) parse("a = 1;", interner).get(0)).expression;
+        final Expr second = ((Stmt.Expression) parse("a = 1;", interner).get(0)).expression;
+
+        assertThat(second).isNotSameAs(first);
+        assertThat(((Expr.Assign) second).value).isSameAs(((Expr.Assign) first).value);
+    }
+
+    @Test
+    void interpret_shared_scripts_as_before() {
+        final AstInterner interner = new AstInterner();
+        final StringBuilder out = new StringBuilder();
+
+        new Interpreter(Limits.none(), out).run(parse("var a = 1; print a + 1 == 2 and !false;", interner));
+
+        assertThat(out.toString()).isEqualTo("true\n");
+    }
+
+    @Test
+    void use_substantially_less_memory_for_many_scripts() {
+        final List<List<Stmt>> separate = new ArrayList<>();
+        final List<List<Stmt>> shared = new ArrayList<>();
+        final AstInterner interner = new AstInterner();
+
+        for (int i = 0; i < SCRIPTS; i++) {
+            separate.add(parse(generatedScript(i), null));
+            shared.add(parse(generatedScript(i), interner));
+        }
+
+        final long separateBytes = footprintOf(separate);
+        final long sharedBytes = footprintOf(shared);
+        System.out.println(SCRIPTS + " scripts: " + separateBytes + " bytes parsed separately, " +
+                sharedBytes + " bytes hash-consed (" + (100 * sharedBytes / separateBytes) + "%)");
+
+        assertThat(sharedBytes).isLessThan(separateBytes / 2);
+    }
+
+    /**
+     * Rules differing only in a couple of constants, as generated scripts tend to
+     */
+    private String generatedScript(int i) {
+        return "var limit = " + (i % 10) + ";\n" +
+                "var rate = 1.5;\n" +
+                "if (limit > 5 and rate < 2) {\n" +
+                "    print \"over\" + \" limit \" + (limit * rate - 1);\n" +
+                "} else {\n" +
+                "    print \"under\" + \" limit \" + (limit * rate + " + (i % 3) + ");\n" +
+                "}\n";
+    }
+
+    private List<Stmt> parse(String source, AstInterner interner) {
+        return new Parser(new Scanner(source).scanTokens(), null, Lox::report, interner).parse();
+    }
+
+    /**
+     * Estimates the shallow size of every distinct object reachable from root the way JOL lays them out on a 64-bit
+     * JVM with compressed references: a 12 byte header, 4 bytes per reference, padded to 8 bytes
+     */
+    private long footprintOf(Object root) {
+        final Set<Object> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        final Deque<Object> toVisit = new ArrayDeque<>();
+        toVisit.push(root);
+        long bytes = 0;
+
+        while (!toVisit.isEmpty()) {
+            final Object object = toVisit.pop();
+            if (object instanceof Enum || !seen.add(object)) continue;
+
+            if (object instanceof String) {
+                bytes += 24 + align(16 + ((String) object).length());
+            } else if (object instanceof Double) {
+                bytes += 16;
+            } else if (object instanceof Boolean) {
+                bytes += 16;
+            } else if (object instanceof List) {
+                final List<?> list = (List<?>) object;
+                bytes += 24 + align(16 + 4L * list.size());
+                list.forEach(toVisit::push);
+            } else {
+                long size = 12;
+                for (Class<?> type = object.getClass(); type != Object.class; type = type.getSuperclass()) {
+                    for (Field field : type.getDeclaredFields()) {
+                        if (Modifier.isStatic(field.getModifiers())) continue;
+
+                        size += field.getType() == long.class || field.getType() == double.class ? 8 : 4;
+                        if (!field.getType().isPrimitive()) {
+                            final Object value = valueOf(field, object);
+                            if (value != null) toVisit.push(value);
+                        }
+                    }
+                }
+                bytes += align(size);
+            }
+        }
+
+        return bytes;
+    }
+
+    private Object valueOf(Field field, Object object) {
+        try {
+            field.setAccessible(true);
+            return field.get(object);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private long align(long size) {
+        return (size + 7) & ~7;
+    }
+}
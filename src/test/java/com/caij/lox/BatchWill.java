@@ -0,0 +1,155 @@
+package com.caij.lox;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class BatchWill {
+
+    @Test
+    void bind_fields_of_each_csv_record() throws IOException {
+        final Batch batch = Batch.compile("print name + \": \" + price * qty;\n" +
+                "{ print price; var price = len([1]); print price; }", Limits.none());
+        assertThat(batch.fields()).containsExactly("name", "price", "qty");
+
+        final StringWriter out = new StringWriter();
+        final Batch.Summary summary = batch.run(channel("qty,unused,name,price\r\n2,x,\"apples, red\",0.5\r\n" +
+                "3,y,pears,\n"), Batch.Format.CSV, out, new PrintStream(new ByteArrayOutputStream()));
+
+        assertThat(out.toString()).isEqualTo("apples, red: 1\n0.5\n1\n");
+        assertThat(summary.getRecords()).isEqualTo(2);
+        assertThat(summary.getFailures()).isEqualTo(1);
+    }
+
+    @Test
+    void bind_fields_of_each_json_record() throws IOException {
+        final Batch batch = Batch.compile("print id; print tags[1]; print meta[\"ok\"]; print missing;",
+                Limits.none());
+
+        final StringWriter out = new StringWriter();
+        batch.run(channel("{\"id\": 1, \"tags\": [\"a\", \"b\\u0021\"], \"meta\": {\"ok\": true}, \"skip\": {}}\n" +
+                "{\"skip\": {\"a\": [1.5e3, {\"b\": \"x\\\"]}\"}, [], null], \"c\": false}, " +
+                "\"id\": 0, \"tags\": [1, 2], \"meta\": {\"ok\": null}, \"more\": \"\\u0021\\\\\"}\n" +
+                "\n{\"id\": -2.5e1, \"tags\": [null, \"c\"], \"meta\": {\"ok\": false}}"),
+                Batch.Format.JSON_LINES, out, System.err);
+
+        assertThat(out.toString()).isEqualTo("1\nb!\ntrue\nnil\n0\n2\nnil\nnil\n-25\nc\nfalse\nnil\n");
+    }
+
+    @Test
+    void report_records_that_cannot_be_read_or_run_and_carry_on() throws IOException {
+        final Batch batch = Batch.compile("print -n;", Limits.none());
+        final ByteArrayOutputStream err = new ByteArrayOutputStream();
+        final StringWriter out = new StringWriter();
+
+        final Batch.Summary summary = batch.run(channel("{\"n\": 1}\n{\"n\": \"x\"}\n{\"n\": }\n{\"n\": 2}\n"),
+                Batch.Format.JSON_LINES, out, new PrintStream(err, true, StandardCharsets.UTF_8));
+
+        assertThat(out.toString()).isEqualTo("-1\n-2\n");
+        assertThat(summary.getRecords()).isEqualTo(4);
+        assertThat(summary.getFailures()).isEqualTo(2);
+        assertThat(err.toString(StandardCharsets.UTF_8)).isEqualTo(
+                "[record on line 2] Operand must be a number.\n[line 1]\n" +
+                "[line 3] Malformed record: Unexpected '}'. (at column 7)\n");
+        assertThat(summary.toString()).matches("\\[4 records \\(2 failed\\) in [0-9.]+ ms, [0-9]+ records/s]");
+    }
+
+    @Test
+    void write_what_workers_print_in_the_order_records_were_read() throws IOException {
+        final Batch batch = Batch.compile("if (name == \"r777\") print -name; print name + \": \" + n * n;",
+                Limits.none());
+        final StringBuilder records = new StringBuilder("name,n\n");
+        for (int i = 0; i < 3000; i++) {
+            records.append("r").append(i).append(',').append(i % 1000).append('\n');
+            if (i % 500 == 0) records.append('\n');
+        }
+
+        final StringWriter sequentialOut = new StringWriter();
+        final ByteArrayOutputStream sequentialErr = new ByteArrayOutputStream();
+        final Batch.Summary sequential = batch.run(channel(records.toString()), Batch.Format.CSV, sequentialOut,
+                new PrintStream(sequentialErr, true, StandardCharsets.UTF_8));
+        final StringWriter parallelOut = new StringWriter();
+        final ByteArrayOutputStream parallelErr = new ByteArrayOutputStream();
+        final Batch.Summary parallel = batch.run(channel(records.toString()), Batch.Format.CSV, parallelOut,
+                new PrintStream(parallelErr, true, StandardCharsets.UTF_8), 4);
+
+        assertThat(parallelOut.toString()).isEqualTo(sequentialOut.toString()).startsWith("r0: 0\nr1: 1\nr2: 4\n");
+        assertThat(parallelErr.toString(StandardCharsets.UTF_8))
+                .isEqualTo(sequentialErr.toString(StandardCharsets.UTF_8))
+                .isEqualTo("[record on line 781] Operand must be a number.\n[line 1]\n");
+        assertThat(parallel.getRecords()).isEqualTo(sequential.getRecords()).isEqualTo(3000);
+        assertThat(parallel.getFailures()).isEqualTo(sequential.getFailures()).isEqualTo(1);
+    }
+
+    @Test
+    void reject_scripts_with_errors() {
+        assertThatThrownBy(() -> Batch.compile("print 1 +;\nprint (1;", Limits.none()))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("[line 1] Error at ';': Expect expression.\n" +
+                        "[line 2] Error at ';': Expect ')' after expression.");
+    }
+
+    @Test
+    void read_lines_through_a_buffer_of_fixed_size() throws IOException {
+        final Records records = new Records(channel("short\nlonger line\n\nend"), 12);
+        assertThat(records.nextLine()).isEqualTo("short");
+        assertThat(records.nextLine()).isEqualTo("longer line");
+        assertThat(records.nextLine()).isEmpty();
+        assertThat(records.nextLine()).isEqualTo("end");
+        assertThat(records.nextLine()).isNull();
+
+        // a line too long is skipped, however many buffers it fills
+        final Records tooLong = new Records(channel("a line too long, by far\nfits\nalso too long"), 8);
+        assertThat(tooLong.nextLine()).isSameAs(Records.TOO_LONG);
+        assertThat(tooLong.line()).isEqualTo(1);
+        assertThat(tooLong.nextLine()).isEqualTo("fits");
+        assertThat(tooLong.nextLine()).isSameAs(Records.TOO_LONG);
+        assertThat(tooLong.line()).isEqualTo(3);
+        assertThat(tooLong.nextLine()).isNull();
+    }
+
+    @Test
+    void report_records_too_long_to_read_and_carry_on() throws IOException {
+        final Batch batch = Batch.compile("print name;", Limits.none());
+        final String records = "name\nfirst\n" + "x".repeat(Batch.BUFFER_SIZE * 2 + 1) + "\nlast\n";
+
+        for (int workers : new int[]{1, 4}) {
+            final ByteArrayOutputStream err = new ByteArrayOutputStream();
+            final StringWriter out = new StringWriter();
+            final Batch.Summary summary = batch.run(channel(records), Batch.Format.CSV, out,
+                    new PrintStream(err, true, StandardCharsets.UTF_8), workers);
+
+            assertThat(out.toString()).isEqualTo("first\nlast\n");
+            assertThat(summary.getRecords()).isEqualTo(3);
+            assertThat(summary.getFailures()).isEqualTo(1);
+            assertThat(err.toString(StandardCharsets.UTF_8))
+                    .isEqualTo("[line 3] Malformed record: Longer than " + Batch.BUFFER_SIZE + " bytes.\n");
+        }
+    }
+
+    @Test
+    void read_csv_values_as_lox_values() {
+        assertThat(Records.splitCsv("a,\"b,\"\"c\"\"\",,1")).containsExactly("a", "b,\"c\"", "", "1");
+        assertThat(Records.csvValue("-1.5")).isEqualTo(-1.5);
+        assertThat(Records.csvValue("10f")).isEqualTo("10f");
+        assertThat(Records.csvValue("1.")).isEqualTo("1.");
+        assertThat(Records.csvValue("")).isNull();
+        assertThat(Batch.Format.of(Paths.get("rows.CSV"))).isEqualTo(Batch.Format.CSV);
+        assertThat(Batch.Format.of(Paths.get("rows.jsonl"))).isEqualTo(Batch.Format.JSON_LINES);
+    }
+
+    private static ReadableByteChannel channel(String text) {
+        return Channels.newChannel(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)));
+    }
+}
@@ -0,0 +1,163 @@
+package com.caij.lox;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class CompiledLoopWill {
+
+    private static final String PROGRAM = "var i = 0; var s = \"\"; var l = [1, 2]; var m = {\"a\": 1};\n" +
+            "while (i < 40) {\n" +
+            "    var x = i * 2;\n" +
+            "    { var y = -x + 1; if (y < -30 and i != 39) s = s + \"y\"; else print y / 2; }\n" +
+            "    var j = 0;\n" +
+            "    while (true) { j = j + 1; if (j >= 3) break; }\n" +
+            "    append(l, x + j); m[\"a\"] = m[\"a\"] + l[len(l) - 1];\n" +
+            "    if (!(i == 20) or nil) print len(l); else print sqrt(x);\n" +
+            "    i = i + 1;\n" +
+            "}\n" +
+            "print s; print l; print m[\"a\"]; print i;\n";
+
+    @Test
+    void run_hot_loops_compiled_as_the_tree_walker_runs_them() throws InterruptedException {
+        final List<Stmt> statements = resolve(PROGRAM);
+        final Stmt.While loop = (Stmt.While) statements.get(4);
+        final String walked = run(statements, 0);
+
+        assertThat(run(statements, 5)).isEqualTo(walked);
+        assertThat(loop.compiled.await(10, TimeUnit.SECONDS)).isTrue();
+
+        // another interpreter counts its own iterations, so only carries on compiled once the loop is hot in it too
+        final StringBuilder out = new StringBuilder();
+        final Interpreter interpreter = new Interpreter(Limits.none(), out);
+        interpreter.tierUpAfter(5);
+        interpreter.run(statements);
+        assertThat(out.toString()).isEqualTo(walked);
+        assertThat(interpreter.iterationsOf(loop)).isEqualTo(5);
+    }
+
+    @Test
+    void carry_on_compiled_in_the_middle_of_a_loop() throws InterruptedException {
+        final String source = "var i = 0; var t = 0;\n" +
+                "while ((i = i + 1) <= 300000) { var x = i / 2; if ((t = t + x * x - i) == nil) print t; }\n" +
+                "print t;";
+        final List<Stmt> statements = resolve(source);
+        final Stmt.While loop = (Stmt.While) statements.get(2);
+        final StringBuilder out = new StringBuilder();
+        final Interpreter interpreter = new Interpreter(Limits.none(), out);
+        interpreter.tierUpAfter(10);
+
+        interpreter.run(statements);
+        assertThat(out.toString()).isEqualTo(run(resolve(source), 0));
+        assertThat(loop.compiled.await(10, TimeUnit.SECONDS)).isTrue();
+        // switched while going round the first time it was entered
+        assertThat(interpreter.iterationsOf(loop)).isLessThan(300000);
+    }
+
+    @Test
+    void deoptimize_once_a_variable_no_longer_holds_what_it_was_compiled_for() throws InterruptedException {
+        final List<Stmt> loop = resolve("i = 0; while (i < 10) { x = x + 1; i = i + 1; }");
+        final Stmt.While hot = (Stmt.While) loop.get(1);
+        final StringBuilder tieredOut = new StringBuilder();
+        final StringBuilder walkedOut = new StringBuilder();
+        final Interpreter tiered = new Interpreter(Limits.none(), tieredOut);
+        final Interpreter walked = new Interpreter(Limits.none(), walkedOut);
+        tiered.tierUpAfter(15);
+        walked.tierUpAfter(0);
+        run(tiered, walked, resolve("var x = 0; var i = 0;"));
+
+        run(tiered, walked, loop);
+        run(tiered, walked, loop);
+        assertThat(hot.compiled.await(10, TimeUnit.SECONDS)).isTrue();
+        run(tiered, walked, loop);
+
+        run(tiered, walked, resolve("x = \"x\";"));
+        run(tiered, walked, loop);
+        assertThat(hot.compiled.isDeoptimized()).isTrue();
+
+        // compiled again once hot again, no longer taking x for a number
+        run(tiered, walked, loop);
+        assertThat(hot.compiled.await(10, TimeUnit.SECONDS)).isTrue();
+        run(tiered, walked, loop);
+        assertThat(hot.compiled.isDeoptimized()).isFalse();
+
+        final Token x = new Token(TokenType.IDENTIFIER, "x", null, 1);
+        assertThat(tiered.globals().get(x)).isEqualTo(walked.globals().get(x)).isEqualTo("x" + "1".repeat(30));
+        assertThat(tieredOut.toString()).isEqualTo(walkedOut.toString());
+    }
+
+    @Test
+    void raise_the_same_errors_and_stop_at_the_same_limits() throws InterruptedException {
+        final Limits limits = Limits.none().maxInstructions(100_000);
+        final StringBuilder tieredOut = new StringBuilder();
+        final StringBuilder walkedOut = new StringBuilder();
+        final Interpreter tiered = new Interpreter(limits, tieredOut);
+        final Interpreter walked = new Interpreter(limits, walkedOut);
+        tiered.tierUpAfter(5);
+        walked.tierUpAfter(0);
+        run(tiered, walked, resolve("var n = 10; var i = 0; var a = 1;"));
+        final List<Stmt> loop = resolve("i = 0;\nwhile (i < n) {\n    i = i + 1;\n    print -a + i;\n}");
+        final Stmt.While hot = (Stmt.While) loop.get(1);
+
+        run(tiered, walked, loop);
+        assertThat(hot.compiled.await(10, TimeUnit.SECONDS)).isTrue();
+        run(tiered, walked, resolve("n = 1000000;"));
+        assertThatThrownBy(() -> tiered.run(loop)).hasMessage("Instruction limit of 100000 exceeded.");
+        assertThatThrownBy(() -> walked.run(loop)).hasMessage("Instruction limit of 100000 exceeded.");
+        // both counted the same instructions, so stopped at the same point of the same iteration
+        final Token i = new Token(TokenType.IDENTIFIER, "i", null, 1);
+        assertThat(tiered.globals().get(i)).isEqualTo(walked.globals().get(i));
+        assertThat(tieredOut.toString()).isEqualTo(walkedOut.toString());
+
+        run(tiered, walked, resolve("n = 10; a = \"a\";"));
+        for (Interpreter interpreter : List.of(tiered, walked)) {
+            assertThatThrownBy(() -> interpreter.run(loop)).isInstanceOfSatisfying(RuntimeError.class, error -> {
+                assertThat(error).hasMessage("Operand must be a number.");
+                assertThat(error.token.line).isEqualTo(4);
+            });
+        }
+    }
+
+    @Test
+    void let_go_of_loops_it_ran_once_nothing_else_holds_them() throws InterruptedException {
+        final Interpreter interpreter = new Interpreter(Limits.none(), new StringBuilder());
+        interpreter.tierUpAfter(1_000_000);
+        List<Stmt> statements = resolve("var i = 0; while (i < 3) i = i + 1;");
+        final WeakReference<Stmt> loop = new WeakReference<>(statements.get(1));
+
+        interpreter.run(statements);
+        assertThat(interpreter.iterationsOf((Stmt.While) loop.get())).isEqualTo(3);
+
+        statements = null;
+        for (int i = 0; i < 100 && loop.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertThat(loop.get()).isNull();
+    }
+
+    private static void run(Interpreter tiered, Interpreter walked, List<Stmt> statements) {
+        tiered.run(statements);
+        walked.run(statements);
+    }
+
+    private static String run(List<Stmt> statements, long tierUpAfter) {
+        final StringBuilder out = new StringBuilder();
+        final Interpreter interpreter = new Interpreter(Limits.none(), out);
+        interpreter.tierUpAfter(tierUpAfter);
+        interpreter.run(statements);
+        return out.toString();
+    }
+
+    private static List<Stmt> resolve(String source) {
+        final List<Stmt> statements = new Parser(new Scanner(source).scanTokens()).parse();
+        LocalVariables.resolve(statements);
+        Types.infer(statements);
+        return statements;
+    }
+}
@@ -0,0 +1,83 @@
+package com.caij.lox;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ConcurrentExecutionWill {
+
+    private static final int SCRIPTS = 10_000;
+
+    @Test
+    void run_thousands_of_scripts_at_once() throws Exception {
+        final ExecutorService executor = virtualThreadsIfAvailable();
+        final List<Future<String>> results = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < SCRIPTS; i++) {
+                final String source = "var n = " + i + "; var i = 0; var sum = 0;\n" +
+                        "while (i < 100) { { var next = sum + n; sum = next; } i = i + 1; }\n" +
+                        "print sum;";
+                results.add(executor.submit(() -> run(source)));
+            }
+
+            for (int i = 0; i < SCRIPTS; i++) {
+                assertThat(results.get(i).get(30, TimeUnit.SECONDS)).endsWith(i * 100 + "\n");
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void stop_at_next_safepoint_when_cancelled() throws Exception {
+        final CancellationToken cancellation = new CancellationToken();
+        final AtomicReference<RuntimeError> error = new AtomicReference<>();
+        final CountDownLatch stopped = new CountDownLatch(1);
+
+        final Thread thread = new Thread(() -> {
+            try {
+                new Interpreter(Limits.none(), new StringBuilder()).run(parse("while (true) {}"), cancellation);
+            } catch (RuntimeError e) {
+                error.set(e);
+            }
+            stopped.countDown();
+        });
+        thread.start();
+
+        cancellation.cancel();
+
+        assertThat(stopped.await(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(error.get()).hasMessage("Execution cancelled.");
+    }
+
+    private String run(String source) {
+        final StringBuilder out = new StringBuilder();
+        new Interpreter(Limits.none(), out).run(parse(source));
+        return out.toString();
+    }
+
+    private List<Stmt> parse(String source) {
+        return new Parser(new Scanner(source).scanTokens()).parse();
+    }
+
+    /**
+     * Virtual threads need Java 21, so fall back to a bounded pool of platform threads when they are not there
+     */
+    private ExecutorService virtualThreadsIfAvailable() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors() * 4);
+        }
+    }
+}
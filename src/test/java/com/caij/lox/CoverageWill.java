@@ -0,0 +1,66 @@
+package com.caij.lox;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
+public class CoverageWill {
+
+    private static final String PROGRAM = "var i = 0;\n" +
+            "while (i < 3) {\n" +
+            "    if (i > 5) {\n" +
+            "        print \"never\";\n" +
+            "    } else print i;\n" +
+            "    i = i + 1; var j = i;\n" +
+            "}\n" +
+            "print i;\n";
+
+    @Test
+    void count_the_runs_of_each_line() {
+        final Coverage coverage = new Coverage();
+        run(coverage, PROGRAM);
+
+        // the block of the loop starts on line 2 with the while, so both count as what runs most of the two
+        assertThat(coverage.lines()).containsExactly(entry(1, 1L), entry(2, 3L), entry(3, 3L), entry(4, 0L),
+                entry(5, 3L), entry(6, 3L), entry(8, 1L));
+    }
+
+    @Test
+    void report_the_counts_in_lcov_format() throws IOException {
+        final Coverage coverage = new Coverage();
+        run(coverage, "var a = 1;\nif (a > 1)\n    print a;\n");
+
+        final StringBuilder report = new StringBuilder();
+        coverage.writeLcov("script.lox", report);
+        assertThat(report.toString()).isEqualTo("TN:\nSF:script.lox\nDA:1,1\nDA:2,1\nDA:3,0\nLF:3\nLH:2\n" +
+                "end_of_record\n");
+    }
+
+    @Test
+    void run_as_it_did_without_being_counted() {
+        final StringBuilder out = new StringBuilder();
+        final List<Stmt> statements = parse(PROGRAM);
+        new Interpreter(Limits.none(), out).run(statements);
+
+        assertThat(run(new Coverage(), PROGRAM)).isEqualTo(out.toString()).isEqualTo("0\n1\n1\n2\n2\n3\n3\n");
+    }
+
+    private static String run(Coverage coverage, String source) {
+        final List<Stmt> statements = parse(source);
+        LocalVariables.resolve(statements);
+        Types.infer(statements);
+        coverage.instrument(statements);
+
+        final StringBuilder out = new StringBuilder();
+        coverage.interpreter(Limits.none(), out).run(statements);
+        return out.toString();
+    }
+
+    private static List<Stmt> parse(String source) {
+        return new Parser(new Scanner(source).scanTokens()).parse();
+    }
+}
@@ -0,0 +1,48 @@
+package com.caij.lox;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+public class DiagnosticsWill {
+
+    @Test
+    void find_nothing_in_valid_source() {
+        assertThat(Diagnostics.check("var a = 1;\nprint a;").hasErrors()).isFalse();
+    }
+
+    @Test
+    void report_every_error_in_one_pass_in_the_order_they_appear() {
+        final List<Diagnostic> diagnostics = Diagnostics.check(
+                "var = 1;\n" +
+                "print 1 +;\n" +
+                "  @ print 2;\n" +
+                "1 = 2;\n" +
+                "print (3"
+        ).all();
+
+        assertThat(diagnostics)
+                .extracting(Diagnostic::getLine, Diagnostic::getColumn, Diagnostic::getLexeme, Diagnostic::getMessage)
+                .containsExactly(
+                        tuple(1, 5, "=", "Expect variable name."),
+                        tuple(2, 10, ";", "Expect expression."),
+                        tuple(3, 3, null, "Unexpected character."),
+                        tuple(4, 3, "=", "Invalid assignment target."),
+                        tuple(5, 9, "", "Expect ')' after expression.")
+                );
+    }
+
+    @Test
+    void describe_errors_as_lox_reports_them() {
+        final List<Diagnostic> diagnostics = Diagnostics.check("print 1 +;\nprint (3\n\"a").all();
+
+        assertThat(diagnostics).extracting(Diagnostic::toString).containsExactly(
+                "[line 1] Error at ';': Expect expression.",
+                "[line 3] Error: Unterminated string.",
+                "[line 3] Error at end: Expect ')' after expression."
+        );
+    }
+}
@@ -0,0 +1,83 @@
+package com.caij.lox;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class EnvironmentWill {
+
+    private static final String PRELUDE = "var greeting = \"hello\"; var limit = 10;";
+
+    @Test
+    void share_frozen_variables_with_forks() {
+        final Environment frozen = preludeRunIn(new Environment()).freeze();
+
+        assertThat(run("print greeting + \" \" + limit;", frozen.fork())).isEqualTo("hello 10\n");
+    }
+
+    @Test
+    void keep_writes_isolated_to_each_fork() {
+        final Environment frozen = preludeRunIn(new Environment()).freeze();
+        final Environment first = frozen.fork();
+        final Environment second = frozen.fork();
+
+        run("limit = 20; var extra = 1;", first);
+
+        assertThat(first.get(name("limit"))).isEqualTo(20.0);
+        assertThat(second.get(name("limit"))).isEqualTo(10.0);
+        assertThat(frozen.get(name("limit"))).isEqualTo(10.0);
+        assertThatThrownBy(() -> second.get(name("extra"))).isInstanceOf(RuntimeError.class);
+    }
+
+    @Test
+    void refuse_to_change_a_frozen_environment() {
+        final Environment frozen = preludeRunIn(new Environment()).freeze();
+
+        assertThatThrownBy(() -> frozen.define("limit", 1.0)).isInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(() -> frozen.assign(name("limit"), 1.0)).isInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(() -> new Environment().fork()).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void run_forks_of_one_snapshot_on_many_threads() throws Exception {
+        final Environment frozen = preludeRunIn(new Environment()).freeze();
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+
+        try {
+            final List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 1_000; i++) {
+                final String script = "limit = limit + " + i + "; print limit;";
+                results.add(executor.submit(() -> run(script, frozen.fork())));
+            }
+
+            for (int i = 0; i < results.size(); i++) {
+                assertThat(results.get(i).get()).endsWith((10 + i) + "\n");
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertThat(frozen.get(name("limit"))).isEqualTo(10.0);
+    }
+
+    private Environment preludeRunIn(Environment globals) {
+        run(PRELUDE, globals);
+        return globals;
+    }
+
+    private String run(String source, Environment globals) {
+        final StringBuilder out = new StringBuilder();
+        new Interpreter(Limits.none(), out, globals).run(new Parser(new Scanner(source).scanTokens()).parse());
+        return out.toString();
+    }
+
+    private Token name(String lexeme) {
+        return new Token(TokenType.IDENTIFIER, lexeme, null, 1);
+    }
+}
@@ -0,0 +1,54 @@
+package com.caij.lox;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ExprWill {
+
+    private static final Token PLUS = new Token(TokenType.PLUS, "+", null, 1);
+    private static final Token A = new Token(TokenType.IDENTIFIER, "a", null, 1);
+    private static final Token BRACKET = new Token(TokenType.RIGHT_BRACKET, "]", null, 1);
+
+    @Test
+    void know_its_own_kind() {
+        final List<Expr> expressions = List.of(
+                new Expr.Assign(A, new Expr.NilLiteral()),
+                new Expr.Binary(new Expr.NumberLiteral(1), PLUS, new Expr.NumberLiteral(2)),
+                new Expr.Call(new Expr.Variable(A), new Token(TokenType.RIGHT_PAREN, ")", null, 1), List.of()),
+                new Expr.Grouping(new Expr.BooleanLiteral(true)),
+                new Expr.BooleanLiteral(false),
+                new Expr.Index(new Expr.Variable(A), BRACKET, new Expr.NumberLiteral(0)),
+                new Expr.ListLiteral(BRACKET, List.of(new Expr.NumberLiteral(1))),
+                new Expr.Logical(new Expr.Variable(A), new Token(TokenType.OR, "or", null, 1),
+                        new Expr.NilLiteral()),
+                new Expr.MapLiteral(BRACKET, List.of(), List.of()),
+                new Expr.NilLiteral(),
+                new Expr.NumberLiteral(1),
+                new Expr.SetIndex(new Expr.Variable(A), BRACKET, new Expr.NumberLiteral(0), new Expr.NilLiteral()),
+                new Expr.StringLiteral("s"),
+                new Expr.Unary(new Token(TokenType.BANG, "!", null, 1), new Expr.BooleanLiteral(true)),
+                new Expr.Variable(A));
+
+        assertThat(expressions).extracting(expr -> expr.kind).containsExactly(
+                Expr.ASSIGN, Expr.BINARY, Expr.CALL, Expr.GROUPING, Expr.BOOLEAN_LITERAL, Expr.INDEX, Expr.LIST_LITERAL,
+                Expr.LOGICAL, Expr.MAP_LITERAL, Expr.NIL_LITERAL, Expr.NUMBER_LITERAL, Expr.SET_INDEX,
+                Expr.STRING_LITERAL, Expr.UNARY, Expr.VARIABLE);
+
+        // switching on kind visits exactly as accepting the visitor does
+        final AstPrinter printer = new AstPrinter();
+        for (Expr expr : expressions) {
+            assertThat(Expr.dispatch(expr, printer)).isEqualTo(expr.accept(printer));
+        }
+    }
+
+    @Test
+    void start_with_empty_slots() {
+        final Expr.Variable variable = new Expr.Variable(A);
+        assertThat(variable.depth).isEqualTo(-1);
+        assertThat(variable.slot).isEqualTo(-1);
+        assertThat(new Expr.Binary(new Expr.NumberLiteral(1), PLUS, new Expr.NumberLiteral(2)).cache).isNull();
+    }
+}
@@ -0,0 +1,120 @@
+package com.caij.lox;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class FlatProgramWill {
+
+    private static final String PROGRAM = "var a = 1;\n" +
+            "var s = \"x\";\n" +
+            "while (a < 100) {\n" +
+            "    var b = a * 2 + -(1 - 1);\n" +
+            "    if (b > 50 and !(b == 64)) break; else s = s + a;\n" +
+            "    a = b;\n" +
+            "}\n" +
+            "print s;\n" +
+            "print a or nil;\n" +
+            "a == 32;\n";
+
+    @Test
+    void run_programs_as_the_tree_walker_does() throws IOException {
+        assertThat(runFlat(PROGRAM)).isEqualTo(runTree(PROGRAM))
+                .isEqualTo("x1\n2\nx12\n4\nx124\n8\nx1248\n16\nx124816\n32\nx12481632\n64\nx12481632\n64\nfalse\n");
+
+        final File[] scenarios = Paths.get("src", "test", "resources", "scenarios").toFile()
+                .listFiles(File::isDirectory);
+        assertThat(scenarios).isNotEmpty();
+        for (File scenario : scenarios) {
+            final String source = new String(Files.readAllBytes(scenario.toPath().resolve("input.lox")),
+                    StandardCharsets.UTF_8);
+            assertThat(runFlat(source)).as(scenario.getName()).isEqualTo(runTree(source));
+        }
+    }
+
+    @Test
+    void raise_same_errors_as_the_tree_walker() {
+        for (String source : new String[]{"print -\"a\";", "print \"a\" < 1;", "print 1 + nil;", "\n\nprint c;",
+                "var b = 0; print \"a\" - (b = 1) * 2;", "{ { d = 1; } }"}) {
+            final RuntimeError tree = error(() -> runTree(source));
+            final RuntimeError flat = error(() -> runFlat(source));
+
+            assertThat(flat).hasMessage(tree.getMessage());
+            assertThat(flat.token.line).isEqualTo(tree.token.line);
+            assertThat(flat.getLoxStackTrace()).isEqualTo(tree.getLoxStackTrace());
+        }
+
+        final Interpreter interpreter = new Interpreter(Limits.none().maxInstructions(200), new StringBuilder());
+        assertThatThrownBy(() -> interpreter.run(flatten("while (true) {}")))
+                .hasMessage("Instruction limit of 200 exceeded.");
+    }
+
+    @Test
+    void survive_being_written_out_and_read_back() throws IOException {
+        final FlatProgram program = flatten(PROGRAM);
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        program.writeTo(bytes);
+        final FlatProgram read = FlatProgram.readFrom(new ByteArrayInputStream(bytes.toByteArray()));
+
+        assertThat(read.size()).isEqualTo(program.size());
+        assertThat(read.nodes).isEqualTo(program.nodes);
+        final StringBuilder out = new StringBuilder();
+        new Interpreter(Limits.none(), out).run(read);
+        assertThat(out.toString()).isEqualTo(runTree(PROGRAM));
+    }
+
+    @Test
+    void survive_being_written_out_and_read_back_with_strings_over_64_kib() throws IOException {
+        // three bytes of UTF-8 to each character, so writeUTF() would have taken a third of this
+        final String text = "\u20ac".repeat(30_000);
+        final String source = "var s = \"" + text + "\";\nprint s == \"" + text + "\";\n";
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        flatten(source).writeTo(bytes);
+        final FlatProgram read = FlatProgram.readFrom(new ByteArrayInputStream(bytes.toByteArray()));
+
+        final StringBuilder out = new StringBuilder();
+        new Interpreter(Limits.none(), out).run(read);
+        assertThat(out.toString()).isEqualTo(runTree(source)).isEqualTo("true\n");
+    }
+
+    private static String runTree(String source) {
+        final StringBuilder out = new StringBuilder();
+        new Interpreter(Limits.none(), out).run(parse(source));
+        return out.toString();
+    }
+
+    private static String runFlat(String source) {
+        final StringBuilder out = new StringBuilder();
+        new Interpreter(Limits.none(), out).run(flatten(source));
+        return out.toString();
+    }
+
+    private static FlatProgram flatten(String source) {
+        return FlatProgram.of(parse(source));
+    }
+
+    private static List<Stmt> parse(String source) {
+        return new Parser(new Scanner(source).scanTokens()).parse();
+    }
+
+    private static RuntimeError error(Runnable running) {
+        try {
+            running.run();
+        } catch (RuntimeError error) {
+            return error;
+        }
+        throw new AssertionError("Expected a runtime error.");
+    }
+}
@@ -0,0 +1,138 @@
+package com.caij.lox;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class IncrementalParserWill {
+
+    private static final String SOURCE = "var a = 1;\n" +
+            "var b = 2;\n" +
+            "// comment\n" +
+            "if (a > b) {\n" +
+            "    print a;\n" +
+            "} else print b;\n" +
+            "print a + b;\n";
+
+    @Test
+    void parse_same_statements_as_parser() {
+        final IncrementalParser parser = new IncrementalParser(SOURCE);
+
+        assertThat(parser.statements()).hasSize(4);
+        sameTokensAsFullScanOf(parser);
+    }
+
+    @Test
+    void only_reparse_declarations_touched_by_edit() {
+        final IncrementalParser parser = new IncrementalParser(SOURCE);
+        final List<Stmt> before = parser.statements();
+
+        // var b = 2; -> var b = 20;
+        parser.edit(SOURCE.indexOf("2;") + 1, 0, "0");
+        final List<Stmt> after = parser.statements();
+
+        assertThat(after).hasSize(4);
+        assertThat(after.get(2)).isSameAs(before.get(2));
+        assertThat(after.get(3)).isSameAs(before.get(3));
+        assertThat(((Stmt.Var) after.get(1)).initialiser).isInstanceOf(Expr.NumberLiteral.class);
+        assertThat(((Expr.NumberLiteral) ((Stmt.Var) after.get(1)).initialiser).value).isEqualTo(20.0);
+        sameTokensAsFullScanOf(parser);
+    }
+
+    @Test
+    void keep_line_numbers_correct_after_lines_are_added() {
+        final IncrementalParser parser = new IncrementalParser(SOURCE);
+
+        parser.edit(0, 0, "var c = 3;\n\n");
+
+        assertThat(parser.statements()).hasSize(5);
+        assertThat(((Stmt.Print) parser.statements().get(4)).expression).isInstanceOf(Expr.Binary.class);
+        assertThat(((Expr.Binary) ((Stmt.Print) parser.statements().get(4)).expression).operator.line).isEqualTo(9);
+        assertThat(parser.statements().get(4).line).isEqualTo(9);
+        assertThat(parser.tokens()).filteredOn(token -> token.type == TokenType.PLUS)
+                .extracting(token -> token.line).containsExactly(9);
+        sameTokensAsFullScanOf(parser);
+    }
+
+    @Test
+    void move_declarations_after_an_edit_that_adds_lines_only_once_asked_for() {
+        final IncrementalParser parser = new IncrementalParser(SOURCE);
+        final List<Stmt> before = parser.statements();
+
+        // var a = 1; -> var a =\n\n 1; and back, edits such as typing makes between two looks at the statements
+        parser.edit(SOURCE.indexOf("1;"), 0, "\n\n");
+        assertThat(parser.lineShift(3)).isEqualTo(2);
+        assertThat(parser.tokens()).extracting(token -> token.line).endsWith(9, 9, 9, 9, 9, 10);
+        parser.edit(SOURCE.indexOf("1;"), 2, "");
+        assertThat(parser.lineShift(3)).isZero();
+        assertThat(parser.statements().subList(1, 4)).containsExactlyElementsOf(before.subList(1, 4));
+
+        // moved declarations are only re-parsed (from the tokens they have) once their statements are asked for
+        parser.edit(SOURCE.indexOf("1;"), 0, "\n\n");
+        parser.edit(0, 0, "\n");
+        assertThat(parser.lineShift(3)).isEqualTo(3);
+        final List<Stmt> after = parser.statements();
+        assertThat(after).hasSize(4);
+        assertThat(parser.lineShift(3)).isZero();
+        assertThat(after.get(3).line).isEqualTo(before.get(3).line + 3).isEqualTo(10);
+        assertThat(parser.statements()).containsExactlyElementsOf(after);
+        sameTokensAsFullScanOf(parser);
+    }
+
+    @Test
+    void join_declarations_when_edit_removes_a_separator() {
+        final IncrementalParser parser = new IncrementalParser("var a = 1;\nprint a;\nprint a;\n");
+
+        // delete "print a;\n" entirely, then turn remaining "var a = 1;" into an unterminated string and back
+        parser.edit(11, 9, "");
+        assertThat(parser.statements()).hasSize(2);
+        sameTokensAsFullScanOf(parser);
+
+        parser.edit(8, 0, "\"");
+        assertThat(parser.hadError()).isTrue();
+        assertThat(parser.diagnostics()).extracting(Diagnostic::getMessage).contains("Unterminated string.");
+        sameTokensAsFullScanOf(parser);
+
+        parser.edit(8, 1, "");
+        assertThat(parser.hadError()).isFalse();
+        assertThat(parser.statements()).hasSize(2);
+        sameTokensAsFullScanOf(parser);
+    }
+
+    @Test
+    void attach_else_to_an_earlier_if() {
+        final IncrementalParser parser = new IncrementalParser("if (true) print 1;\nprint 2;\n");
+
+        parser.edit(19, 0, "else ");
+
+        assertThat(parser.statements()).hasSize(1);
+        assertThat(((Stmt.If) parser.statements().get(0)).elseBranch).isInstanceOf(Stmt.Print.class);
+        sameTokensAsFullScanOf(parser);
+    }
+
+    @Test
+    void move_columns_of_declarations_on_same_line() {
+        final IncrementalParser parser = new IncrementalParser("var a = 1; print 1 +;\n");
+
+        parser.edit(8, 1, "100");
+
+        assertThat(parser.diagnostics()).extracting(Diagnostic::getColumn).containsExactly(23);
+        sameTokensAsFullScanOf(parser);
+    }
+
+    private void sameTokensAsFullScanOf(IncrementalParser parser) {
+        final List<Token> expected = new Scanner(parser.source()).scanTokens();
+        final List<Token> actual = parser.tokens();
+
+        assertThat(actual).hasSameSizeAs(expected);
+        for (int i = 0; i < expected.size(); i++) {
+            assertThat(actual.get(i)).isEqualToComparingFieldByField(expected.get(i));
+        }
+        assertThat(parser.statements()).hasSameSizeAs(new Parser(expected, null, diagnostic -> {}).parse());
+        assertThat(parser.diagnostics())
+                .usingFieldByFieldElementComparator()
+                .containsExactlyInAnyOrderElementsOf(Diagnostics.check(parser.source()).all());
+    }
+}
@@ -0,0 +1,75 @@
+package com.caij.lox;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class InterpreterWill {
+
+    @Test
+    void evaluate_constant_arithmetic() {
+        assertThat(run("print 1 + 2 * 3 - -4 / (2 - 4);")).isEqualTo("5\n");
+        assertThat(run("print (1 + (2 + (3 + (4 + (5 + 6))))) * 2;")).isEqualTo("42\n");
+        assertThat(run("print 1 + 2 > 2 == 3 <= 3;")).isEqualTo("true\n");
+        assertThat(run("print 1 / 0; print -(0 / 0) == 0 / 0;")).isEqualTo("Infinity\ntrue\n");
+    }
+
+    @Test
+    void mix_constants_with_other_values() {
+        assertThat(run("var a = 2; print a * 3 + 1; print \"n\" + 1 * 2; print 1 + 1 + \"\";"))
+                .isEqualTo("7\nn2\n2\n");
+        assertThat(run("print true; print nil; print \"s\"; print -1.5;")).isEqualTo("true\nnil\ns\n-1.5\n");
+    }
+
+    @Test
+    void check_operands_only_once_both_are_evaluated() {
+        final Interpreter interpreter = new Interpreter(Limits.none(), new StringBuilder());
+
+        assertThatThrownBy(() -> run(interpreter, "var b = 0; print \"a\" - (b = 1) * 2;"))
+                .hasMessage("Operands must be numbers.");
+        assertThat(interpreter.globals().get(new Token(TokenType.IDENTIFIER, "b", null, 1))).isEqualTo(1.0);
+
+        assertThatThrownBy(() -> run("print -\"a\";")).hasMessage("Operand must be a number.");
+        assertThatThrownBy(() -> run("print 1 + nil;")).hasMessage("Operands must be two numbers or two strings.");
+    }
+
+    @Test
+    void compare_values_of_the_same_type_only() {
+        assertThat(run("var n = 0 / 0; print n == n; print 0 == -0; print -0 == -0; print nil == nil;" +
+                " print nil == false; print 1 == \"1\"; print [1] == [1]; var l = [1]; print l == l;"))
+                .isEqualTo("true\nfalse\ntrue\ntrue\nfalse\nfalse\nfalse\ntrue\n");
+        assertThat(run("var a = \"ab\"; var b = \"a\" + \"b\"; print a == b; print a != \"ab\"; print b == \"a\";"))
+                .isEqualTo("true\nfalse\nfalse\n");
+        assertThat(Interpreter.isEqual(Double.NaN, 0.0 / 0.0)).isTrue();
+        assertThat(Interpreter.isEqual(true, true)).isTrue();
+        assertThat(Interpreter.isEqual(1.0, true)).isFalse();
+    }
+
+    @Test
+    void intern_strings_made_by_concatenation_if_asked() {
+        final StringBuilder out = new StringBuilder();
+        final Interpreter interpreter = new Interpreter(Limits.none(), out);
+        interpreter.internStrings(true);
+        final Scanner scanner = new Scanner("var op = \"ad\" + \"d\"; print op == \"add\";");
+        scanner.internStrings(true);
+        final List<Token> tokens = scanner.scanTokens();
+        interpreter.run(new Parser(tokens).parse());
+
+        final Object op = interpreter.globals().get(new Token(TokenType.IDENTIFIER, "op", null, 1));
+        assertThat(op).isSameAs("add").isSameAs(tokens.get(10).literal);
+        assertThat(out.toString()).isEqualTo("true\n");
+    }
+
+    private String run(String source) {
+        final StringBuilder out = new StringBuilder();
+        run(new Interpreter(Limits.none(), out), source);
+        return out.toString();
+    }
+
+    private void run(Interpreter interpreter, String source) {
+        interpreter.run(new Parser(new Scanner(source).scanTokens()).parse());
+    }
+}
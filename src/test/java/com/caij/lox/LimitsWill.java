@@ -0,0 +1,72 @@
+package com.caij.lox;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThatCode;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class LimitsWill {
+
+    @Test
+    void stop_a_runaway_script_after_its_instruction_budget() {
+        assertThatThrownBy(() -> run("while (true) {}", Limits.none().maxInstructions(10_000)))
+                .isInstanceOf(RuntimeError.class)
+                .hasMessage("Instruction limit of 10000 exceeded.");
+    }
+
+    @Test
+    void allow_exactly_its_instruction_budget() {
+        // var statement and its literal
+        assertThatCode(() -> run("var a = 1;", Limits.none().maxInstructions(2))).doesNotThrowAnyException();
+        assertThatThrownBy(() -> run("var a = 1;", Limits.none().maxInstructions(1)))
+                .hasMessage("Instruction limit of 1 exceeded.");
+    }
+
+    @Test
+    void stop_a_runaway_script_after_its_timeout() {
+        assertThatThrownBy(() -> run("while (true) {}", Limits.none().timeout(Duration.ofMillis(50))))
+                .isInstanceOf(RuntimeError.class)
+                .hasMessage("Time limit of 50ms exceeded.");
+    }
+
+    @Test
+    void stop_environments_nesting_too_deeply() {
+        assertThatCode(() -> run("{{{}}}", Limits.none().maxEnvironmentDepth(3))).doesNotThrowAnyException();
+        assertThatThrownBy(() -> run("{{{{}}}}", Limits.none().maxEnvironmentDepth(3)))
+                .hasMessage("Environment depth limit of 3 exceeded.");
+    }
+
+    @Test
+    void stop_strings_growing_too_long() {
+        assertThatThrownBy(() -> run("var s = \"ab\"; while (true) s = s + s;", Limits.none().maxStringLength(100)))
+                .isInstanceOf(RuntimeError.class)
+                .hasMessage("String size limit of 100 exceeded.");
+    }
+
+    @Test
+    void reject_limits_no_execution_could_keep_to() {
+        assertThatThrownBy(() -> Limits.none().maxInstructions(-1))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Instruction limit must not be negative.");
+        assertThatThrownBy(() -> Limits.none().timeout(Duration.ZERO))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Time limit must be positive.");
+        assertThatThrownBy(() -> Limits.none().timeout(Duration.ofMillis(-50)))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> Limits.none().maxEnvironmentDepth(-1))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Environment depth limit must not be negative.");
+        assertThatThrownBy(() -> Limits.none().maxStringLength(-1))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("String size limit must not be negative.");
+        assertThatCode(() -> Limits.none().maxInstructions(0).maxStringLength(0)).doesNotThrowAnyException();
+    }
+
+    private void run(String source, Limits limits) {
+        final List<Stmt> statements = new Parser(new Scanner(source).scanTokens()).parse();
+        new Interpreter(limits).run(statements);
+    }
+}
@@ -0,0 +1,91 @@
+package com.caij.lox;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ListWill {
+
+    @Test
+    void read_and_write_elements() {
+        assertThat(run("var xs = [1, 2.5, 3]; print xs; print xs[1] * 2; xs[0] = xs[2] - 1; print xs; print [];"))
+                .isEqualTo("[1, 2.5, 3]\n5\n2\n[2, 2.5, 3]\n[]\n");
+        assertThat(run("var xs = [\"a\", nil, true, [1]]; print xs[0] + xs[3][0]; print xs;"))
+                .isEqualTo("a1\n[a, nil, true, [1]]\n");
+    }
+
+    @Test
+    void keep_numbers_unboxed_until_something_else_is_stored() {
+        final LoxList list = new LoxList(new Object[]{1.0, 2.0});
+        assertThat(list.isNumeric()).isTrue();
+        list.setNumber(1, 4);
+        assertThat(list.getNumber(1)).isEqualTo(4.0);
+
+        list.set(0, "a");
+        assertThat(list.isNumeric()).isFalse();
+        assertThat(list.get(0)).isEqualTo("a");
+        assertThat(list.get(1)).isEqualTo(4.0);
+        assertThat(list).hasToString("[a, 4]");
+
+        assertThat(new LoxList(new Object[]{1.0, null}).isNumeric()).isFalse();
+    }
+
+    @Test
+    void grow_as_elements_are_appended() {
+        final LoxList list = new LoxList();
+        for (int i = 0; i < 100; i++) {
+            list.appendNumber(i);
+        }
+        assertThat(list.size()).isEqualTo(100);
+        assertThat(list.isNumeric()).isTrue();
+
+        list.append(list);
+        list.append(1.0);
+        assertThat(list.size()).isEqualTo(102);
+        assertThat(list.get(99)).isEqualTo(99.0);
+        assertThat(list.toString()).endsWith("98, 99, [...], 1]");
+
+        assertThat(run("var xs = []; var i = 0; while (i < 20) { print append(xs, i * i); i = i + 1; }" +
+                " print len(xs); print xs[19];")).endsWith("nil\n20\n20\n361\n");
+    }
+
+    @Test
+    void raise_runtime_errors_for_bad_indexing() {
+        assertThatThrownBy(() -> run("var a = 1; a[0];")).hasMessage("Only lists and maps can be indexed.");
+        assertThatThrownBy(() -> run("\"ab\"[0] = 1;")).hasMessage("Only lists and maps can be indexed.");
+        assertThatThrownBy(() -> run("[1][\"0\"];")).hasMessage("Index must be a number.");
+        assertThatThrownBy(() -> run("[1][0.5];")).hasMessage("Index must be a whole number.");
+        assertThatThrownBy(() -> run("[1, 2][2];")).hasMessage("Index 2 is out of bounds for list of length 2.");
+        assertThatThrownBy(() -> run("[\"a\"][-1] = 1;"))
+                .hasMessage("Index -1 is out of bounds for list of length 1.");
+        assertThatThrownBy(() -> run("len(1);")).hasMessage("Argument 1 of 'len' must be a list.");
+    }
+
+    @Test
+    void run_the_same_in_flat_programs() {
+        final String source = "var xs = [3, 1, 2]; var i = 0;\n" +
+                "while (i < 3) { xs[i] = xs[i] * -xs[2 - i]; i = i + 1; }\n" +
+                "print xs; xs[1] = \"x\"; print xs; print [[1], 2][0][0] + 1;\n";
+        final StringBuilder out = new StringBuilder();
+        new Interpreter(Limits.none(), out).run(FlatProgram.of(parse(source)));
+
+        assertThat(out.toString()).isEqualTo(run(source))
+                .isEqualTo("-6\n1\n-1\n2\n12\n3\n[-6, -1, 12]\nx\n[-6, x, 12]\n2\n");
+        assertThatThrownBy(() -> new Interpreter(Limits.none(), new StringBuilder())
+                .run(FlatProgram.of(parse("[1, 2][2];"))))
+                .hasMessage("Index 2 is out of bounds for list of length 2.");
+    }
+
+    private static String run(String source) {
+        final StringBuilder out = new StringBuilder();
+        new Interpreter(Limits.none(), out).run(parse(source));
+        return out.toString();
+    }
+
+    private static List<Stmt> parse(String source) {
+        return new Parser(new Scanner(source).scanTokens()).parse();
+    }
+}
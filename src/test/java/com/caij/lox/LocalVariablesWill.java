@@ -0,0 +1,102 @@
+package com.caij.lox;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class LocalVariablesWill {
+
+    private static final String PROGRAM = "var a = \"global\";\n" +
+            "var i = 0;\n" +
+            "while (i < 3) {\n" +
+            "    print a;\n" +
+            "    var a = i * 10;\n" +
+            "    { var b = a + 1; var a = a + b; print a; a = a + 1; print a; }\n" +
+            "    var a = a + 5;\n" +
+            "    print a;\n" +
+            "    if (i == 1) { var c = [a]; c[0] = c[0] + 1; print c; }\n" +
+            "    i = i + 1;\n" +
+            "}\n" +
+            "print a;\n";
+
+    @Test
+    void resolve_locals_to_slots_given_back_when_blocks_end() {
+        final List<Stmt> statements = parse("var g = 1; { var a = g; { var b = a; } { var c = 2; var d = c; } }");
+        assertThat(LocalVariables.resolve(statements)).isEqualTo(3);
+
+        final Stmt.Block outer = (Stmt.Block) statements.get(1);
+        final Stmt.Var a = (Stmt.Var) outer.statements.get(0);
+        final Stmt.Var b = (Stmt.Var) ((Stmt.Block) outer.statements.get(1)).statements.get(0);
+        final Stmt.Block inner = (Stmt.Block) outer.statements.get(2);
+        final Stmt.Var d = (Stmt.Var) inner.statements.get(1);
+
+        assertThat(outer.flat).isTrue();
+        assertThat(((Stmt.Var) statements.get(0)).slot).isEqualTo(-1);
+        assertThat(((Expr.Variable) a.initialiser).slot).isEqualTo(-1);
+        assertThat(a.slot).isEqualTo(0);
+        assertThat(b.slot).isEqualTo(1);
+        assertThat(((Expr.Variable) b.initialiser).depth).isEqualTo(0);
+        assertThat(((Expr.Variable) b.initialiser).slot).isEqualTo(0);
+        assertThat(d.slot).isEqualTo(2);
+        assertThat(((Expr.Variable) d.initialiser).slot).isEqualTo(1);
+    }
+
+    @Test
+    void run_as_blocks_with_environments_of_their_own_do() throws IOException {
+        assertThat(run(PROGRAM, true)).isEqualTo(run(PROGRAM, false))
+                .isEqualTo("global\n1\n2\n2\n5\n1\nglobal\n21\n22\n22\n15\n16\n[16]\n2\n" +
+                        "global\n41\n42\n42\n25\n3\nglobal\n");
+        assertThat(runFlat(PROGRAM)).isEqualTo(run(PROGRAM, false));
+
+        final File[] scenarios = Paths.get("src", "test", "resources", "scenarios").toFile()
+                .listFiles(File::isDirectory);
+        assertThat(scenarios).isNotEmpty();
+        for (File scenario : scenarios) {
+            final String source = new String(Files.readAllBytes(scenario.toPath().resolve("input.lox")),
+                    StandardCharsets.UTF_8);
+            assertThat(run(source, true)).as(scenario.getName()).isEqualTo(run(source, false));
+            assertThat(runFlat(source)).as(scenario.getName()).isEqualTo(run(source, false));
+        }
+    }
+
+    @Test
+    void raise_the_same_errors_as_before() {
+        assertThatThrownBy(() -> run("{ print a; var a = 1; }", true)).hasMessage("Undefined variable 'a'.");
+        assertThatThrownBy(() -> run("{ var a = 1; } a = 2;", true)).hasMessage("Undefined variable 'a'.");
+
+        final List<Stmt> nested = parse("{ var a = 1; { { print a; } } }");
+        LocalVariables.resolve(nested);
+        assertThatThrownBy(() -> new Interpreter(Limits.none().maxEnvironmentDepth(2), new StringBuilder()).run(nested))
+                .hasMessage("Environment depth limit of 2 exceeded.");
+    }
+
+    private static String run(String source, boolean resolved) {
+        final List<Stmt> statements = parse(source);
+        if (resolved) LocalVariables.resolve(statements);
+
+        final StringBuilder out = new StringBuilder();
+        new Interpreter(Limits.none(), out).run(statements);
+        return out.toString();
+    }
+
+    private static String runFlat(String source) {
+        final List<Stmt> statements = parse(source);
+        LocalVariables.resolve(statements);
+
+        final StringBuilder out = new StringBuilder();
+        new Interpreter(Limits.none(), out).run(FlatProgram.of(statements));
+        return out.toString();
+    }
+
+    private static List<Stmt> parse(String source) {
+        return new Parser(new Scanner(source).scanTokens()).parse();
+    }
+}
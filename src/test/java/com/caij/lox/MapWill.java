@@ -0,0 +1,97 @@
+package com.caij.lox;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class MapWill {
+
+    @Test
+    void look_up_values_by_key() {
+        assertThat(run("var m = {\"one\": 1, 2: \"two\", true: [3]}; print m[\"one\"] + 1; print m[1 + 1];" +
+                " print m[true][0]; print m[\"none\"]; print m;"))
+                .isEqualTo("2\ntwo\n3\nnil\n{one: 1, 2: two, true: [3]}\n");
+        assertThat(run("var m = {}; m[\"a\"] = 1; m[\"a\"] = m[\"a\"] * 10; print m; print {};"))
+                .isEqualTo("1\n10\n{a: 10}\n{}\n");
+    }
+
+    @Test
+    void compare_number_keys_as_lox_compares_numbers() {
+        final LoxMap map = new LoxMap();
+        map.putNumber(0.0 / 0.0, "nan");
+        map.put(-0.0, "negative zero");
+        map.put(1.0, "one");
+
+        assertThat(map.getNumber(Double.NaN)).isEqualTo("nan");
+        assertThat(map.get(0.0)).isNull();
+        assertThat(map.get(-0.0)).isEqualTo("negative zero");
+        assertThat(map.get("1")).isNull();
+        assertThat(map.getNumber(1)).isEqualTo("one");
+        assertThat(map.size()).isEqualTo(3);
+    }
+
+    @Test
+    void grow_and_remove_keeping_insertion_order() {
+        final LoxMap map = new LoxMap();
+        for (int i = 0; i < 1000; i++) {
+            map.putNumber(i, i % 2 == 0 ? "even" : "odd");
+            map.put("k" + i, (double) i);
+        }
+        for (int i = 0; i < 1000; i += 2) {
+            assertThat(map.remove((double) i)).isEqualTo("even");
+            assertThat(map.remove("k" + i)).isEqualTo((double) i);
+        }
+        map.put("last", null);
+        for (int i = 0; i < 100; i++) {
+            map.put("more" + i, null);
+        }
+
+        assertThat(map.size()).isEqualTo(1101);
+        assertThat(map.has((double) 2)).isFalse();
+        assertThat(map.has("k3")).isTrue();
+        assertThat(map.has("last")).isTrue();
+        assertThat(map.remove("k0")).isNull();
+        assertThat(map.get("k999")).isEqualTo(999.0);
+        assertThat(map.keys().get(0)).isEqualTo(1.0);
+        assertThat(map.keys().get(1)).isEqualTo("k1");
+        assertThat(map.keys().get(1000)).isEqualTo("last");
+    }
+
+    @Test
+    void be_iterated_over_through_its_keys() {
+        assertThat(run("var m = {\"b\": 2, \"a\": 1}; m[\"c\"] = 3; print remove(m, \"b\");\n" +
+                "var ks = keys(m); var i = 0; var total = 0;\n" +
+                "while (i < len(ks)) { print ks[i]; total = total + m[ks[i]]; i = i + 1; }\n" +
+                "print total; print has(m, \"a\"); print has(m, \"b\");"))
+                .isEqualTo("3\n2\na\n1\n1\nc\n4\n2\n4\ntrue\nfalse\n");
+    }
+
+    @Test
+    void raise_runtime_errors_for_nil_keys() {
+        assertThatThrownBy(() -> run("var m = {}; m[nil] = 1;")).hasMessage("Map keys cannot be nil.");
+        assertThatThrownBy(() -> run("print {nil: 1};")).hasMessage("Map keys cannot be nil.");
+        assertThatThrownBy(() -> run("keys([]);")).hasMessage("Argument 1 of 'keys' must be a map.");
+    }
+
+    @Test
+    void run_the_same_in_flat_programs() {
+        final String source = "var m = {1: 2, \"x\": \"y\"}; m[1] = m[1] * 3; m[nil == nil] = m[\"x\"]; print m;";
+        final StringBuilder out = new StringBuilder();
+        new Interpreter(Limits.none(), out).run(FlatProgram.of(parse(source)));
+
+        assertThat(out.toString()).isEqualTo(run(source)).isEqualTo("6\ny\n{1: 6, x: y, true: y}\n");
+    }
+
+    private static String run(String source) {
+        final StringBuilder out = new StringBuilder();
+        new Interpreter(Limits.none(), out).run(parse(source));
+        return out.toString();
+    }
+
+    private static List<Stmt> parse(String source) {
+        return new Parser(new Scanner(source).scanTokens()).parse();
+    }
+}
@@ -0,0 +1,126 @@
+package com.caij.lox;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static java.lang.invoke.MethodType.methodType;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class NativesWill {
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    @Test
+    void call_the_standard_library() {
+        final Environment globals = Natives.standardLibrary().defineIn(new Environment());
+
+        assertThat(run(globals, "print sqrt(2 * 8); print pow(2, 10); print floor(-0.5); print clock() > 0;"))
+                .isEqualTo("4\n1024\n-1\ntrue\n");
+    }
+
+    @Test
+    void call_java_methods_bound_by_embedder() throws ReflectiveOperationException {
+        final Map<String, Integer> stock = Map.of("apples", 3);
+        final Environment globals = new Natives()
+                .bind("stock", LOOKUP.findVirtual(Map.class, "get", methodType(Object.class, Object.class))
+                        .bindTo(stock))
+                .bind("length", LOOKUP.findVirtual(String.class, "length", methodType(int.class)))
+                .bind("shout", LOOKUP.findStatic(NativesWill.class, "shout", methodType(String.class, String.class,
+                        boolean.class)))
+                .bind("ignore", LOOKUP.findStatic(NativesWill.class, "ignore", methodType(void.class, Object.class)))
+                .bind("clamp", LOOKUP.findStatic(NativesWill.class, "clamp", methodType(double.class, double.class,
+                        double.class, double.class)))
+                .defineIn(new Environment());
+
+        assertThat(run(globals, "print stock(\"apples\") + 1; print stock(\"pears\"); print length(\"four\") * 2;" +
+                " print shout(\"hi\", true); print ignore(1); print clamp(12, 0, 10);"))
+                .isEqualTo("4\nnil\n8\nHI!\nnil\n10\n");
+        assertThatThrownBy(() -> run(globals, "clamp(1, 2, \"3\");"))
+                .hasMessage("Argument 3 of 'clamp' must be a number.");
+    }
+
+    @Test
+    void check_types_when_binding() {
+        assertThatThrownBy(() -> new Natives().bind("at",
+                LOOKUP.findVirtual(String.class, "charAt", methodType(char.class, int.class))))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("'at' takes int, which Lox has no equivalent of.");
+        assertThatThrownBy(() -> new Natives().bind("list",
+                LOOKUP.findStatic(List.class, "of", methodType(List.class))))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("'list' returns java.util.List, which Lox has no equivalent of.");
+    }
+
+    @Test
+    void raise_runtime_errors_for_bad_calls() throws ReflectiveOperationException {
+        final Environment globals = Natives.standardLibrary()
+                .bind("shout", LOOKUP.findStatic(NativesWill.class, "shout", methodType(String.class, String.class,
+                        boolean.class)))
+                .defineIn(new Environment());
+
+        assertThatThrownBy(() -> run(globals, "sqrt(1, 2);")).hasMessage("Expected 1 arguments but got 2.");
+        assertThatThrownBy(() -> run(globals, "sqrt(\"4\");")).hasMessage("Argument 1 of 'sqrt' must be a number.");
+        assertThatThrownBy(() -> run(globals, "shout(\"a\", nil);"))
+                .hasMessage("Argument 2 of 'shout' must be a boolean.");
+        assertThatThrownBy(() -> run(globals, "\"sqrt\"(4);")).hasMessage("Can only call functions and classes.");
+        assertThatThrownBy(() -> run(globals, "shout(\"\", true);"))
+                .isInstanceOf(RuntimeError.class)
+                .hasMessage("Native function 'shout' failed: java.lang.IllegalArgumentException: Nothing to shout.");
+    }
+
+    @Test
+    void let_the_jvm_failing_through_whatever_the_number_of_arguments() throws ReflectiveOperationException {
+        final MethodHandle overflow = LOOKUP.findStatic(NativesWill.class, "overflow", methodType(void.class));
+        final Natives natives = new Natives();
+        for (int arity = 0; arity <= 3; arity++) {
+            natives.bind("overflow" + arity, MethodHandles.dropArguments(overflow, 0,
+                    Collections.nCopies(arity, Object.class)));
+        }
+        final Environment globals = natives.defineIn(new Environment());
+
+        for (String call : List.of("overflow0();", "overflow1(1);", "overflow2(1, 2);", "overflow3(1, 2, 3);")) {
+            assertThatThrownBy(() -> run(globals, call)).isInstanceOf(StackOverflowError.class);
+        }
+    }
+
+    @Test
+    void call_natives_from_flat_programs_too() {
+        final StringBuilder out = new StringBuilder();
+        new Interpreter(Limits.none(), out)
+                .run(FlatProgram.of(parse("print max(1, sqrt(9)) + abs(-1);")));
+
+        assertThat(out.toString()).isEqualTo("4\n");
+    }
+
+    private static String shout(String text, boolean loudly) {
+        if (text.isEmpty()) throw new IllegalArgumentException("Nothing to shout.");
+        return loudly ? text.toUpperCase() + "!" : text;
+    }
+
+    private static void ignore(Object value) {
+    }
+
+    private static void overflow() {
+        throw new StackOverflowError();
+    }
+
+    private static double clamp(double value, double low, double high) {
+        return Math.max(low, Math.min(value, high));
+    }
+
+    private static String run(Environment globals, String source) {
+        final StringBuilder out = new StringBuilder();
+        new Interpreter(Limits.none(), out, globals).run(parse(source));
+        return out.toString();
+    }
+
+    private static List<Stmt> parse(String source) {
+        return new Parser(new Scanner(source).scanTokens()).parse();
+    }
+}
@@ -0,0 +1,74 @@
+package com.caij.lox;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ParserWill {
+
+    @Test
+    void bind_operators_by_precedence() {
+        assertThat(parse("1 + 2 * 3 - 4 / 5;")).isEqualTo("(- (+ 1.0 (* 2.0 3.0)) (/ 4.0 5.0))");
+        assertThat(parse("a or b and c == d < e + f * -g;"))
+                .isEqualTo("(or a (and b (== c (< d (+ e (* f (- g)))))))");
+        assertThat(parse("!!true == false;")).isEqualTo("(== (! (! true)) false)");
+        assertThat(parse("(1 + 2) * 3;")).isEqualTo("(* (group (+ 1.0 2.0)) 3.0)");
+    }
+
+    @Test
+    void associate_binary_operators_left_and_assignment_right() {
+        assertThat(parse("1 - 2 - 3;")).isEqualTo("(- (- 1.0 2.0) 3.0)");
+        assertThat(parse("true != false != true;")).isEqualTo("(!= (!= true false) true)");
+        assertThat(parse("a or b or c;")).isEqualTo("(or (or a b) c)");
+        assertThat(parse("a = b = 1 + 2;")).isEqualTo("(= a (= b (+ 1.0 2.0)))");
+    }
+
+    @Test
+    void bind_calls_more_tightly_than_unary_operators() {
+        assertThat(parse("-f(1, a + 2)(3) * 2;")).isEqualTo("(* (- (call (call f 1.0 (+ a 2.0)) 3.0)) 2.0)");
+        assertThat(parse("(f)();")).isEqualTo("(call (group f))");
+        assertThat(Diagnostics.check("f(1;").all()).extracting(Diagnostic::getMessage)
+                .containsExactly("Expect ')' after arguments.");
+    }
+
+    @Test
+    void parse_list_literals_indexing_and_index_assignment() {
+        assertThat(parse("[];")).isEqualTo("(list)");
+        assertThat(parse("-[1, [a]][0][i + 1];")).isEqualTo("(- ([] ([] (list 1.0 (list a)) 0.0) (+ i 1.0)))");
+        assertThat(parse("f(a)[0] = b[1] = 2;")).isEqualTo("([]= (call f a) 0.0 ([]= b 1.0 2.0))");
+        assertThat(Diagnostics.check("[1, 2;\na[0;\n[a][0] + 1 = 2;").all()).extracting(Diagnostic::getMessage)
+                .containsExactly("Expect ']' after list elements.", "Expect ']' after index.",
+                        "Invalid assignment target.");
+    }
+
+    @Test
+    void parse_map_literals_in_expressions_and_blocks_in_statements() {
+        assertThat(parse("({\"a\": 1, 2: [b]})[c];")).isEqualTo("([] (group (map a 1.0 2.0 (list b))) c)");
+        assertThat(parse("f({});")).isEqualTo("(call f (map))");
+        assertThat(Diagnostics.check("{ a; }").hasErrors()).isFalse();
+        assertThat(Diagnostics.check("print {1 2};\nprint {1: 2;").all()).extracting(Diagnostic::getMessage)
+                .containsExactly("Expect ':' after map key.", "Expect '}' after map entries.");
+    }
+
+    @Test
+    void report_errors_at_same_tokens_as_before() {
+        assertThat(Diagnostics.check("1 + 2 = 3;\n-a = 1 = 2;\nprint 1 +;\nprint (1;").all())
+                .extracting(Diagnostic::toString)
+                .containsExactly(
+                        "[line 1] Error at '=': Invalid assignment target.",
+                        "[line 2] Error at '=': Invalid assignment target.",
+                        "[line 2] Error at '=': Invalid assignment target.",
+                        "[line 3] Error at ';': Expect expression.",
+                        "[line 4] Error at ';': Expect ')' after expression.");
+        assertThat(Diagnostics.check("print 1 +").all())
+                .extracting(Diagnostic::toString)
+                .containsExactly("[line 1] Error at end: Expect expression.");
+    }
+
+    private String parse(String source) {
+        final List<Stmt> statements = new Parser(new Scanner(source).scanTokens()).parse();
+        return new AstPrinter().print(((Stmt.Expression) statements.get(0)).expression);
+    }
+}
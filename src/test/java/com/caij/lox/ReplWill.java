@@ -0,0 +1,61 @@
+package com.caij.lox;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ReplWill {
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+    @Test
+    void keep_variables_between_entries() throws IOException {
+        run("var a = 1;\nvar b = a + 1;\nprint a + b;\n");
+
+        assertThat(out.toString()).isEqualTo(">>> >>> >>> 3\n>>> \n");
+        assertThat(err.toString()).isEmpty();
+    }
+
+    @Test
+    void buffer_lines_until_entry_is_complete() throws IOException {
+        run("var s = \"multi\nline\";\nif (true) {\n  print s;\n}\nprint\n  1\n  ;\n");
+
+        assertThat(out.toString()).isEqualTo(">>> ... >>> ... ... multi\nline\n>>> ... ... 1\n>>> \n");
+        assertThat(err.toString()).isEmpty();
+    }
+
+    @Test
+    void report_errors_and_carry_on() throws IOException {
+        run("print nope;\nprint 1 +;\nprint 2;\nprint (3\n\nprint 4;\n");
+
+        assertThat(out.toString()).isEqualTo(">>> >>> >>> 2\n>>> ... >>> 4\n>>> \n");
+        assertThat(err.toString()).isEqualTo("Undefined variable 'nope'.\n[line 1]\n" +
+                "[line 1] Error at ';': Expect expression.\n" +
+                "[line 2] Error at end: Expect ')' after expression.\n");
+    }
+
+    @Test
+    void run_what_is_left_when_input_ends() throws IOException {
+        run("print 1");
+
+        assertThat(out.toString()).isEqualTo(">>> ... \n");
+        assertThat(err.toString()).isEqualTo("[line 2] Error at end: Expect ';' after value.\n");
+    }
+
+    @Test
+    void report_how_long_each_entry_took() throws IOException {
+        new Repl(new StringReader("print 1;\n"), new PrintStream(out), new PrintStream(err), true).run();
+
+        assertThat(err.toString()).matches("\\[\\d+\\.\\d{3} ms]\n");
+    }
+
+    private void run(String input) throws IOException {
+        new Repl(new StringReader(input), new PrintStream(out), new PrintStream(err), false).run();
+    }
+}
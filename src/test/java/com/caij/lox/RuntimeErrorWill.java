@@ -0,0 +1,28 @@
+package com.caij.lox;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RuntimeErrorWill {
+
+    private final Token minus = new Token(TokenType.MINUS, "-", null, 3);
+
+    @Test
+    void not_capture_a_java_stack_trace() {
+        final RuntimeError error = new RuntimeError(minus, "Operand must be a number.");
+
+        assertThat(error.getStackTrace()).isEmpty();
+        assertThat(error.getMessage()).isEqualTo("Operand must be a number.");
+    }
+
+    @Test
+    void keep_a_trace_of_the_script_instead() {
+        final RuntimeError error = new RuntimeError(minus, "Operand must be a number.");
+
+        error.addFrame("inner", 3);
+        error.addFrame("script", 7);
+
+        assertThat(error.getLoxStackTrace()).containsExactly("at inner (line 3)", "at script (line 7)");
+    }
+}
@@ -2,11 +2,15 @@ package com.caij.lox;
 
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Locale;
 
 import static com.caij.lox.TokenType.*;
 import static java.util.List.of;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
 
 public class ScannerWill {
 
@@ -44,6 +48,7 @@ public class ScannerWill {
 
         // single and two character tokens
         inputOf("and").willProduce(of(new Token(TokenType.AND, "and", null, 1), eofOn(1)));
+        inputOf("break").willProduce(of(new Token(TokenType.BREAK, "break", null, 1), eofOn(1)));
         inputOf("class").willProduce(of(new Token(TokenType.CLASS, "class", null, 1), eofOn(1)));
         inputOf("else").willProduce(of(new Token(TokenType.ELSE, "else", null, 1), eofOn(1)));
         inputOf("false").willProduce(of(new Token(TokenType.FALSE, "false", null, 1), eofOn(1)));
@@ -64,6 +69,9 @@ public class ScannerWill {
         inputOf(")").willProduce(of(new Token(TokenType.RIGHT_PAREN, ")", null, 1), eofOn(1)));
         inputOf("{").willProduce(of(new Token(TokenType.LEFT_BRACE, "{", null, 1), eofOn(1)));
         inputOf("}").willProduce(of(new Token(TokenType.RIGHT_BRACE, "}", null, 1), eofOn(1)));
+        inputOf("[").willProduce(of(new Token(TokenType.LEFT_BRACKET, "[", null, 1), eofOn(1)));
+        inputOf("]").willProduce(of(new Token(TokenType.RIGHT_BRACKET, "]", null, 1), eofOn(1)));
+        inputOf(":").willProduce(of(new Token(TokenType.COLON, ":", null, 1), eofOn(1)));
         inputOf(",").willProduce(of(new Token(TokenType.COMMA, ",", null, 1), eofOn(1)));
         inputOf(".").willProduce(of(new Token(TokenType.DOT, ".", null, 1), eofOn(1)));
         inputOf("-").willProduce(of(new Token(TokenType.MINUS, "-", null, 1), eofOn(1)));
@@ -83,6 +91,116 @@ public class ScannerWill {
         inputOf(">=").willProduce(of(new Token(GREATER_EQUAL, ">=", null, 1), eofOn(1)));
     }
 
+    @Test
+    public void skip_whitespace_comments_and_strings_longer_than_a_word() {
+        // runs of whitespace, counting every newline in them
+        inputOf("    \t\t  \r\n        \n\n\n   hello  \n\n\n\n\n\n\n\n\n\n  world").willProduce(of(
+                new Token(TokenType.IDENTIFIER, "hello", null, 5),
+                new Token(TokenType.IDENTIFIER, "world", null, 15),
+                eofOn(15)
+        ));
+
+        // multi-line comments may contain stars and slashes, and count their lines
+        inputOf("/* a * multi-line / comment **\n spanning ** lines\n*/ hello").willProduce(of(
+                new Token(TokenType.IDENTIFIER, "hello", null, 3),
+                eofOn(3)
+        ));
+        inputOf("/**/hello").willProduce(of(new Token(TokenType.IDENTIFIER, "hello", null, 1), eofOn(1)));
+
+        // long comments and strings, with characters outside ASCII kept in string values
+        inputOf("// a comment much longer than eight characters \n hello").willProduce(of(
+                new Token(TokenType.IDENTIFIER, "hello", null, 2),
+                eofOn(2)
+        ));
+        inputOf("\"a string, spanning\nlines and \u00fcn\u00efc\u00f6d\u00e9\" hello").willProduce(of(
+                new Token(TokenType.STRING, "\"a string, spanning\nlines and \u00fcn\u00efc\u00f6d\u00e9\"",
+                        "a string, spanning\nlines and \u00fcn\u00efc\u00f6d\u00e9", 2),
+                new Token(TokenType.IDENTIFIER, "hello", null, 2),
+                eofOn(2)
+        ));
+
+        assertThat(Diagnostics.check("/* never\n closed *").all())
+                .extracting(Diagnostic::getLine, Diagnostic::getMessage)
+                .containsExactly(tuple(2, "Unterminated multi-line block comment."));
+        assertThat(Diagnostics.check("var \u00e9 = 1;").all())
+                .extracting(Diagnostic::getColumn, Diagnostic::getMessage)
+                .contains(tuple(5, "Unexpected character."));
+    }
+
+    @Test
+    public void tell_keywords_from_identifiers_they_start_or_are_started_by() {
+        for (TokenType keyword : EnumSet.range(AND, WHILE)) {
+            final String text = keyword.name().toLowerCase(Locale.ROOT);
+            inputOf(text).willProduce(of(new Token(keyword, text, null, 1), eofOn(1)));
+
+            final String prefix = text.substring(0, text.length() - 1);
+            inputOf(prefix).willProduce(of(new Token(TokenType.IDENTIFIER, prefix, null, 1), eofOn(1)));
+            inputOf(text + "x").willProduce(of(new Token(TokenType.IDENTIFIER, text + "x", null, 1), eofOn(1)));
+            inputOf("_" + text).willProduce(of(new Token(TokenType.IDENTIFIER, "_" + text, null, 1), eofOn(1)));
+        }
+
+        for (String identifier : of("an", "andy", "printer", "whilex", "f", "fa", "fore", "funny", "th", "thistle",
+                "t", "tr", "nill", "o", "classy", "AND", "While")) {
+            inputOf(identifier).willProduce(of(new Token(TokenType.IDENTIFIER, identifier, null, 1), eofOn(1)));
+        }
+    }
+
+    @Test
+    public void read_whole_numbers_without_parsing_as_parsed_numbers_read() {
+        // up to 15 digits, read digit by digit
+        inputOf("007").willProduce(of(new Token(TokenType.NUMBER, "007", 7.0, 1), eofOn(1)));
+        inputOf("123456789012345").willProduce(of(
+                new Token(TokenType.NUMBER, "123456789012345", 123456789012345.0, 1), eofOn(1)));
+        inputOf("999999999999999").willProduce(of(
+                new Token(TokenType.NUMBER, "999999999999999", 999999999999999.0, 1), eofOn(1)));
+
+        // 16 digits and more may not be exactly representable, or even fit a long, so are parsed (and rounded)
+        inputOf("9007199254740993").willProduce(of(
+                new Token(TokenType.NUMBER, "9007199254740993", 9007199254740992.0, 1), eofOn(1)));
+        inputOf("123456789012345678901").willProduce(of(
+                new Token(TokenType.NUMBER, "123456789012345678901", 1.2345678901234568E20, 1), eofOn(1)));
+
+        // fractions, however short
+        inputOf("0.1").willProduce(of(new Token(TokenType.NUMBER, "0.1", 0.1, 1), eofOn(1)));
+        inputOf("12345678901234.5").willProduce(of(
+                new Token(TokenType.NUMBER, "12345678901234.5", 12345678901234.5, 1), eofOn(1)));
+
+        // a dot not followed by a digit is not part of the number
+        inputOf("12.").willProduce(of(
+                new Token(TokenType.NUMBER, "12", 12.0, 1), new Token(TokenType.DOT, ".", null, 1), eofOn(1)));
+    }
+
+    @Test
+    public void take_no_character_outside_ascii_for_a_letter_or_digit() {
+        // letters and digits of other scripts, within the first 256 characters and beyond
+        final List<Diagnostic> diagnostics = new ArrayList<>();
+        final List<Token> tokens = new Scanner("caf\u00e9 x\u0661 \u00b2 \u03bb1", diagnostics::add).scanTokens();
+
+        assertThat(tokens).extracting(token -> token.type, token -> token.lexeme).containsExactly(
+                tuple(IDENTIFIER, "caf"),
+                tuple(IDENTIFIER, "x"),
+                tuple(NUMBER, "1"),
+                tuple(EOF, "")
+        );
+        assertThat(diagnostics).extracting(Diagnostic::getColumn, Diagnostic::getMessage).containsExactly(
+                tuple(4, "Unexpected character."),
+                tuple(7, "Unexpected character."),
+                tuple(9, "Unexpected character."),
+                tuple(11, "Unexpected character.")
+        );
+    }
+
+    @Test
+    public void intern_string_literals_only_if_asked() {
+        final Scanner interning = new Scanner("\"add\" \"add\"");
+        interning.internStrings(true);
+        final List<Token> interned = interning.scanTokens();
+        assertThat(interned.get(0).literal).isSameAs(interned.get(1).literal).isSameAs("add");
+
+        final List<Token> copied = new Scanner("\"add\" \"add\"").scanTokens();
+        assertThat(copied.get(0).literal).isEqualTo("add").isNotSameAs("add").isNotSameAs(copied.get(1).literal);
+    }
+
     private Token eofOn(int line) {
         return new Token(TokenType.EOF, "", null, line);
     }
@@ -104,6 +222,7 @@ public class ScannerWill {
 
             List<Token> tokens = scanner.scanTokens();
 
+            assertThat(tokens).hasSameSizeAs(expectedTokens);
             for (int i = 0; i < expectedTokens.size(); i++) {
                 assertThat(tokens.get(i)).isEqualToComparingFieldByField(expectedTokens.get(i));
             }
@@ -0,0 +1,71 @@
+package com.caij.lox;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class SharedEnvironmentWill {
+
+    @Test
+    void behave_as_a_global_environment() {
+        final Environment shared = Environment.shared();
+
+        run("var a = 1; { var b = a + 1; a = b; }", shared);
+
+        assertThat(shared.get(name("a"))).isEqualTo(2.0);
+        assertThatThrownBy(() -> shared.get(name("b"))).isInstanceOf(RuntimeError.class);
+        assertThatThrownBy(() -> run("c = 1;", shared)).isInstanceOf(RuntimeError.class);
+    }
+
+    @Test
+    void be_used_by_many_interpreters_at_once() throws Exception {
+        final Environment shared = Environment.shared();
+        run("var config = 42;", shared);
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+
+        try {
+            final List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 1_000; i++) {
+                final String script = "var own" + i + " = config + " + i + "; print own" + i + ";";
+                results.add(executor.submit(() -> run(script, shared)));
+            }
+
+            for (int i = 0; i < results.size(); i++) {
+                assertThat(results.get(i).get()).isEqualTo((42 + i) + "\n");
+                assertThat(shared.get(name("own" + i))).isEqualTo(42.0 + i);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void make_assignments_visible_to_other_threads() throws Exception {
+        final Environment shared = Environment.shared();
+        run("var ready = false;", shared);
+
+        final Thread reader = new Thread(() -> run("while (!ready) {}", shared));
+        reader.start();
+        run("ready = true;", shared);
+        reader.join(10_000);
+
+        assertThat(reader.isAlive()).isFalse();
+    }
+
+    private String run(String source, Environment globals) {
+        final StringBuilder out = new StringBuilder();
+        new Interpreter(Limits.none(), out, globals).run(new Parser(new Scanner(source).scanTokens()).parse());
+        return out.toString();
+    }
+
+    private Token name(String lexeme) {
+        return new Token(TokenType.IDENTIFIER, lexeme, null, 1);
+    }
+}
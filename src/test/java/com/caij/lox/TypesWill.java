@@ -0,0 +1,121 @@
+package com.caij.lox;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TypesWill {
+
+    @Test
+    void infer_types_of_variables_from_what_was_assigned() {
+        final List<Stmt> statements = parse("var x = 1; x = x * 2; var s = \"a\" + x; { var b = x < 2; print b; }\n" +
+                "var n; print n; print len(s); print -s;");
+        Types.infer(statements);
+
+        final Expr.Assign assign = (Expr.Assign) ((Stmt.Expression) statements.get(1)).expression;
+        assertThat(((Expr.Binary) assign.value).left.type).isEqualTo(Types.NUMBER);
+        assertThat(assign.type).isEqualTo(Types.NUMBER);
+        assertThat(((Stmt.Var) statements.get(2)).initialiser.type).isEqualTo(Types.STRING);
+        final Stmt.Block block = (Stmt.Block) statements.get(3);
+        assertThat(((Stmt.Print) block.statements.get(1)).expression.type).isEqualTo(Types.BOOLEAN);
+        assertThat(((Stmt.Print) statements.get(5)).expression.type).isEqualTo(Types.NIL);
+        assertThat(((Stmt.Print) statements.get(6)).expression.type).isEqualTo(Types.UNKNOWN);
+        assertThat(((Stmt.Print) statements.get(7)).expression.type).isEqualTo(Types.NUMBER);
+    }
+
+    @Test
+    void only_keep_types_every_path_agrees_on() {
+        final List<Stmt> statements = parse("var a = 1; var b = 1; var c = 1; var d = \"d\"; var i = 0;\n" +
+                "while (i < 10) { print a; a = \"a\"; if (i > 5) b = true; else b = false; i = i + 1;" +
+                " if (i == 3) { d = 3; break; } c = c + 1; }\n" +
+                "print a; print b; print c; print d; print (a == nil) or nil; print nil or (b = 2); print b;");
+        Types.infer(statements);
+
+        final Stmt.Block body = (Stmt.Block) ((Stmt.While) statements.get(5)).body;
+        assertThat(((Stmt.Print) body.statements.get(0)).expression.type).isEqualTo(Types.UNKNOWN);
+        assertThat(((Expr.Binary) ((Stmt.While) statements.get(5)).condition).left.type).isEqualTo(Types.NUMBER);
+        // the loop may not run at all, leaving a and b as they were before it
+        assertThat(types(statements.subList(6, 13)))
+                .containsExactly(Types.UNKNOWN, Types.UNKNOWN, Types.NUMBER, Types.UNKNOWN, Types.UNKNOWN,
+                        Types.UNKNOWN, Types.UNKNOWN);
+    }
+
+    @Test
+    void run_as_it_did_before_types_were_inferred() throws IOException {
+        final String source = "var x = 1; var s = \"s\"; var i = 0;\n" +
+                "while (i < 5) { x = x * 2 + i; s = s + x; { var y = -x; print (y + 1) / 2 + x; } i = i + 1; }\n" +
+                "print s + s; print x + i;";
+        assertThat(run(source, true)).isEqualTo(run(source, false)).isEqualTo(runFlat(source))
+                .endsWith("s25122758s25122758\n63\n");
+
+        final File[] scenarios = Paths.get("src", "test", "resources", "scenarios").toFile()
+                .listFiles(File::isDirectory);
+        assertThat(scenarios).isNotEmpty();
+        for (File scenario : scenarios) {
+            final String input = new String(Files.readAllBytes(scenario.toPath().resolve("input.lox")),
+                    StandardCharsets.UTF_8);
+            assertThat(run(input, true)).as(scenario.getName()).isEqualTo(run(input, false));
+            assertThat(runFlat(input)).as(scenario.getName()).isEqualTo(run(input, false));
+        }
+    }
+
+    @Test
+    void raise_the_same_errors_where_types_are_not_known() {
+        for (String source : new String[]{"var a = \"a\"; print -a;", "var a = 1; var b = nil; print a < b;",
+                "var s = \"s\"; var n = nil; print s + n;", "var i = 0; var x = 1;\n" +
+                "while (i < 3) { print x * 2; if (i == 1) x = \"x\"; i = i + 1; }",
+                "var l = [1]; print l[0] + \"a\" - 1;"}) {
+            final RuntimeError inferred = error(() -> run(source, true));
+            final RuntimeError checked = error(() -> run(source, false));
+            final RuntimeError flat = error(() -> runFlat(source));
+
+            assertThat(inferred).hasMessage(checked.getMessage());
+            assertThat(inferred.token.line).isEqualTo(checked.token.line);
+            assertThat(flat).hasMessage(checked.getMessage());
+        }
+    }
+
+    private static int[] types(List<Stmt> prints) {
+        return prints.stream().mapToInt(print -> ((Stmt.Print) print).expression.type).toArray();
+    }
+
+    private static RuntimeError error(Runnable run) {
+        try {
+            run.run();
+        } catch (RuntimeError error) {
+            return error;
+        }
+        throw new AssertionError("Expected a runtime error.");
+    }
+
+    private static String run(String source, boolean inferred) {
+        final List<Stmt> statements = parse(source);
+        LocalVariables.resolve(statements);
+        if (inferred) Types.infer(statements);
+
+        final StringBuilder out = new StringBuilder();
+        new Interpreter(Limits.none(), out).run(statements);
+        return out.toString();
+    }
+
+    private static String runFlat(String source) {
+        final List<Stmt> statements = parse(source);
+        LocalVariables.resolve(statements);
+        Types.infer(statements);
+
+        final StringBuilder out = new StringBuilder();
+        new Interpreter(Limits.none(), out).run(FlatProgram.of(statements));
+        return out.toString();
+    }
+
+    private static List<Stmt> parse(String source) {
+        return new Parser(new Scanner(source).scanTokens()).parse();
+    }
+}